@@ -1,6 +1,7 @@
 package clear;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -19,8 +20,12 @@ import rescuecore2.standard.entities.Blockade;
 import rescuecore2.standard.entities.PoliceForce;
 import rescuecore2.standard.entities.Road;
 import rescuecore2.standard.entities.StandardEntity;
+import rescuecore2.standard.entities.StandardEntityURN;
+import rescuecore2.standard.entities.StandardPropertyURN;
 import rescuecore2.standard.messages.AKClear;
 import rescuecore2.standard.messages.AKClearArea;
+import rescuecore2.standard.misc.PolygonTools;
+import rescuecore2.standard.misc.StripProfile;
 import rescuecore2.worldmodel.ChangeSet;
 import rescuecore2.worldmodel.EntityID;
 
@@ -37,6 +42,8 @@ public class ClearSimulator extends StandardSimulator {
 
   // Converts square mm to square m.
   private static final double REPAIR_COST_FACTOR = 0.000001;
+  // Smaller changes in a blockade's surface (in square mm) are rounding
+  private static final double SURFACE_TOLERANCE = 1;
 
   private int repairRate;
   private int repairRadius;
@@ -56,6 +63,19 @@ public class ClearSimulator extends StandardSimulator {
   }
 
 
+  @Override
+  protected EnumSet<StandardEntityURN> getRequestedEntityURNsEnum() {
+    return EnumSet.of(StandardEntityURN.BLOCKADE, StandardEntityURN.POLICE_FORCE);
+  }
+
+
+  @Override
+  protected EnumSet<StandardPropertyURN> getRequestedPropertyURNsEnum() {
+    // Roads and buildings are static apart from their blockade lists
+    return EnumSet.of(StandardPropertyURN.BLOCKADES);
+  }
+
+
   @Override
   protected void processCommands(KSCommands c, ChangeSet changes) {
     long start = System.currentTimeMillis();
@@ -139,59 +159,55 @@ public class ClearSimulator extends StandardSimulator {
 
     int length = this.repairDistance;
 
-    Map<Blockade, java.awt.geom.Area> blockades = new HashMap<>();
+    if (agent.getX() == targetX && agent.getY() == targetY) {
+      Logger.debug("Ignoring " + clear + ": agent is at the target");
+      return;
+    }
+
+    Map<Blockade, com.vividsolutions.jts.geom.Geometry> blockades =
+        new HashMap<>();
     for (StandardEntity entity : model.getObjectsInRange(agent.getX(),
         agent.getY(), length)) {
       if ((entity instanceof Area area) && (area.isBlockadesDefined())) {
         for (EntityID blockadeID : area.getBlockades()) {
           Blockade blockade = (Blockade) model.getEntity(blockadeID);
           if (blockade != null) {
-            if (blockade.getShape() == null) {
-              Logger.debug("Blockade Shape is null");
+            if (!blockade.isApexesDefined()) {
+              Logger.debug("Blockade apexes are undefined");
+              continue;
             }
             blockades.put(blockade,
-                new java.awt.geom.Area(blockade.getShape()));
+                PolygonTools.toGeometry(blockade.getApexes()));
           }
         }
       }
     }
 
-    int counter = 0;
-    int min = 0;
-    int max = 2 * length;
-    while (true) {
-      counter++;
-      length = (min + max) / 2;
-      java.awt.geom.Area area = Geometry.getClearArea(agent, targetX, targetY,
-          length, this.repairRadius);
-
-      double firstSurface = Geometry.surface(area);
-      for (java.awt.geom.Area blockade : blockades.values())
-        area.subtract(blockade);
-      double surface = Geometry.surface(area);
-      double clearedSurface = firstSurface - surface;
-
-      if ((clearedSurface * REPAIR_COST_FACTOR) > this.repairRate) {
-        max = length;
-      } else if ((counter != 1) && (counter < 15) && ((max - min) > 5)) {
-        min = length;
-      } else {
-        break;
-      }
+    // The longest clear whose cleared surface costs at most the repair rate
+    StripProfile profile = Geometry.getClearProfile(agent, targetX,
+        targetY, length, this.repairRadius, blockades.values());
+    double distance = profile.getDistance(this.repairRate / REPAIR_COST_FACTOR);
+    if (distance < profile.getLength()) {
+      length = (int) Math.max(0, distance - Geometry.BACK_DISTANCE);
+    }
+    if (length <= 0) {
+      // The rectangle behind the agent alone costs more than the repair rate
+      Logger.debug("Ignoring " + clear + ": nothing can be cleared");
+      return;
     }
 
-    java.awt.geom.Area area = Geometry.getClearArea(agent, targetX, targetY,
-        length, this.repairRadius);
-    for (Map.Entry<Blockade, java.awt.geom.Area> entry : blockades.entrySet()) {
+    com.vividsolutions.jts.geom.Geometry area = Geometry.getClearArea(agent,
+        targetX, targetY, length, this.repairRadius);
+    for (Map.Entry<Blockade, com.vividsolutions.jts.geom.Geometry> entry : blockades.entrySet()) {
       Blockade blockade = entry.getKey();
-      java.awt.geom.Area blockadeArea = entry.getValue();
-      Road road = (Road) model.getEntity(blockade.getPosition());
-      double firstSurface = Geometry.surface(blockadeArea);
-      blockadeArea.subtract(area);
-      double surface = Geometry.surface(blockadeArea);
-      if (surface < firstSurface) {
+      com.vividsolutions.jts.geom.Geometry blockadeArea = entry.getValue();
+      double firstSurface = blockadeArea.getArea();
+      blockadeArea = PolygonTools.difference(blockadeArea, area);
+      double surface = blockadeArea.getArea();
+      if (surface < firstSurface - SURFACE_TOLERANCE) {
+        Road road = (Road) model.getEntity(blockade.getPosition());
         changes.addChange(blockade, blockade.getApexesProperty());
-        List<int[]> areas = Geometry.getAreas(blockadeArea);
+        List<int[]> areas = PolygonTools.toApexes(blockadeArea);
         if (areas.size() == 1) {
           Blockade backupBlockade = blockade;
           blockade = updateBlockadeApexes(blockade, areas.get(0));
@@ -9,8 +9,6 @@ import rescuecore2.worldmodel.EntityID;
 import rescuecore2.worldmodel.WorldModelListener;
 import rescuecore2.worldmodel.WorldModel;
 import rescuecore2.misc.geometry.Point2D;
-import rescuecore2.misc.geometry.Line2D;
-import rescuecore2.misc.geometry.Vector2D;
 import rescuecore2.misc.geometry.GeometryTools2D;
 import rescuecore2.misc.collections.LazyMap;
 import rescuecore2.log.Logger;
@@ -22,27 +20,31 @@ import rescuecore2.standard.entities.StandardEntityURN;
 import rescuecore2.standard.entities.StandardEntityConstants;
 import rescuecore2.standard.entities.Building;
 import rescuecore2.standard.entities.Road;
-import rescuecore2.standard.entities.Edge;
 import rescuecore2.standard.entities.Blockade;
 import rescuecore2.standard.entities.StandardWorldModel;
+import rescuecore2.standard.misc.PolygonTools;
 
 import org.uncommons.maths.random.GaussianGenerator;
 import org.uncommons.maths.random.ContinuousUniformGenerator;
 import org.uncommons.maths.number.NumberGenerator;
 import org.uncommons.maths.Maths;
 
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
 import java.util.Map;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.EnumMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-
-import java.awt.geom.Path2D;
-import java.awt.geom.Ellipse2D;
-import java.awt.geom.PathIterator;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import javax.swing.JComponent;
 
@@ -72,6 +74,7 @@ public class CollapseSimulator extends StandardSimulator implements
 	private static final String FLOOR_HEIGHT_KEY = "collapse.floor-height";
 	private static final String WALL_COLLAPSE_EXTENT_MIN_KEY = "collapse.wall-extent.min";
 	private static final String WALL_COLLAPSE_EXTENT_MAX_KEY = "collapse.wall-extent.max";
+	private static final String THREADS_KEY = "collapse.threads";
 
 	/* Aftershock Requirment 2013 */
 	private static final String RANDOM_AFTERSHOCK = "collapse.aftershock.random";
@@ -101,6 +104,9 @@ public class CollapseSimulator extends StandardSimulator implements
 
 	private static final int MAX_COLLAPSE = 100;
 
+	// Regions per task below which the work is not split further
+	private static final int MIN_TASK_SIZE = 4;
+
 	private static final double REPAIR_COST_FACTOR = 0.000001; // Converts
 																// square mm to
 																// square m.
@@ -110,6 +116,13 @@ public class CollapseSimulator extends StandardSimulator implements
 	private static final List<EntityID> EMPTY_ID_LIST = new ArrayList<EntityID>(
 			0);
 
+	private static final Comparator<StandardEntity> ID_ORDER = new Comparator<StandardEntity>() {
+		@Override
+		public int compare(StandardEntity a, StandardEntity b) {
+			return Integer.compare(a.getID().getValue(), b.getID().getValue());
+		}
+	};
+
 	private NumberGenerator<Double> destroyed;
 	private NumberGenerator<Double> severe;
 	private NumberGenerator<Double> moderate;
@@ -125,6 +138,7 @@ public class CollapseSimulator extends StandardSimulator implements
 	private CollapseSimulatorGUI gui;
 	private Collection<Building> buildingCache;
 	private Collection<Road> roadCache;
+	private ForkJoinPool pool;
 
 	public CollapseSimulator() {
 	}
@@ -182,6 +196,12 @@ public class CollapseSimulator extends StandardSimulator implements
 				config.getFloatValue(WALL_COLLAPSE_EXTENT_MIN_KEY),
 				config.getFloatValue(WALL_COLLAPSE_EXTENT_MAX_KEY),
 				config.getRandom());
+		if (pool != null) {
+			pool.shutdown();
+		}
+		int threads = config.getIntValue(THREADS_KEY, Runtime.getRuntime()
+				.availableProcessors());
+		pool = threads > 1 ? new ForkJoinPool(threads) : null;
 		buildingCache = new HashSet<Building>();
 		roadCache = new HashSet<Road>();
 		for (StandardEntity next : model) {
@@ -226,8 +246,7 @@ public class CollapseSimulator extends StandardSimulator implements
 			gui.timestep(time);
 		}
 		Collection<Building> collapsed = doCollapse(changes, time);
-		Map<Road, Collection<java.awt.geom.Area>> newBlock = doBlock(collapsed,
-				time);
+		Map<Road, Collection<int[]>> newBlock = doBlock(collapsed, time);
 		// Create blockade objects
 		Map<Road, Collection<Blockade>> blockades = createBlockadeObjects(newBlock);
 		for (Map.Entry<Road, Collection<Blockade>> entry : blockades.entrySet()) {
@@ -281,16 +300,13 @@ public class CollapseSimulator extends StandardSimulator implements
 		return result;
 	}
 
-	static long t1;
-	static long t2;
-	static long t3;
-
-	private Map<Road, Collection<java.awt.geom.Area>> doBlock(
-			Collection<Building> collapsed, int time) {
-		Map<Road, Collection<java.awt.geom.Area>> result = new LazyMap<Road, Collection<java.awt.geom.Area>>() {
+	private Map<Road, Collection<int[]>> doBlock(Collection<Building> collapsed,
+			int time) {
+		Map<Road, Collection<int[]>> result = new LazyMap<Road, Collection<int[]>>(
+				new LinkedHashMap<Road, Collection<int[]>>()) {
 			@Override
-			public Collection<java.awt.geom.Area> createValue() {
-				return new ArrayList<java.awt.geom.Area>();
+			public Collection<int[]> createValue() {
+				return new ArrayList<int[]>();
 			}
 		};
 		if (!block) {
@@ -299,8 +315,28 @@ public class CollapseSimulator extends StandardSimulator implements
 		if (gui != null) {
 			gui.startBlock(collapsed.size());
 		}
-		for (Building b : collapsed) {
-			createBlockages(b, result, time);
+		// Random numbers are drawn in building order so that a run can be
+		// repeated, and the blockades are collected in the same order so that
+		// they get the same IDs
+		List<Building> buildings = new ArrayList<Building>(collapsed);
+		Collections.sort(buildings, ID_ORDER);
+		List<Footprint> footprints = new ArrayList<Footprint>();
+		for (Building b : buildings) {
+			footprints.add(createFootprint(b, time));
+		}
+		List<List<Footprint>> regions = getRegions(footprints);
+		Logger.debug("Creating blockages for " + footprints.size()
+				+ " buildings in " + regions.size() + " regions");
+		RegionTask task = new RegionTask(regions, 0, regions.size());
+		if (pool == null) {
+			task.invoke();
+		} else {
+			pool.invoke(task);
+		}
+		for (Footprint next : footprints) {
+			for (Map.Entry<Road, List<int[]>> entry : next.blockades.entrySet()) {
+				result.get(entry.getKey()).addAll(entry.getValue());
+			}
 			if (gui != null) {
 				gui.bumpBlock();
 			}
@@ -427,7 +463,7 @@ public class CollapseSimulator extends StandardSimulator implements
 	}
 
 	private Map<Road, Collection<Blockade>> createBlockadeObjects(
-			Map<Road, Collection<java.awt.geom.Area>> blocks) {
+			Map<Road, Collection<int[]>> blocks) {
 		Map<Road, Collection<Blockade>> result = new LazyMap<Road, Collection<Blockade>>() {
 			@Override
 			public Collection<Blockade> createValue() {
@@ -435,7 +471,7 @@ public class CollapseSimulator extends StandardSimulator implements
 			}
 		};
 		int count = 0;
-		for (Collection<java.awt.geom.Area> c : blocks.values()) {
+		for (Collection<int[]> c : blocks.values()) {
 			count += c.size();
 		}
 		try {
@@ -443,12 +479,12 @@ public class CollapseSimulator extends StandardSimulator implements
 				List<EntityID> newIDs = requestNewEntityIDs(count);
 				Iterator<EntityID> it = newIDs.iterator();
 				Logger.debug("Creating new blockade objects");
-				for (Map.Entry<Road, Collection<java.awt.geom.Area>> entry : blocks
+				for (Map.Entry<Road, Collection<int[]>> entry : blocks
 						.entrySet()) {
 					Road r = entry.getKey();
-					for (java.awt.geom.Area area : entry.getValue()) {
+					for (int[] apexes : entry.getValue()) {
 						EntityID id = it.next();
-						Blockade blockade = makeBlockade(id, area, r.getID());
+						Blockade blockade = makeBlockade(id, apexes, r.getID());
 						if (blockade != null) {
 							result.get(r).add(blockade);
 						}
@@ -461,9 +497,12 @@ public class CollapseSimulator extends StandardSimulator implements
 		return result;
 	}
 
-	private void createBlockages(Building b,
-			Map<Road, Collection<java.awt.geom.Area>> roadBlockages, int time) {
-		long t = System.currentTimeMillis();
+	/**
+	 * Work out how far the walls of a building fall and look up the roads and
+	 * blockades the fallen walls may cover. Everything that uses random numbers
+	 * or the spatial index happens here, one building at a time.
+	 */
+	private Footprint createFootprint(Building b, int time) {
 		Logger.debug("Creating blockages for " + b);
 		/*
 		 * Aftershock's Requirement@2103: this checks the ratio of the
@@ -487,202 +526,139 @@ public class CollapseSimulator extends StandardSimulator implements
 		/* Aftershock's Requirement: 2013 */
 		double d = remainingfloors * (damage / (double) MAX_COLLAPSE)
 				* currentExtent;
-		t1 += System.currentTimeMillis() - t;
-		t = System.currentTimeMillis();
 		/* Aftershock's Requirement: 2013 */
 		model().getCSBuiding(b).increaseCollapseRatio(
 				(float) (d / model().getCSBuiding(b).getTotalCollapse(
 						floorHeight)));
-		// Place some blockages on surrounding roads
-		List<java.awt.geom.Area> wallAreas = new ArrayList<java.awt.geom.Area>();
-		// Project each wall out and build a list of wall areas
-		for (Edge edge : b.getEdges()) {
-			projectWall(edge, wallAreas, d);
-		}
-		java.awt.geom.Area fullArea = new java.awt.geom.Area();
-		for (java.awt.geom.Area wallArea : wallAreas) {
-			fullArea.add(wallArea);
+		// Project each wall out by d, with a circle at each corner
+		Footprint result = new Footprint(PolygonTools.bufferOutline(
+				b.getApexList(), d));
+		if (result.bounds.isNull()) {
+			return result;
 		}
-
-		/*
-		 * new ShapeDebugFrame().show("Collapsed building", new
-		 * ShapeDebugFrame.AWTShapeInfo(b.getShape(), "Original building area",
-		 * Color.RED, true), new ShapeDebugFrame.AWTShapeInfo(fullArea,
-		 * "Expanded building area (d = " + d + ")", Color.BLACK, false) );
-		 */
-		// Find existing blockade areas
-		java.awt.geom.Area existing = new java.awt.geom.Area();
-		if (policy.equals(CollapsePolicy.MERGE_BLOCKADES)) {
-			for (StandardEntity e : model
-					.getEntitiesOfType(StandardEntityURN.BLOCKADE)) {
-				Blockade blockade = (Blockade) e;
-				existing.add(blockadeToArea(blockade));
-			}
-		}
-		t2 += System.currentTimeMillis() - t;
-		// Intersect wall areas with roads
-		t = System.currentTimeMillis();
-		Map<Road, Collection<java.awt.geom.Area>> blockadesForRoads = createRoadBlockades(
-				fullArea, existing);
-		t3 += System.currentTimeMillis() - t;
-		// Add to roadBlockages
-		for (Map.Entry<Road, Collection<java.awt.geom.Area>> entry : blockadesForRoads
-				.entrySet()) {
-			Road r = entry.getKey();
-			Collection<java.awt.geom.Area> c = entry.getValue();
-			roadBlockages.get(r).addAll(c);
+		// Only roads and blockades near the fallen walls are looked at
+		List<StandardEntity> nearby = new ArrayList<StandardEntity>(
+				model.getObjectsInRectangle(
+						(int) Math.floor(result.bounds.getMinX()),
+						(int) Math.floor(result.bounds.getMinY()),
+						(int) Math.ceil(result.bounds.getMaxX()),
+						(int) Math.ceil(result.bounds.getMaxY())));
+		Collections.sort(nearby, ID_ORDER);
+		for (StandardEntity e : nearby) {
+			if (e instanceof Road && ((Road) e).isEdgesDefined()) {
+				Road r = (Road) e;
+				result.roads.put(r, PolygonTools.toGeometry(r.getApexList()));
+			} else if (e instanceof Blockade
+					&& policy.equals(CollapsePolicy.MERGE_BLOCKADES)
+					&& ((Blockade) e).isApexesDefined()) {
+				result.existing.add(PolygonTools.toGeometry(((Blockade) e)
+						.getApexes()));
+			}
 		}
+		return result;
 	}
 
-	private void projectWall(Edge edge,
-			Collection<java.awt.geom.Area> areaList, double d) {
-		Line2D wallLine = new Line2D(edge.getStartX(), edge.getStartY(),
-				edge.getEndX() - edge.getStartX(), edge.getEndY()
-						- edge.getStartY());
-		Vector2D wallDirection = wallLine.getDirection();
-		Vector2D offset = wallDirection.getNormal().normalised().scale(-d);
-		Path2D path = new Path2D.Double();
-                
-		Point2D right = wallLine.getOrigin();
-		Point2D left = wallLine.getEndPoint();
-                
-		Point2D first = left.plus(offset.scale(-1));
-		Point2D second = right.plus(offset.scale(-1));
-		Point2D third = right.plus(offset);
-		Point2D fourth = left.plus(offset);
-                
-		path.moveTo(first.getX(), first.getY());
-		path.lineTo(second.getX(), second.getY());
-		path.lineTo(third.getX(), third.getY());
-		path.lineTo(fourth.getX(), fourth.getY());
-		path.closePath();
-                
-		java.awt.geom.Area wallArea = new java.awt.geom.Area(path);
-		areaList.add(wallArea);
-		// Also add circles at each corner
-		double radius = offset.getLength();
-		Ellipse2D ellipse1 = new Ellipse2D.Double(right.getX() - radius,
-				right.getY() - radius, radius * 2, radius * 2);
-		Ellipse2D ellipse2 = new Ellipse2D.Double(left.getX() - radius,
-				left.getY() - radius, radius * 2, radius * 2);
-		areaList.add(new java.awt.geom.Area(ellipse1));
-		areaList.add(new java.awt.geom.Area(ellipse2));
-		// Logger.info("Edge from " + wallLine + " expanded to " + first + ", "
-		// + second + ", " + third + ", " + fourth);
-		// debug.show("Collapsed building",
-		// new ShapeDebugFrame.AWTShapeInfo(buildingArea,
-		// "Original building area", Color.RED, true),
-		// new ShapeDebugFrame.Line2DShapeInfo(wallLine, "Wall edge",
-		// Color.WHITE, true, true),
-		// new ShapeDebugFrame.AWTShapeInfo(wallArea, "Wall area (d = " + d +
-		// ")", Color.GREEN, false),
-		// new ShapeDebugFrame.AWTShapeInfo(ellipse1, "Ellipse 1", Color.BLUE,
-		// false),
-		// new ShapeDebugFrame.AWTShapeInfo(ellipse2, "Ellipse 2", Color.ORANGE,
-		// false)
-		// );
-	}
-
-	private Map<Road, Collection<java.awt.geom.Area>> createRoadBlockades(
-			java.awt.geom.Area buildingArea, java.awt.geom.Area existing) {
-		Map<Road, Collection<java.awt.geom.Area>> result = new HashMap<Road, Collection<java.awt.geom.Area>>();
-		java.awt.Rectangle rectangle = buildingArea.getBounds();
-		Collection<StandardEntity> roads = model.getObjectsInRectangle(
-				(int) rectangle.getMinX(), (int) rectangle.getMinY(),
-				(int) rectangle.getMaxX(), (int) rectangle.getMaxY());
-		for (StandardEntity e : roads) {
-			if (!(e instanceof Road)) {
-				continue;
+	/**
+	 * Group footprints whose bounds overlap, directly or through other
+	 * footprints. Blockages in different regions cannot touch each other, so
+	 * regions can be worked on at the same time. Regions and the footprints in
+	 * them keep the order of the given list.
+	 */
+	private List<List<Footprint>> getRegions(final List<Footprint> footprints) {
+		int n = footprints.size();
+		int[] parent = new int[n];
+		List<Integer> order = new ArrayList<Integer>(n);
+		for (int i = 0; i < n; ++i) {
+			parent[i] = i;
+			order.add(i);
+		}
+		// Sweep along x so that only footprints that overlap in x are compared
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(footprints.get(a).bounds.getMinX(),
+						footprints.get(b).bounds.getMinX());
 			}
-			Road r = (Road) e;
-			java.awt.geom.Area roadArea = areaToGeomArea(r);
-			java.awt.geom.Area intersection = new java.awt.geom.Area(roadArea);
-			intersection.intersect(buildingArea);
-			intersection.subtract(existing);
-			if (intersection.isEmpty()) {
-				continue;
+		});
+		for (int i = 0; i < n; ++i) {
+			Envelope first = footprints.get(order.get(i)).bounds;
+			for (int j = i + 1; j < n; ++j) {
+				Envelope second = footprints.get(order.get(j)).bounds;
+				if (second.getMinX() > first.getMaxX()) {
+					break;
+				}
+				if (first.intersects(second)) {
+					join(parent, order.get(i), order.get(j));
+				}
 			}
-			existing.add(intersection);
-			List<java.awt.geom.Area> blockadeAreas = fix(intersection);
-			result.put(r, blockadeAreas);
-			// debug.show("Road blockage",
-			// new ShapeDebugFrame.AWTShapeInfo(buildingArea, "Building area",
-			// Color.BLACK, false),
-			// new ShapeDebugFrame.AWTShapeInfo(roadArea, "Road area",
-			// Color.BLUE, false),
-			// new ShapeDebugFrame.AWTShapeInfo(intersection, "Intersection",
-			// Color.GREEN, true)
-			// );
 		}
-		return result;
+		Map<Integer, List<Footprint>> regions = new LinkedHashMap<Integer, List<Footprint>>();
+		for (int i = 0; i < n; ++i) {
+			int root = find(parent, i);
+			List<Footprint> region = regions.get(root);
+			if (region == null) {
+				region = new ArrayList<Footprint>();
+				regions.put(root, region);
+			}
+			region.add(footprints.get(i));
+		}
+		return new ArrayList<List<Footprint>>(regions.values());
 	}
 
-	private java.awt.geom.Area areaToGeomArea(
-			rescuecore2.standard.entities.Area area) {
-		Path2D result = new Path2D.Double();
-		Iterator<Edge> it = area.getEdges().iterator();
-		Edge e = it.next();
-		result.moveTo(e.getStartX(), e.getStartY());
-		result.lineTo(e.getEndX(), e.getEndY());
-		while (it.hasNext()) {
-			e = it.next();
-			result.lineTo(e.getEndX(), e.getEndY());
-		}
-		return new java.awt.geom.Area(result);
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
 	}
 
-	private List<java.awt.geom.Area> fix(java.awt.geom.Area area) {
-		List<java.awt.geom.Area> result = new ArrayList<java.awt.geom.Area>();
-		if (area.isSingular()) {
-			result.add(area);
-			return result;
+	private static void join(int[] parent, int a, int b) {
+		int rootA = find(parent, a);
+		int rootB = find(parent, b);
+		if (rootA != rootB) {
+			parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
 		}
-		PathIterator it = area.getPathIterator(null);
-		Path2D current = null;
-		// CHECKSTYLE:OFF:MagicNumber
-		double[] d = new double[6];
-		while (!it.isDone()) {
-			switch (it.currentSegment(d)) {
-			case PathIterator.SEG_MOVETO:
-				if (current != null) {
-					result.add(new java.awt.geom.Area(current));
+	}
+
+	/**
+	 * Cut the blockages of each footprint in a region out of the roads. When
+	 * blockades are merged the blockages of earlier buildings in the region
+	 * are treated like existing blockades.
+	 */
+	private void createRoadBlockades(List<Footprint> region) {
+		boolean merge = policy.equals(CollapsePolicy.MERGE_BLOCKADES);
+		List<Geometry> added = new ArrayList<Geometry>();
+		for (Footprint footprint : region) {
+			List<Geometry> covered = new ArrayList<Geometry>(footprint.existing);
+			if (merge) {
+				for (Geometry next : added) {
+					if (next.getEnvelopeInternal().intersects(footprint.bounds)) {
+						covered.add(next);
+					}
+				}
+			}
+			Geometry existing = PolygonTools.union(covered);
+			for (Map.Entry<Road, Geometry> entry : footprint.roads.entrySet()) {
+				Geometry intersection = PolygonTools.intersection(
+						entry.getValue(), footprint.area);
+				intersection = PolygonTools.difference(intersection, existing);
+				if (intersection.getArea() <= 0) {
+					continue;
+				}
+				existing = PolygonTools.union(Arrays.asList(existing,
+						intersection));
+				added.add(intersection);
+				List<int[]> apexes = PolygonTools.toApexes(intersection);
+				if (!apexes.isEmpty()) {
+					footprint.blockades.put(entry.getKey(), apexes);
 				}
-				current = new Path2D.Double();
-				current.moveTo(d[0], d[1]);
-				break;
-			case PathIterator.SEG_LINETO:
-				current.lineTo(d[0], d[1]);
-				break;
-			case PathIterator.SEG_QUADTO:
-				current.quadTo(d[0], d[1], d[2], d[3]);
-				break;
-			case PathIterator.SEG_CUBICTO:
-				current.curveTo(d[0], d[1], d[2], d[3], d[4], d[5]);
-				break;
-			case PathIterator.SEG_CLOSE:
-				current.closePath();
-				break;
-			default:
-				throw new RuntimeException(
-						"Unexpected result from PathIterator.currentSegment: "
-								+ it.currentSegment(d));
 			}
-			it.next();
-		}
-		// CHECKSTYLE:ON:MagicNumber
-		if (current != null) {
-			result.add(new java.awt.geom.Area(current));
 		}
-		return result;
 	}
 
-	private Blockade makeBlockade(EntityID id, java.awt.geom.Area area,
-			EntityID roadID) {
-		if (area.isEmpty()) {
-			return null;
-		}
+	private Blockade makeBlockade(EntityID id, int[] apexes, EntityID roadID) {
 		Blockade result = new Blockade(id);
-		int[] apexes = getApexes(area);
 		List<Point2D> points = GeometryTools2D.vertexArrayToPoints(apexes);
 		if (points.size() < 2) {
 			return null;
@@ -700,88 +676,49 @@ public class CollapseSimulator extends StandardSimulator implements
 		return result;
 	}
 
-	private int[] getApexes(java.awt.geom.Area area) {
-		// Logger.debug("getApexes");
-		List<Integer> apexes = new ArrayList<Integer>();
-		// CHECKSTYLE:OFF:MagicNumber
-		PathIterator it = area.getPathIterator(null, 100);
-		double[] d = new double[6];
-		int moveX = 0;
-		int moveY = 0;
-		int lastX = 0;
-		int lastY = 0;
-		boolean finished = false;
-		while (!finished && !it.isDone()) {
-			int x = 0;
-			int y = 0;
-			switch (it.currentSegment(d)) {
-			case PathIterator.SEG_MOVETO:
-				x = (int) d[0];
-				y = (int) d[1];
-				moveX = x;
-				moveY = y;
-				// Logger.debug("Move to " + x + ", " + y);
-				break;
-			case PathIterator.SEG_LINETO:
-				x = (int) d[0];
-				y = (int) d[1];
-				// Logger.debug("Line to " + x + ", " + y);
-				if (x == moveX && y == moveY) {
-					finished = true;
-				}
-				break;
-			case PathIterator.SEG_QUADTO:
-				x = (int) d[2];
-				y = (int) d[3];
-				// Logger.debug("Quad to " + x + ", " + y);
-				if (x == moveX && y == moveY) {
-					finished = true;
-				}
-				break;
-			case PathIterator.SEG_CUBICTO:
-				x = (int) d[4];
-				y = (int) d[5];
-				// Logger.debug("Cubic to " + x + ", " + y);
-				if (x == moveX && y == moveY) {
-					finished = true;
-				}
-				break;
-			case PathIterator.SEG_CLOSE:
-				// Logger.debug("Close");
-				finished = true;
-				break;
-			default:
-				throw new RuntimeException(
-						"Unexpected result from PathIterator.currentSegment: "
-								+ it.currentSegment(d));
-			}
-			// Logger.debug(x + ", " + y);
-			if (!finished && (x != lastX || y != lastY)) {
-				apexes.add(x);
-				apexes.add(y);
-			}
-			lastX = x;
-			lastY = y;
-			it.next();
-		}
-		// CHECKSTYLE:ON:MagicNumber
-		int[] result = new int[apexes.size()];
-		int i = 0;
-		for (Integer next : apexes) {
-			result[i++] = next;
+	/**
+	 * The area covered by the fallen walls of one building, with the roads
+	 * and existing blockades under it and the blockages it creates.
+	 */
+	private static class Footprint {
+		private final Geometry area;
+		private final Envelope bounds;
+		private final Map<Road, Geometry> roads;
+		private final List<Geometry> existing;
+		private final Map<Road, List<int[]>> blockades;
+
+		Footprint(Geometry area) {
+			this.area = area;
+			this.bounds = area.getEnvelopeInternal();
+			this.roads = new LinkedHashMap<Road, Geometry>();
+			this.existing = new ArrayList<Geometry>();
+			this.blockades = new LinkedHashMap<Road, List<int[]>>();
 		}
-		return result;
 	}
 
-	private java.awt.geom.Area blockadeToArea(Blockade b) {
-		Path2D result = new Path2D.Double();
-		int[] apexes = b.getApexes();
-		result.moveTo(apexes[0], apexes[1]);
-		for (int i = 2; i < apexes.length; i += 2) {
-			result.lineTo(apexes[i], apexes[i + 1]);
+	private class RegionTask extends RecursiveAction {
+		private final List<List<Footprint>> regions;
+		private final int from;
+		private final int to;
+
+		RegionTask(List<List<Footprint>> regions, int from, int to) {
+			this.regions = regions;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= MIN_TASK_SIZE || pool == null) {
+				for (int i = from; i < to; ++i) {
+					createRoadBlockades(regions.get(i));
+				}
+				return;
+			}
+			int middle = (from + to) / 2;
+			invokeAll(new RegionTask(regions, from, middle), new RegionTask(
+					regions, middle, to));
 		}
-		result.closePath();
-		return new java.awt.geom.Area(result);
 	}
 
 	private class CollapseStats {
@@ -0,0 +1,15 @@
+package kernel;
+
+import rescuecore2.messages.Command;
+
+/**
+   Interface for objects that want to know when an agent has sent a command.
+ */
+public interface AgentCommandListener {
+    /**
+       Notification that a command has been received from an agent.
+       @param agent The agent that sent the command.
+       @param c The command that was received.
+    */
+    void commandReceived(AgentProxy agent, Command c);
+}
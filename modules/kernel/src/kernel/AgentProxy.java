@@ -3,6 +3,8 @@ package kernel;
 import java.util.Collection;
 import java.util.Map;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
 
 import rescuecore2.connection.Connection;
 import rescuecore2.connection.ConnectionListener;
@@ -22,6 +24,7 @@ import rescuecore2.registry.Registry;
 public class AgentProxy extends AbstractKernelComponent {
     private Entity entity;
     private Map<Integer, Collection<Command>> commands;
+    private Set<AgentCommandListener> commandListeners;
 
     /**
        Construct an agent.
@@ -38,6 +41,7 @@ public class AgentProxy extends AbstractKernelComponent {
                 return new ArrayList<Command>();
             }
         };
+        commandListeners = new HashSet<AgentCommandListener>();
         c.addConnectionListener(new AgentConnectionListener());
     }
 
@@ -68,6 +72,26 @@ public class AgentProxy extends AbstractKernelComponent {
         return result;
     }
 
+    /**
+       Add a listener that will be notified whenever this agent sends a command.
+       @param l The listener to add.
+    */
+    public void addAgentCommandListener(AgentCommandListener l) {
+        synchronized (commandListeners) {
+            commandListeners.add(l);
+        }
+    }
+
+    /**
+       Remove an AgentCommandListener.
+       @param l The listener to remove.
+    */
+    public void removeAgentCommandListener(AgentCommandListener l) {
+        synchronized (commandListeners) {
+            commandListeners.remove(l);
+        }
+    }
+
     /**
        Notify the of a perception update.
        @param time The current timestep.
@@ -96,6 +120,20 @@ public class AgentProxy extends AbstractKernelComponent {
             result.add(c);
             commands.notifyAll();
         }
+        fireCommandReceived(c);
+    }
+
+    private void fireCommandReceived(Command c) {
+        Collection<AgentCommandListener> copy;
+        synchronized (commandListeners) {
+            if (commandListeners.isEmpty()) {
+                return;
+            }
+            copy = new ArrayList<AgentCommandListener>(commandListeners);
+        }
+        for (AgentCommandListener next : copy) {
+            next.commandReceived(this, c);
+        }
     }
 
     private class AgentConnectionListener implements ConnectionListener {
@@ -0,0 +1,76 @@
+package kernel;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import rescuecore2.log.Logger;
+import rescuecore2.worldmodel.ChangeSet;
+import rescuecore2.worldmodel.EntityID;
+import rescuecore2.worldmodel.Property;
+
+/**
+   Merges simulator updates into a single ChangeSet in whatever order they arrive. If more than one simulator changes the same property then the change from the simulator with the highest ID is kept. This rule is new: the kernel used to merge updates in the iteration order of a HashSet of simulators, which did not follow the simulator IDs, so the winner of a conflict was not defined. Deleted entities always take precedence over changes to those entities.
+ */
+final class ChangeSetMerger {
+    private final ChangeSet result;
+    private final Map<EntityID, Map<Integer, Integer>> owners;
+    private int conflicts;
+
+    /**
+       Construct an empty ChangeSetMerger.
+    */
+    ChangeSetMerger() {
+        result = new ChangeSet();
+        owners = new HashMap<EntityID, Map<Integer, Integer>>();
+        conflicts = 0;
+    }
+
+    /**
+       Merge an update from a simulator.
+       @param simulatorID The ID of the simulator.
+       @param changes The changes sent by the simulator.
+    */
+    void merge(final int simulatorID, ChangeSet changes) {
+        for (EntityID e : changes.getDeletedEntities()) {
+            result.entityDeleted(e);
+            owners.remove(e);
+        }
+        changes.forEachChange(new ChangeSet.ChangeProcedure() {
+            @Override
+            public boolean execute(EntityID e, int urn, Property p) {
+                Map<Integer, Integer> properties = owners.get(e);
+                if (properties == null) {
+                    properties = new HashMap<Integer, Integer>();
+                    owners.put(e, properties);
+                }
+                Integer owner = properties.get(p.getURN());
+                if (owner != null && owner != simulatorID) {
+                    ++conflicts;
+                    Logger.debug("Simulators " + owner + " and " + simulatorID + " both changed property " + p.getURN() + " of entity " + e);
+                    if (owner > simulatorID) {
+                        return true;
+                    }
+                }
+                result.addChange(e, urn, p);
+                properties.put(p.getURN(), simulatorID);
+                return true;
+            }
+        });
+    }
+
+    /**
+       Get the merged changes.
+       @return The merged ChangeSet.
+    */
+    ChangeSet getResult() {
+        return result;
+    }
+
+    /**
+       Get the number of conflicting property changes seen so far.
+       @return The number of conflicts.
+    */
+    int getConflictCount() {
+        return conflicts;
+    }
+}
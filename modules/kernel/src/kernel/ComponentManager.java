@@ -17,7 +17,9 @@ import rescuecore2.connection.Connection;
 import rescuecore2.connection.ConnectionException;
 import rescuecore2.connection.ConnectionListener;
 import rescuecore2.connection.ConnectionManagerListener;
+import rescuecore2.messages.EncodedEntityList;
 import rescuecore2.messages.Message;
+import rescuecore2.messages.control.ControlMessageComponentURN;
 import rescuecore2.messages.control.KSAfterShocksInfo;
 import rescuecore2.messages.control.VKConnect;
 import rescuecore2.registry.Registry;
@@ -30,6 +32,7 @@ import rescuecore2.messages.control.AKConnect;
 import rescuecore2.messages.control.AKAcknowledge;
 import rescuecore2.messages.control.KAConnectError;
 import rescuecore2.messages.control.KAConnectOK;
+import rescuecore2.Timestep;
 import rescuecore2.scenario.Scenario;
 import rescuecore2.scenario.exceptions.UncompatibleScenarioException;
 import rescuecore2.worldmodel.Entity;
@@ -73,11 +76,16 @@ public class ComponentManager implements ConnectionManagerListener,
 
 	private Config config;
 
+	// Encoding of the whole world, shared by all simulators and viewers that
+	// connect before the first timestep
+	private EncodedEntityList worldEncoding;
+
 	/** Lock objects. */
 	private final Object agentLock = new Object();
 	private final Object simLock = new Object();
 	private final Object viewerLock = new Object();
 	private final Object idLock = new Object();
+	private final Object encodingLock = new Object();
 
 	private final Scenario scenario;
 
@@ -103,6 +111,15 @@ public class ComponentManager implements ConnectionManagerListener,
 		viewersToAcknowledge = new HashSet<ViewerAck>();
 		nextID = STARTING_ID;
 		gui = new ComponentManagerGUI();
+		kernel.addKernelListener(new KernelListenerAdapter() {
+			@Override
+			public void timestepCompleted(Kernel k, Timestep time) {
+				// The world has changed so the cached encoding is stale
+				synchronized (encodingLock) {
+					worldEncoding = null;
+				}
+			}
+		});
 	}
 
 	/**
@@ -128,7 +145,38 @@ public class ComponentManager implements ConnectionManagerListener,
 				uncontrolledEntities.put(entity.getURN(), q);
 			}
 			if (visibleOnStartup == null) {
-				visibleOnStartup = world.getAllEntities();
+				q.add(new ControlledEntityInfo(entity, null, agentConfig));
+			} else {
+				q.add(new ControlledEntityInfo(entity,
+						new EncodedEntityList(visibleOnStartup), agentConfig));
+			}
+		}
+		updateGUIUncontrolledAgents();
+	}
+
+	/**
+	 * Register an agent-controlled entity whose startup view has already been
+	 * encoded. The same encoding can be shared by many agents; the controlled
+	 * entity replaces any copy of it in the encoded list.
+	 * 
+	 * @param entity
+	 *            The entity that is agent-controlled.
+	 * @param visibleOnStartup
+	 *            The encoded set of entities that the agent should be sent on
+	 *            startup. If this is null then all entities will be sent.
+	 * @param agentConfig
+	 *            A view of the system configuration that should be shared with
+	 *            the agent.
+	 */
+	public void registerAgentControlledEntity(Entity entity,
+			EncodedEntityList visibleOnStartup, Config agentConfig) {
+		Logger.info("Agent controlled entity registered: " + entity);
+		synchronized (agentLock) {
+			Queue<ControlledEntityInfo> q = uncontrolledEntities.get(entity
+					.getURN());
+			if (q == null) {
+				q = new LinkedList<ControlledEntityInfo>();
+				uncontrolledEntities.put(entity.getURN(), q);
 			}
 			q.add(new ControlledEntityInfo(entity, visibleOnStartup,
 					agentConfig));
@@ -222,6 +270,8 @@ public class ComponentManager implements ConnectionManagerListener,
 				if (next.requestID == requestID && next.agentID.equals(agentID)
 						&& next.connection == c) {
 					agentsToAcknowledge.remove(next);
+					handshakeCompleted(next.agent.getName() + " "
+							+ agentID, next.start, next.encodeTime);
 					kernel.addAgent(next.agent);
 					agentLock.notifyAll();
 					return true;
@@ -238,6 +288,8 @@ public class ComponentManager implements ConnectionManagerListener,
 						&& next.simulatorID == simulatorID
 						&& next.connection == c) {
 					simsToAcknowledge.remove(next);
+					handshakeCompleted(next.sim.getName() + " " + simulatorID,
+							next.start, next.encodeTime);
 					kernel.addSimulator(next.sim);
 					simLock.notifyAll();
 					return true;
@@ -253,6 +305,8 @@ public class ComponentManager implements ConnectionManagerListener,
 				if (next.requestID == requestID && next.viewerID == viewerID
 						&& next.connection == c) {
 					viewersToAcknowledge.remove(next);
+					handshakeCompleted(next.viewer.getName() + " " + viewerID,
+							next.start, next.encodeTime);
 					kernel.addViewer(next.viewer);
 					viewerLock.notifyAll();
 					return true;
@@ -262,6 +316,26 @@ public class ComponentManager implements ConnectionManagerListener,
 		}
 	}
 
+	private void handshakeCompleted(String name, long start, long encodeTime) {
+		long total = System.currentTimeMillis() - start;
+		Logger.debug("Handshake with " + name + " took " + total
+				+ "ms (encoding " + encodeTime + "ms)");
+		gui.addHandshake(name + ": " + total + "ms (encoding " + encodeTime
+				+ "ms)");
+	}
+
+	private EncodedEntityList getWorldEncoding() {
+		synchronized (encodingLock) {
+			if (worldEncoding == null) {
+				worldEncoding = new EncodedEntityList(world.getAllEntities());
+				Logger.debug("Encoded " + worldEncoding.size()
+						+ " entities in " + worldEncoding.getEncodedSize()
+						+ " bytes");
+			}
+			return worldEncoding;
+		}
+	}
+
 	private int getNextSimulatorID() {
 		synchronized (idLock) {
 			return nextID++;
@@ -363,6 +437,7 @@ public class ComponentManager implements ConnectionManagerListener,
 			int requestID = connect.getRequestID();
 			List<Integer> types = connect.getRequestedEntityTypes();
 			// See if we can find an entity for this agent to control.
+			long start = System.currentTimeMillis();
 			Message reply = null;
 			Logger.debug("AKConnect received: " + types);
 			synchronized (agentLock) {
@@ -376,14 +451,19 @@ public class ComponentManager implements ConnectionManagerListener,
 					Entity entity = result.entity;
 					AgentProxy agent = new AgentProxy(connect.getAgentName(),
 							entity, connection);
-					agentsToAcknowledge.add(new AgentAck(agent, entity.getID(),
-							requestID, connection));
 					Logger.info("Agent '" + connect.getAgentName() + "' id "
 							+ entity.getID() + " (" + connection
 							+ " request ID " + requestID + ") connected");
 					// Send an OK
-					reply = new KAConnectOK(requestID, entity.getID(),
-							result.visibleSet, result.config);
+					EncodedEntityList visible = result.visibleSet == null ? getWorldEncoding()
+							: result.visibleSet;
+					reply = visible.encode(new KAConnectOK(requestID,
+							entity.getID(), Collections.<Entity> emptySet(),
+							result.config), ControlMessageComponentURN.Entities,
+							Collections.singleton(entity));
+					agentsToAcknowledge.add(new AgentAck(agent, entity.getID(),
+							requestID, connection, start,
+							System.currentTimeMillis() - start));
 				}
 			}
 			if (reply != null) {
@@ -418,15 +498,25 @@ public class ComponentManager implements ConnectionManagerListener,
 			Logger.info("Simulator '" + msg.getSimulatorName() + "' id "
 					+ simID + " (" + connection + " request ID " + requestID
 					+ ") connected");
+			long start = System.currentTimeMillis();
 			SimulatorProxy sim = new SimulatorProxy(msg.getSimulatorName(),
 					simID, connection);
+			sim.setUpdateSubscription(new UpdateSubscription(
+					msg.getRequestedEntityTypes(),
+					msg.getRequestedPropertyTypes()));
+			Logger.info("Simulator '" + msg.getSimulatorName()
+					+ "' subscribed to " + sim.getUpdateSubscription());
+			Message reply = getWorldEncoding().encode(
+					new KSConnectOK(simID, requestID,
+							Collections.<Entity> emptySet(), config),
+					ControlMessageComponentURN.Entities,
+					Collections.<Entity> emptySet());
 			synchronized (simLock) {
 				simsToAcknowledge.add(new SimulatorAck(sim, simID, requestID,
-						connection));
+						connection, start, System.currentTimeMillis() - start));
 			}
 			// Send an OK
-			sim.send(Collections.singleton(new KSConnectOK(simID, requestID,
-					world.getAllEntities(), config)));
+			sim.send(Collections.singleton(reply));
 			sendAdditionalInfoToSim(sim);
 			updateGUISimulatorAck();
 		}
@@ -463,15 +553,21 @@ public class ComponentManager implements ConnectionManagerListener,
 			Logger.info("Viewer '" + msg.getViewerName() + "' id " + viewerID
 					+ " (" + connection + " request ID " + requestID
 					+ ") connected");
+			long start = System.currentTimeMillis();
 			ViewerProxy viewer = new ViewerProxy(msg.getViewerName(), viewerID,
 					connection);
+			Message reply = getWorldEncoding().encode(
+					new KVConnectOK(viewerID, requestID,
+							Collections.<Entity> emptySet(), config),
+					ControlMessageComponentURN.Entities,
+					Collections.<Entity> emptySet());
 			synchronized (viewerLock) {
 				viewersToAcknowledge.add(new ViewerAck(viewer, viewerID,
-						requestID, connection));
+						requestID, connection, start,
+						System.currentTimeMillis() - start));
 			}
 			// Send an OK
-			viewer.send(Collections.singleton(new KVConnectOK(viewerID,
-					requestID, world.getAllEntities(), config)));
+			viewer.send(Collections.singleton(reply));
 			updateGUIViewerAck();
 		}
 
@@ -495,13 +591,17 @@ public class ComponentManager implements ConnectionManagerListener,
 		EntityID agentID;
 		int requestID;
 		Connection connection;
+		long start;
+		long encodeTime;
 
 		public AgentAck(AgentProxy agent, EntityID agentID, int requestID,
-				Connection c) {
+				Connection c, long start, long encodeTime) {
 			this.agent = agent;
 			this.agentID = agentID;
 			this.requestID = requestID;
 			this.connection = c;
+			this.start = start;
+			this.encodeTime = encodeTime;
 		}
 
 		@Override
@@ -518,13 +618,17 @@ public class ComponentManager implements ConnectionManagerListener,
 		int simulatorID;
 		int requestID;
 		Connection connection;
+		long start;
+		long encodeTime;
 
 		public SimulatorAck(SimulatorProxy sim, int simID, int requestID,
-				Connection c) {
+				Connection c, long start, long encodeTime) {
 			this.sim = sim;
 			this.simulatorID = simID;
 			this.requestID = requestID;
 			this.connection = c;
+			this.start = start;
+			this.encodeTime = encodeTime;
 		}
 
 		@Override
@@ -539,13 +643,17 @@ public class ComponentManager implements ConnectionManagerListener,
 		int viewerID;
 		int requestID;
 		Connection connection;
+		long start;
+		long encodeTime;
 
 		public ViewerAck(ViewerProxy viewer, int viewerID, int requestID,
-				Connection c) {
+				Connection c, long start, long encodeTime) {
 			this.viewer = viewer;
 			this.viewerID = viewerID;
 			this.requestID = requestID;
 			this.connection = c;
+			this.start = start;
+			this.encodeTime = encodeTime;
 		}
 
 		@Override
@@ -557,11 +665,12 @@ public class ComponentManager implements ConnectionManagerListener,
 
 	private static class ControlledEntityInfo {
 		Entity entity;
-		Collection<? extends Entity> visibleSet;
+		// Null means the whole world
+		EncodedEntityList visibleSet;
 		Config config;
 
 		public ControlledEntityInfo(Entity entity,
-				Collection<? extends Entity> visibleSet, Config config) {
+				EncodedEntityList visibleSet, Config config) {
 			this.entity = entity;
 			this.visibleSet = visibleSet;
 			this.config = config;
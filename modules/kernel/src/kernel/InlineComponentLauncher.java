@@ -3,12 +3,12 @@ package kernel;
 import rescuecore2.config.Config;
 import rescuecore2.components.ComponentLauncher;
 import rescuecore2.connection.Connection;
-import rescuecore2.connection.StreamConnection;
+import rescuecore2.connection.InProcessConnection;
 import rescuecore2.connection.ConnectionException;
 import rescuecore2.misc.Pair;
 
 /**
-   A class that knows how to connect components to the kernel using inline streams.
+   A class that knows how to connect components to the kernel in the same JVM.
  */
 public class InlineComponentLauncher extends ComponentLauncher {
     private ComponentManager manager;
@@ -25,7 +25,7 @@ public class InlineComponentLauncher extends ComponentLauncher {
 
     @Override
     protected Connection makeConnection() throws ConnectionException {
-        Pair<Connection, Connection> connections = StreamConnection.createConnectionPair();
+        Pair<Connection, Connection> connections = InProcessConnection.createConnectionPair();
         connections.first().setRegistry(getDefaultRegistry());
         connections.first().startup();
         manager.newConnection(connections.first());
@@ -6,17 +6,27 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import rescuecore2.Constants;
 import rescuecore2.Timestep;
 import rescuecore2.config.Config;
+import rescuecore2.log.AsyncLogWriter;
 import rescuecore2.log.CommandsRecord;
 import rescuecore2.log.ConfigRecord;
 import rescuecore2.log.EndLogRecord;
@@ -30,6 +40,12 @@ import rescuecore2.log.RCRSLogFactory;
 import rescuecore2.log.StartLogRecord;
 import rescuecore2.log.UpdatesRecord;
 import rescuecore2.messages.Command;
+import rescuecore2.messages.SharedMessageEncoder;
+import rescuecore2.messages.control.ControlMessageComponentURN;
+import rescuecore2.messages.control.KSCommands;
+import rescuecore2.messages.control.KSUpdate;
+import rescuecore2.messages.control.KVTimestep;
+import rescuecore2.misc.Pair;
 import rescuecore2.score.ScoreFunction;
 //import rescuecore2.misc.gui.ChangeSetComponent;
 import rescuecore2.worldmodel.ChangeSet;
@@ -44,8 +60,11 @@ public class Kernel {
 	/** The log context for kernel log messages. */
 	public static final String KERNEL_LOG_CONTEXT = "kernel";
 
+	private static final long SIMULATOR_WAIT_TIME = 1000;
+
 	private Config config;
 	private Perception perception;
+	private ExecutorService perceptionExecutor;
 	private CommunicationModel communicationModel;
 	private WorldModel<? extends Entity> worldModel;
 	private LogWriter log;
@@ -54,6 +73,8 @@ public class Kernel {
 
 	private Collection<AgentProxy> agents;
 	private Collection<SimulatorProxy> sims;
+	private BlockingQueue<Pair<SimulatorProxy, Integer>> simulatorUpdates;
+	private SimulatorUpdateListener simulatorUpdateListener;
 	private Collection<ViewerProxy> viewers;
 	private int time;
 	private Timestep previousTimestep;
@@ -108,6 +129,13 @@ public class Kernel {
 				}
 			});
 			sims = new HashSet<SimulatorProxy>();
+			simulatorUpdates = new LinkedBlockingQueue<Pair<SimulatorProxy, Integer>>();
+			simulatorUpdateListener = new SimulatorUpdateListener() {
+				@Override
+				public void updateReceived(SimulatorProxy sim, int t) {
+					simulatorUpdates.add(new Pair<SimulatorProxy, Integer>(sim, t));
+				}
+			};
 			viewers = new HashSet<ViewerProxy>();
 			time = 0;
 			try {
@@ -123,6 +151,13 @@ public class Kernel {
 							"Created log file: " + logFile.getAbsolutePath());
 				}
 				log = RCRSLogFactory.getLogWriter(logFile);
+				if (config.getBooleanValue(KernelConstants.LOG_ASYNC_KEY,
+						true)) {
+					log = new AsyncLogWriter(log,
+							config.getIntValue(
+									KernelConstants.LOG_QUEUE_SIZE_KEY,
+									AsyncLogWriter.DEFAULT_CAPACITY));
+				}
 				log.writeRecord(new StartLogRecord());
 				log.writeRecord(new InitialConditionsRecord(worldModel));
 				log.writeRecord(new ConfigRecord(config));
@@ -142,6 +177,7 @@ public class Kernel {
 
 			// Initialise
 			perception.initialise(config, worldModel);
+			perceptionExecutor = createPerceptionExecutor();
 			communicationModel.initialise(config, worldModel);
 			commandFilter.initialise(config);
 			score.initialise(worldModel, config);
@@ -224,6 +260,7 @@ public class Kernel {
 		synchronized (this) {
 			sims.add(sim);
 			sim.setEntityIDGenerator(idGenerator);
+			sim.addSimulatorUpdateListener(simulatorUpdateListener);
 		}
 		fireSimulatorAdded(sim);
 	}
@@ -236,6 +273,7 @@ public class Kernel {
 	public void removeSimulator(SimulatorProxy sim) {
 		synchronized (this) {
 			sims.remove(sim);
+			sim.removeSimulatorUpdateListener(simulatorUpdateListener);
 		}
 		fireSimulatorRemoved(sim);
 	}
@@ -468,6 +506,9 @@ public class Kernel {
 			} catch (InterruptedException e) {
 				Logger.warn("Interrupted during shutdown");
 			}
+			if (perceptionExecutor != null) {
+				perceptionExecutor.shutdownNow();
+			}
 			try {
 				log.writeRecord(new EndLogRecord());
 				log.close();
@@ -485,20 +526,101 @@ public class Kernel {
 			throws InterruptedException, KernelException, LogException {
 		perception.setTime(time);
 		communicationModel.process(time, commandsLastTimestep);
+		if (perceptionExecutor != null) {
+			sendAgentUpdatesParallel(timestep);
+			return;
+		}
 		for (AgentProxy next : agents) {
 			if (Thread.interrupted()) {
 				throw new InterruptedException();
 			}
 			ChangeSet visible = perception.getVisibleEntities(next);
-			Collection<Command> heard = communicationModel
-					.getHearing(next.getControlledEntity());
-			EntityID id = next.getControlledEntity().getID();
-			timestep.registerPerception(id, visible, heard);
-			log.writeRecord(new PerceptionRecord(time, id, visible, heard));
-			next.sendPerceptionUpdate(time, visible, heard);
+			sendPerception(timestep, next, visible);
+		}
+	}
+
+	/**
+	 * Compute perception for all agents on the perception executor. The world
+	 * model is not modified until every task has completed, so the perception
+	 * object sees a consistent read-only view of it. Results are consumed in
+	 * agent order so that log records and agent messages are produced in the
+	 * same order as the serial path.
+	 */
+	private void sendAgentUpdatesParallel(Timestep timestep)
+			throws InterruptedException, KernelException, LogException {
+		List<AgentProxy> targets = new ArrayList<AgentProxy>(agents);
+		List<Future<ChangeSet>> results = new ArrayList<Future<ChangeSet>>(
+				targets.size());
+		for (AgentProxy next : targets) {
+			final AgentProxy agent = next;
+			results.add(perceptionExecutor.submit(new Callable<ChangeSet>() {
+				@Override
+				public ChangeSet call() {
+					return perception.getVisibleEntities(agent);
+				}
+			}));
+		}
+		try {
+			for (int i = 0; i < targets.size(); ++i) {
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+				AgentProxy agent = targets.get(i);
+				ChangeSet visible;
+				try {
+					visible = results.get(i).get();
+				} catch (ExecutionException e) {
+					throw new KernelException(
+							"Error computing perception for " + agent,
+							e.getCause());
+				}
+				sendPerception(timestep, agent, visible);
+			}
+		} finally {
+			for (Future<ChangeSet> next : results) {
+				next.cancel(true);
+			}
 		}
 	}
 
+	private void sendPerception(Timestep timestep, AgentProxy agent,
+			ChangeSet visible) throws LogException {
+		Collection<Command> heard = communicationModel
+				.getHearing(agent.getControlledEntity());
+		EntityID id = agent.getControlledEntity().getID();
+		timestep.registerPerception(id, visible, heard);
+		log.writeRecord(new PerceptionRecord(time, id, visible, heard));
+		agent.sendPerceptionUpdate(time, visible, heard);
+	}
+
+	private ExecutorService createPerceptionExecutor() {
+		if (!config.getBooleanValue(KernelConstants.PARALLEL_PERCEPTION_KEY,
+				false)) {
+			return null;
+		}
+		if (!perception.isThreadSafe()) {
+			Logger.warn("Parallel perception requested but " + perception
+					+ " is not thread-safe: using serial perception");
+			return null;
+		}
+		int threads = config.getIntValue(
+				KernelConstants.PERCEPTION_THREADS_KEY,
+				Runtime.getRuntime().availableProcessors());
+		threads = Math.max(1, threads);
+		Logger.info("Using parallel perception with " + threads + " threads");
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r,
+						"Perception-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
 	private Collection<Command> waitForCommands(int timestep)
 			throws InterruptedException {
 		Collection<Command> commands = commandCollector.getAgentCommands(agents,
@@ -511,32 +633,78 @@ public class Kernel {
 
 	/**
 	 * Send commands to all simulators and return which entities have been
-	 * updated by the simulators.
+	 * updated by the simulators. Updates are merged in the order that the
+	 * simulators respond.
 	 */
 	private ChangeSet sendCommandsToSimulators(int timestep,
 			Collection<Command> commands) throws InterruptedException {
-		for (SimulatorProxy next : sims) {
-			next.sendAgentCommands(timestep, commands);
+		long start = System.currentTimeMillis();
+		if (!sims.isEmpty()) {
+			SharedMessageEncoder encoder = new SharedMessageEncoder(
+					new KSCommands(0, timestep, commands),
+					ControlMessageComponentURN.ID);
+			for (SimulatorProxy next : sims) {
+				next.sendAgentCommands(encoder);
+			}
 		}
 		// Wait until all simulators have sent updates
-		ChangeSet result = new ChangeSet();
-		for (SimulatorProxy next : sims) {
-			Logger.debug("Fetching updates from " + next);
-			result.merge(next.getUpdates(timestep));
+		ChangeSetMerger merger = new ChangeSetMerger();
+		Set<SimulatorProxy> waiting = new HashSet<SimulatorProxy>(sims);
+		while (!waiting.isEmpty()) {
+			Pair<SimulatorProxy, Integer> next = simulatorUpdates
+					.poll(SIMULATOR_WAIT_TIME, TimeUnit.MILLISECONDS);
+			if (next == null) {
+				Logger.debug("Waiting for updates from " + waiting);
+				continue;
+			}
+			SimulatorProxy sim = next.first();
+			if (next.second() != timestep || !waiting.remove(sim)) {
+				continue;
+			}
+			long responseTime = System.currentTimeMillis() - start;
+			Logger.debug("Merging updates from " + sim + " after "
+					+ responseTime + "ms");
+			merger.merge(sim.getSimulatorID(), sim.getUpdates(timestep));
+			fireSimulatorResponded(sim, timestep, responseTime);
 		}
-		return result;
+		if (merger.getConflictCount() > 0) {
+			Logger.debug(merger.getConflictCount()
+					+ " properties were changed by more than one simulator");
+		}
+		return merger.getResult();
 	}
 
 	private void sendUpdatesToSimulators(int timestep, ChangeSet updates)
 			throws InterruptedException {
+		if (sims.isEmpty()) {
+			return;
+		}
+		// Filter and encode the changes once for each distinct subscription
+		// and share them between the simulators with that subscription
+		Map<UpdateSubscription, SharedMessageEncoder> encoders = new HashMap<UpdateSubscription, SharedMessageEncoder>();
 		for (SimulatorProxy next : sims) {
-			next.sendUpdate(timestep, updates);
+			UpdateSubscription subscription = next.getUpdateSubscription();
+			SharedMessageEncoder encoder = encoders.get(subscription);
+			if (encoder == null) {
+				encoder = new SharedMessageEncoder(
+						new KSUpdate(0, timestep, subscription.filter(updates)),
+						ControlMessageComponentURN.ID);
+				encoders.put(subscription, encoder);
+			}
+			next.sendUpdate(encoder);
 		}
 	}
 
 	private void sendToViewers(Timestep timestep) {
+		if (viewers.isEmpty()) {
+			return;
+		}
+		SharedMessageEncoder encoder = new SharedMessageEncoder(
+				new KVTimestep(0, timestep.getTime(), timestep.getCommands(),
+						timestep.getChangeSet()),
+				ControlMessageComponentURN.ID);
 		for (ViewerProxy next : viewers) {
-			next.sendTimestep(timestep);
+			next.sendTimestep(encoder);
 		}
 	}
 
@@ -566,6 +734,13 @@ public class Kernel {
 		}
 	}
 
+	private void fireSimulatorResponded(SimulatorProxy sim, int timestep,
+			long responseTime) {
+		for (KernelListener next : getListeners()) {
+			next.simulatorResponded(this, sim, timestep, responseTime);
+		}
+	}
+
 	private void fireAgentAdded(AgentProxy agent) {
 		for (KernelListener next : getListeners()) {
 			next.agentAdded(this, agent);
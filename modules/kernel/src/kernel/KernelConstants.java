@@ -10,6 +10,12 @@ public final class KernelConstants {
     /** The config key for perception implementations. */
     public static final String PERCEPTION_KEY = "kernel.perception";
 
+    /** The config key for enabling parallel perception. */
+    public static final String PARALLEL_PERCEPTION_KEY = "kernel.perception.parallel";
+
+    /** The config key for the number of parallel perception threads. */
+    public static final String PERCEPTION_THREADS_KEY = "kernel.perception.threads";
+
     /** The config key for communication model implementations. */
     public static final String COMMUNICATION_MODEL_KEY = "kernel.communication";
 
@@ -28,6 +34,18 @@ public final class KernelConstants {
     /** Whether to run the kernel in inline-only mode. */
     public static final String INLINE_ONLY_KEY = "kernel.inline-only";
 
+    /** Whether to serve TCP connections from a single selector thread instead of a set of threads per connection. */
+    public static final String SELECTOR_CONNECTIONS_KEY = "kernel.connections.selector";
+
+    /** The number of threads that dispatch messages received by the connection selector. */
+    public static final String SELECTOR_THREADS_KEY = "kernel.connections.selector.threads";
+
+    /** Whether to encode and write the kernel log on background threads. */
+    public static final String LOG_ASYNC_KEY = "kernel.log.async";
+
+    /** The number of log records that can be waiting to be written before the kernel blocks. */
+    public static final String LOG_QUEUE_SIZE_KEY = "kernel.log.queuesize";
+
     /** The config key for ignoring agent commands at the start of the simulation. */
     public static final String IGNORE_AGENT_COMMANDS_KEY = "kernel.agents.ignoreuntil";
 
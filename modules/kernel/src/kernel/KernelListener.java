@@ -25,6 +25,15 @@ public interface KernelListener {
     */
     void timestepCompleted(Kernel kernel, Timestep time);
 
+    /**
+       Notification that a simulator has sent its update for a timestep.
+       @param kernel The kernel.
+       @param simulator The simulator that responded.
+       @param time The timestep.
+       @param responseTime The time in milliseconds between sending commands to the simulators and receiving this simulator's update.
+    */
+    void simulatorResponded(Kernel kernel, SimulatorProxy simulator, int time, long responseTime);
+
     /**
        Notification that an agent has been added.
        @param kernel The kernel.
@@ -15,6 +15,9 @@ public class KernelListenerAdapter implements KernelListener {
     @Override
     public void timestepCompleted(Kernel kernel, Timestep time) {}
 
+    @Override
+    public void simulatorResponded(Kernel kernel, SimulatorProxy simulator, int time, long responseTime) {}
+
     @Override
     public void agentAdded(Kernel kernel, AgentProxy agent) {}
 
@@ -28,4 +28,12 @@ public interface Perception {
        @param timestep The current timestep.
     */
     void setTime(int timestep);
+
+    /**
+       Find out whether this perception object can compute perception for several agents at once. If this method returns true then the kernel may call {@link #getVisibleEntities(AgentProxy)} concurrently from multiple threads for different agents. The kernel guarantees that {@link #setTime(int)} has returned before any such call is made and that the world model is not modified until all calls for the timestep have completed, so implementations only need to ensure that getVisibleEntities does not modify any shared state. Any lazily-built state (e.g. spatial indexes) should be prepared in setTime.
+       @return True if getVisibleEntities is safe to call concurrently, false otherwise.
+    */
+    default boolean isThreadSafe() {
+        return false;
+    }
 }
@@ -4,6 +4,7 @@ import rescuecore2.connection.Connection;
 import rescuecore2.connection.ConnectionListener;
 import rescuecore2.messages.Message;
 import rescuecore2.messages.Command;
+import rescuecore2.messages.SharedMessageEncoder;
 import rescuecore2.messages.control.SKUpdate;
 import rescuecore2.messages.control.KSUpdate;
 import rescuecore2.messages.control.KSCommands;
@@ -16,8 +17,10 @@ import rescuecore2.log.Logger;
 import java.util.Collection;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Set;
 
 /**
    This class is the kernel interface to a simulator.
@@ -26,6 +29,8 @@ public class SimulatorProxy extends AbstractKernelComponent {
     private Map<Integer, ChangeSet> updates;
     private int id;
     private EntityIDGenerator idGenerator;
+    private Set<SimulatorUpdateListener> updateListeners;
+    private UpdateSubscription subscription;
 
     /**
        Construct a new simulator.
@@ -37,6 +42,8 @@ public class SimulatorProxy extends AbstractKernelComponent {
         super(name, c);
         this.id = id;
         updates = new HashMap<Integer, ChangeSet>();
+        updateListeners = new HashSet<SimulatorUpdateListener>();
+        subscription = UpdateSubscription.ALL;
         c.addConnectionListener(new SimulatorConnectionListener());
     }
 
@@ -60,12 +67,64 @@ public class SimulatorProxy extends AbstractKernelComponent {
     }
 
     /**
-       Send an update message to this simulator.
+       Get the ID of this simulator.
+       @return The simulator ID.
+    */
+    public int getSimulatorID() {
+        return id;
+    }
+
+    /**
+       Add a listener that will be notified whenever this simulator sends an update.
+       @param l The listener to add.
+    */
+    public void addSimulatorUpdateListener(SimulatorUpdateListener l) {
+        synchronized (updateListeners) {
+            updateListeners.add(l);
+        }
+    }
+
+    /**
+       Remove a SimulatorUpdateListener.
+       @param l The listener to remove.
+    */
+    public void removeSimulatorUpdateListener(SimulatorUpdateListener l) {
+        synchronized (updateListeners) {
+            updateListeners.remove(l);
+        }
+    }
+
+    /**
+       Get the updates this simulator has asked for.
+       @return The update subscription.
+    */
+    public UpdateSubscription getUpdateSubscription() {
+        return subscription;
+    }
+
+    /**
+       Set the updates this simulator has asked for.
+       @param s The new update subscription.
+    */
+    public void setUpdateSubscription(UpdateSubscription s) {
+        subscription = s;
+    }
+
+    /**
+       Send an update message to this simulator. Only the changes that match the update subscription are sent.
        @param time The simulation time.
        @param update The updated entities.
     */
     public void sendUpdate(int time, ChangeSet update) {
-        send(new KSUpdate(id, time, update));
+        send(new KSUpdate(id, time, subscription.filter(update)));
+    }
+
+    /**
+       Send an update message that is shared with other simulators. The encoder must hold changes that have already been filtered with this simulator's update subscription.
+       @param update An encoder for a KSUpdate message.
+    */
+    public void sendUpdate(SharedMessageEncoder update) {
+        send(update.encode(id));
     }
 
     /**
@@ -77,6 +136,14 @@ public class SimulatorProxy extends AbstractKernelComponent {
         send(new KSCommands(id, time, commands));
     }
 
+    /**
+       Send a set of agent commands that is shared with other simulators.
+       @param commands An encoder for a KSCommands message.
+    */
+    public void sendAgentCommands(SharedMessageEncoder commands) {
+        send(commands.encode(id));
+    }
+
     @Override
     public String toString() {
         return getName() + " (" + id + "): " + getConnection().toString();
@@ -105,6 +172,17 @@ public class SimulatorProxy extends AbstractKernelComponent {
             c.merge(changes);
             updates.notifyAll();
         }
+        fireUpdateReceived(time);
+    }
+
+    private void fireUpdateReceived(int time) {
+        Collection<SimulatorUpdateListener> copy;
+        synchronized (updateListeners) {
+            copy = new ArrayList<SimulatorUpdateListener>(updateListeners);
+        }
+        for (SimulatorUpdateListener next : copy) {
+            next.updateReceived(this, time);
+        }
     }
 
     private class SimulatorConnectionListener implements ConnectionListener {
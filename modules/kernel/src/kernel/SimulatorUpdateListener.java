@@ -0,0 +1,13 @@
+package kernel;
+
+/**
+   Interface for objects that want to know when a simulator has sent an update.
+ */
+public interface SimulatorUpdateListener {
+    /**
+       Notification that a simulator has sent an update. The update can be fetched with {@link SimulatorProxy#getUpdates(int)} without blocking.
+       @param simulator The simulator that sent the update.
+       @param time The timestep of the update.
+    */
+    void updateReceived(SimulatorProxy simulator, int time);
+}
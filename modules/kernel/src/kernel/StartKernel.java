@@ -277,7 +277,9 @@ public final class StartKernel {
     registerInitialAgents(config, kernel.componentManager, kernel.kernel.getWorldModel());
     if (!config.getBooleanValue(KernelConstants.INLINE_ONLY_KEY, false)) {
       // Start the connection manager
-      ConnectionManager connectionManager = new ConnectionManager();
+      ConnectionManager connectionManager = new ConnectionManager(
+          config.getBooleanValue(KernelConstants.SELECTOR_CONNECTIONS_KEY, false),
+          config.getIntValue(KernelConstants.SELECTOR_THREADS_KEY, Runtime.getRuntime().availableProcessors()));
       try {
         connectionManager.listen(config.getIntValue(Constants.KERNEL_PORT_NUMBER_KEY), registry,
             kernel.componentManager);
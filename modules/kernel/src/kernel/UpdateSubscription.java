@@ -0,0 +1,83 @@
+package kernel;
+
+import rescuecore2.worldmodel.ChangeSet;
+import rescuecore2.worldmodel.EntityID;
+import rescuecore2.worldmodel.Property;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+   The changes a simulator has asked to receive: all changes to entities of some types and all changes to some properties of any entity. A subscription with no entity types and no properties matches everything. Deleted entities are always passed on.
+ */
+public final class UpdateSubscription {
+    /** A subscription that matches all changes. */
+    public static final UpdateSubscription ALL = new UpdateSubscription(Collections.<Integer>emptySet(), Collections.<Integer>emptySet());
+
+    private final Set<Integer> entityTypes;
+    private final Set<Integer> propertyTypes;
+
+    /**
+       Construct an UpdateSubscription.
+       @param entityTypes The URNs of the entity types to receive all changes for.
+       @param propertyTypes The URNs of the properties to receive changes for.
+    */
+    public UpdateSubscription(Collection<Integer> entityTypes, Collection<Integer> propertyTypes) {
+        this.entityTypes = Collections.unmodifiableSet(new TreeSet<Integer>(entityTypes));
+        this.propertyTypes = Collections.unmodifiableSet(new TreeSet<Integer>(propertyTypes));
+    }
+
+    /**
+       Find out whether this subscription matches all changes.
+       @return True if no entity types or properties have been requested.
+    */
+    public boolean isAll() {
+        return entityTypes.isEmpty() && propertyTypes.isEmpty();
+    }
+
+    /**
+       Get the part of a ChangeSet that matches this subscription.
+       @param changes The ChangeSet to filter.
+       @return The matching changes. This is the given ChangeSet itself if this subscription matches everything.
+    */
+    public ChangeSet filter(ChangeSet changes) {
+        if (isAll()) {
+            return changes;
+        }
+        final ChangeSet result = new ChangeSet();
+        changes.forEachChange(new ChangeSet.ChangeProcedure() {
+            @Override
+            public boolean execute(EntityID id, int urn, Property property) {
+                if (entityTypes.contains(urn) || propertyTypes.contains(property.getURN())) {
+                    result.addChange(id, urn, property);
+                }
+                return true;
+            }
+        });
+        for (EntityID next : changes.getDeletedEntities()) {
+            result.entityDeleted(next);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof UpdateSubscription)) {
+            return false;
+        }
+        UpdateSubscription other = (UpdateSubscription)o;
+        return entityTypes.equals(other.entityTypes) && propertyTypes.equals(other.propertyTypes);
+    }
+
+    @Override
+    public int hashCode() {
+        return entityTypes.hashCode() * 31 + propertyTypes.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return isAll() ? "all updates" : "entity types " + entityTypes + ", properties " + propertyTypes;
+    }
+}
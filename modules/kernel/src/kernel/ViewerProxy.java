@@ -1,6 +1,7 @@
 package kernel;
 
 import rescuecore2.connection.Connection;
+import rescuecore2.messages.SharedMessageEncoder;
 import rescuecore2.messages.control.KVTimestep;
 import rescuecore2.Timestep;
 
@@ -29,6 +30,14 @@ public class ViewerProxy extends AbstractKernelComponent {
         send(new KVTimestep(id, time.getTime(), time.getCommands(), time.getChangeSet()));
     }
 
+    /**
+       Send a Timestep structure that is shared with other viewers.
+       @param time An encoder for a KVTimestep message.
+    */
+    public void sendTimestep(SharedMessageEncoder time) {
+        send(time.encode(id));
+    }
+
     @Override
     public String toString() {
         return getName() + " (" + id + "): " + getConnection().toString();
@@ -19,30 +19,35 @@ public class ComponentManagerGUI extends JPanel {
     private JList agentAck;
     private JList simulatorAck;
     private JList viewerAck;
+    private JList handshakes;
     private ListModelList<String> uncontrolledAgentsModel;
     private ListModelList<String> agentAckModel;
     private ListModelList<String> simulatorAckModel;
     private ListModelList<String> viewerAckModel;
+    private ListModelList<String> handshakesModel;
 
     /**
        Construct a new ComponentManagerGUI.
      */
     public ComponentManagerGUI() {
         // CHECKSTYLE:OFF:MagicNumber
-        super(new GridLayout(4, 1));
+        super(new GridLayout(5, 1));
         // CHECKSTYLE:ON:MagicNumber
         uncontrolledAgentsModel = new ListModelList<String>();
         agentAckModel = new ListModelList<String>();
         simulatorAckModel = new ListModelList<String>();
         viewerAckModel = new ListModelList<String>();
+        handshakesModel = new ListModelList<String>();
         uncontrolledAgents = new JList(uncontrolledAgentsModel);
         agentAck = new JList(agentAckModel);
         simulatorAck = new JList(simulatorAckModel);
         viewerAck = new JList(viewerAckModel);
+        handshakes = new JList(handshakesModel);
         add(uncontrolledAgents, "Agents with no controller");
         add(agentAck, "Agents that have not acknowledged");
         add(simulatorAck, "Simulators that have not acknowledged");
         add(viewerAck, "Viewers that have not acknowledged");
+        add(handshakes, "Completed handshakes");
     }
 
     /**
@@ -97,6 +102,18 @@ public class ComponentManagerGUI extends JPanel {
             });
     }
 
+    /**
+       Add a completed handshake to the list of handshake times.
+       @param description A description of the handshake. This will be displayed verbatim.
+     */
+    public void addHandshake(final String description) {
+        SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    handshakesModel.add(description);
+                }
+            });
+    }
+
     private void add(JList list, String title) {
         JScrollPane scroll = new JScrollPane(list);
         scroll.setBorder(BorderFactory.createTitledBorder(title));
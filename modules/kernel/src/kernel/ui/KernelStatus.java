@@ -96,6 +96,10 @@ public class KernelStatus extends JPanel implements KernelListener {
             });
     }
 
+    @Override
+    public void simulatorResponded(Kernel k, SimulatorProxy simulator, int time, long responseTime) {
+    }
+
     @Override
     public void agentAdded(Kernel k, AgentProxy info) {
         agents.add(info);
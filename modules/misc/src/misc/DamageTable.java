@@ -0,0 +1,146 @@
+package misc;
+
+import rescuecore2.config.Config;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ The damage of all humans, stored as one array per damage type. Each human
+ draws its noise from its own random sequence, so progressing many humans at
+ once on several threads gives the same result as progressing them one by
+ one.
+ */
+public class DamageTable {
+    // Humans per task below which the work is not split further
+    private static final int MIN_TASK_SIZE = 256;
+
+    private DamageType collapse;
+    private DamageType fire;
+    private DamageType bury;
+    private int size;
+    private ForkJoinPool pool;
+
+    /**
+     Construct an empty DamageTable.
+     @param config The system configuration.
+     @param threads The number of threads to progress damage with.
+     */
+    public DamageTable(Config config, int threads) {
+        collapse = new DamageType("collapse", config);
+        fire = new DamageType("fire", config);
+        bury = new DamageType("bury", config);
+        size = 0;
+        pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+
+    /**
+     Add a human with no damage.
+     @param random The random sequence of the human.
+     @return The index of the human in the table.
+     */
+    public int add(Random random) {
+        int index = size++;
+        collapse.add(index, random);
+        fire.add(index, random);
+        bury.add(index, random);
+        return index;
+    }
+
+    /**
+     Get the collapse damage column.
+     @return The collapse damage.
+     */
+    public DamageType getCollapse() {
+        return collapse;
+    }
+
+    /**
+     Get the fire damage column.
+     @return The fire damage.
+     */
+    public DamageType getFire() {
+        return fire;
+    }
+
+    /**
+     Get the buriedness damage column.
+     @return The buriedness damage.
+     */
+    public DamageType getBury() {
+        return bury;
+    }
+
+    /**
+     Get the total damage of a human, rounded to the nearest integer.
+     @param index The index of the human.
+     @return The total damage.
+     */
+    public int getTotalDamage(int index) {
+        return (int)Math.round(collapse.getDamage(index) + fire.getDamage(index) + bury.getDamage(index));
+    }
+
+    /**
+     Progress all damage types of some humans.
+     @param indices The indices of the humans. Each index may appear only once.
+     @param inRefuge Whether the humans are recovering on a refuge bed.
+     */
+    public void progress(int[] indices, boolean inRefuge) {
+        ProgressTask task = new ProgressTask(indices, inRefuge, 0, indices.length);
+        if (pool == null || indices.length <= MIN_TASK_SIZE) {
+            task.compute();
+        } else {
+            pool.invoke(task);
+        }
+    }
+
+    /**
+     Stop the worker threads.
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private void progress(int index, boolean inRefuge) {
+        // The order of the types fixes the order of the noise draws
+        if (inRefuge) {
+            collapse.progressInRefuge(index);
+            fire.progressInRefuge(index);
+            bury.progressInRefuge(index);
+        } else {
+            collapse.progress(index);
+            fire.progress(index);
+            bury.progress(index);
+        }
+    }
+
+    private class ProgressTask extends RecursiveAction {
+        private final int[] indices;
+        private final boolean inRefuge;
+        private final int from;
+        private final int to;
+
+        ProgressTask(int[] indices, boolean inRefuge, int from, int to) {
+            this.indices = indices;
+            this.inRefuge = inRefuge;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= MIN_TASK_SIZE || pool == null) {
+                for (int i = from; i < to; ++i) {
+                    progress(indices[i], inRefuge);
+                }
+                return;
+            }
+            int middle = (from + to) / 2;
+            invokeAll(new ProgressTask(indices, inRefuge, from, middle),
+                      new ProgressTask(indices, inRefuge, middle, to));
+        }
+    }
+}
@@ -2,13 +2,16 @@ package misc;
 
 import rescuecore2.config.Config;
 
+import java.util.Arrays;
 import java.util.Random;
 
 import org.uncommons.maths.random.GaussianGenerator;
 import org.uncommons.maths.number.NumberGenerator;
 
 /**
- Container for information about different damage types.
+ Container for information about different damage types. The damage of every
+ human is kept in one array per type, indexed by the position of the human in
+ the {@link DamageTable}.
  */
 /*
  * Implementation of Refuge Bed Capacity
@@ -19,24 +22,25 @@ public class DamageType {
     private String type;
     private double k;
     private double l;
-    private NumberGenerator<Double> noise;
+    private double mean;
+    private double sd;
 
-    private double damage;
+    private double[] damage;
+    private NumberGenerator<Double>[] noise;
 
     /**
      Construct a DamageType.
      @param type The name of this type.
      @param config The system configuration.
-     @param Random sequence proprietary.
      */
-    public DamageType(String type, Config config, Random random) {
+    public DamageType(String type, Config config) {
         this.type = type;
         k = config.getFloatValue("misc.injury." + type + ".k");
         l = config.getFloatValue("misc.injury." + type + ".l");
-        double mean = config.getFloatValue("misc.injury." + type + ".noise.mean");
-        double sd = config.getFloatValue("misc.injury." + type + ".noise.sd");
-        noise = new GaussianGenerator(mean, sd, random);
-        damage = 0;
+        mean = config.getFloatValue("misc.injury." + type + ".noise.mean");
+        sd = config.getFloatValue("misc.injury." + type + ".noise.sd");
+        damage = new double[0];
+        noise = newNoiseArray(0);
     }
 
     /**
@@ -47,48 +51,77 @@ public class DamageType {
         return type;
     }
 
+    /**
+     Add a human with no damage of this type.
+     @param index The index of the human.
+     @param random The random sequence of the human.
+     */
+    void add(int index, Random random) {
+        if (index >= damage.length) {
+            int size = Math.max(index + 1, damage.length * 2);
+            damage = Arrays.copyOf(damage, size);
+            noise = Arrays.copyOf(noise, size);
+        }
+        damage[index] = 0;
+        noise[index] = new GaussianGenerator(mean, sd, random);
+    }
+
     /**
      Compute damage progression for this type.
+     @param index The index of the human.
      @return The new damage.
      */
-    public double progress() {
-        if (damage <= 0) {
-            return damage;
+    public double progress(int index) {
+        double d = damage[index];
+        if (d <= 0) {
+            return d;
         }
-        double n = noise.nextValue();
-        damage = damage + (k * damage * damage) + l + n;
-        return damage;
+        double n = noise[index].nextValue();
+        d = d + (k * d * d) + l + n;
+        damage[index] = d;
+        return d;
     }
 
-    public double progressInRefuge() {
-        if (damage <= 0) {
-            return damage;
+    public double progressInRefuge(int index) {
+        double d = damage[index];
+        if (d <= 0) {
+            return d;
         }
-        double n = noise.nextValue();
-        damage = damage - (k * damage * damage) - l - (2*n);
-        return damage;
+        double n = noise[index].nextValue();
+        d = d - (k * d * d) - l - (2*n);
+        damage[index] = d;
+        return d;
     }
+
     /**
      Get the current damage.
+     @param index The index of the human.
      @return The current damage.
      */
-    public double getDamage() {
-        return damage;
+    public double getDamage(int index) {
+        return damage[index];
     }
 
     /**
      Set the current damage.
+     @param index The index of the human.
      @param d The current damage.
      */
-    public void setDamage(double d) {
-        damage = d;
+    public void setDamage(int index, double d) {
+        damage[index] = d;
     }
 
     /**
      Add some damage.
+     @param index The index of the human.
      @param d The amount to add.
      */
-    public void addDamage(double d) {
-        damage += d;
+    public void addDamage(int index, double d) {
+        damage[index] += d;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static NumberGenerator<Double>[] newNoiseArray(int size) {
+        return (NumberGenerator<Double>[]) new NumberGenerator[size];
     }
 }
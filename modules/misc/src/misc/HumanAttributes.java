@@ -18,24 +18,23 @@ import java.util.Random;
 public class HumanAttributes {
     private Human human;
     private EntityID id;
-    private DamageType damageFire;
-    private DamageType damageCollapse;
-    private DamageType damageBury;
+    private DamageTable damage;
+    private int index;
     private Random random;
 
     /**
      Construct a HumanAttributes object that wraps a Human.
      @param h The Human to wrap.
      @param config The system configuration.
+     @param damage The table that holds the damage of the human.
      */
-    public HumanAttributes(Human h, Config config) {
+    public HumanAttributes(Human h, Config config, DamageTable damage) {
         this.human = h;
         this.id = h.getID();
         // Generate Random for each Human
         this.random = new Random(config.getRandom().nextLong());
-        damageFire = new DamageType("fire", config, random);
-        damageCollapse = new DamageType("collapse", config, random);
-        damageBury = new DamageType("bury", config, random);
+        this.damage = damage;
+        this.index = damage.add(random);
     }
 
     /**
@@ -61,12 +60,21 @@ public class HumanAttributes {
     public Random getRandom(){
         return random;
     }
+
+    /**
+     Get the index of the human in the damage table.
+     @return The index.
+     */
+    public int getIndex() {
+        return index;
+    }
+
     /**
      Add some collapse damage.
      @param d The amount of damage to add.
      */
     public void addCollapseDamage(double d) {
-        damageCollapse.addDamage(d);
+        damage.getCollapse().addDamage(index, d);
     }
 
     /**
@@ -74,7 +82,7 @@ public class HumanAttributes {
      @return The amount of collapse damage.
      */
     public double getCollapseDamage() {
-        return damageCollapse.getDamage();
+        return damage.getCollapse().getDamage(index);
     }
 
     /**
@@ -82,7 +90,7 @@ public class HumanAttributes {
      @param d The new collapse damage.
      */
     public void setCollapseDamage(double d) {
-        damageCollapse.setDamage(d);
+        damage.getCollapse().setDamage(index, d);
     }
 
     /**
@@ -90,7 +98,7 @@ public class HumanAttributes {
      @param d The amount of damage to add.
      */
     public void addBuriednessDamage(double d) {
-        damageBury.addDamage(d);
+        damage.getBury().addDamage(index, d);
     }
 
     /**
@@ -98,7 +106,7 @@ public class HumanAttributes {
      @return The amount of buriedness damage.
      */
     public double getBuriednessDamage() {
-        return damageBury.getDamage();
+        return damage.getBury().getDamage(index);
     }
 
     /**
@@ -106,7 +114,7 @@ public class HumanAttributes {
      @param d The new buriedness damage.
      */
     public void setBuriednessDamage(double d) {
-        damageBury.setDamage(d);
+        damage.getBury().setDamage(index, d);
     }
 
     /**
@@ -114,7 +122,7 @@ public class HumanAttributes {
      @param d The amount of damage to add.
      */
     public void addFireDamage(double d) {
-        damageFire.addDamage(d);
+        damage.getFire().addDamage(index, d);
     }
 
     /**
@@ -122,7 +130,7 @@ public class HumanAttributes {
      @return The amount of fire damage.
      */
     public double getFireDamage() {
-        return damageFire.getDamage();
+        return damage.getFire().getDamage(index);
     }
 
     /**
@@ -130,7 +138,7 @@ public class HumanAttributes {
      @param d The new fire damage.
      */
     public void setFireDamage(double d) {
-        damageFire.setDamage(d);
+        damage.getFire().setDamage(index, d);
     }
 
     /**
@@ -138,33 +146,16 @@ public class HumanAttributes {
      @return The total damage.
      */
     public int getTotalDamage() {
-        return (int)Math.round(damageCollapse.getDamage() + damageFire.getDamage() + damageBury.getDamage());
-    }
-
-    /**
-     Progress all damage types.
-     */
-    public void progressDamage() {
-        damageCollapse.progress();
-        damageFire.progress();
-        damageBury.progress();
-    }
-
-    public void progressDamageInRefuge()
-    {
-        //int damage = getTotalDamage();
-        damageCollapse.progressInRefuge();
-        damageFire.progressInRefuge();
-        damageBury.progressInRefuge();
+        return damage.getTotalDamage(index);
     }
 
     /**
      Clear all damage.
      */
     public void clearDamage() {
-        damageCollapse.setDamage(0);
-        damageBury.setDamage(0);
-        damageFire.setDamage(0);
+        damage.getCollapse().setDamage(index, 0);
+        damage.getBury().setDamage(index, 0);
+        damage.getFire().setDamage(index, 0);
     }
 }
 
@@ -1,12 +1,13 @@
 package misc;
 
 import java.util.ArrayList;
-import java.util.Deque;
+import java.util.Arrays;
 import java.util.Formatter;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -51,7 +52,10 @@ import rescuecore2.worldmodel.Property;
  */
 public class MiscSimulator extends StandardSimulator implements GUIComponent {
 
+  private static final String THREADS_KEY = "misc.damage.threads";
+
   private Map<EntityID, HumanAttributes> humans;
+  private DamageTable damageTable;
   private Set<EntityID> newlyBrokenBuildings;
   private Map<EntityID, Integer> oldBrokenBuildingsBuriedness = new HashMap<>();
   private MiscParameters parameters;
@@ -63,8 +67,7 @@ public class MiscSimulator extends StandardSimulator implements GUIComponent {
   private int GAS_STATION_Damage_MIN;
 
   private Set<EntityID> notExplosedGasStations;
-  private Map<EntityID, Deque<EntityID>> waitingList;
-  private Map<EntityID, Deque<EntityID>> beds;
+  private Map<EntityID, RefugeBeds> refuges;
 
   @Override
   public JComponent getGUIComponent() {
@@ -83,8 +86,7 @@ public class MiscSimulator extends StandardSimulator implements GUIComponent {
   protected void postConnect() {
     super.postConnect();
     notExplosedGasStations = new HashSet<>();
-    waitingList = new HashMap<EntityID, Deque<EntityID>>();
-    beds = new HashMap<EntityID, Deque<EntityID>>();
+    refuges = new HashMap<EntityID, RefugeBeds>();
 
     parameters = new MiscParameters(config);
     GAS_STATION_EXPLOSION_RANG = config.getIntValue("ignition.gas_station.explosion.range", 0);
@@ -94,6 +96,10 @@ public class MiscSimulator extends StandardSimulator implements GUIComponent {
     GAS_STATION_Damage_MIN = config.getIntValue("misc.gas_station.Damage.min", 15);
 
     humans = new HashMap<EntityID, HumanAttributes>();
+    if (damageTable != null) {
+      damageTable.shutdown();
+    }
+    damageTable = new DamageTable(config, config.getIntValue(THREADS_KEY, Runtime.getRuntime().availableProcessors()));
     newlyBrokenBuildings = new HashSet<EntityID>();
     Logger.info("MiscSimulator connected. World has " + model.getAllEntities().size() + " entities.");
     BuildingChangeListener buildingListener = new BuildingChangeListener();
@@ -103,18 +109,14 @@ public class MiscSimulator extends StandardSimulator implements GUIComponent {
         notExplosedGasStations.add(et.getID());
       }
       if (et instanceof Refuge) {
-        Deque<EntityID> wlist = new LinkedList<EntityID>();
-        waitingList.put(et.getID(), wlist);
-
-        Deque<EntityID> blist = new LinkedList<EntityID>();
-        beds.put(et.getID(), blist);
+        refuges.put(et.getID(), new RefugeBeds((Refuge) et));
       }
       if (et instanceof Building) {
         et.addEntityListener(buildingListener);
       } else if (et instanceof Human) {
         // et.addEntityListener(humanListener);
         Human human = (Human) et;
-        HumanAttributes ha = new HumanAttributes(human, config);
+        HumanAttributes ha = new HumanAttributes(human, config, damageTable);
         humans.put(ha.getID(), ha);
       }
     }
@@ -270,26 +272,17 @@ public class MiscSimulator extends StandardSimulator implements GUIComponent {
   }
 
   private void updateDamage(ChangeSet changes) {
+    // Sort the humans first so that all damage can be progressed in one go
+    List<HumanAttributes> worsening = new ArrayList<HumanAttributes>();
+    List<HumanAttributes> recovering = new ArrayList<HumanAttributes>();
     for (HumanAttributes ha : humans.values()) {
       Human h = ha.getHuman();
-      int oldDamage = ha.getTotalDamage();
-      if (h.isPositionDefined() && !(h.getPosition(model) instanceof Refuge)) {
-        updateDamage(ha);
-        int hp = h.isHPDefined() ? h.getHP() : 0;
-        int damage = ha.getTotalDamage();
-
-        h.setDamage(damage);
-        changes.addChange(ha.getHuman(), ha.getHuman().getDamageProperty());
-
-        // Update HP
-        boolean isAlive = hp > 0;
-        boolean hasDamage = damage > 0;
-
-        if (isAlive && hasDamage) {
-          int newHP = Math.max(0, hp - damage);
-          h.setHP(newHP);
-          changes.addChange(ha.getHuman(), ha.getHuman().getHPProperty());
-        }
+      if (!h.isPositionDefined()) {
+        continue;
+      }
+      Entity position = h.getPosition(model);
+      if (!(position instanceof Refuge)) {
+        worsening.add(ha);
       }
       /*
        * For the implementation of Refuge Bed Capacity Damage increases and HP
@@ -297,69 +290,74 @@ public class MiscSimulator extends StandardSimulator implements GUIComponent {
        * bed, Damage is reducing but HP is fix human will not die while on the bed but
        * it takes time to get damage to 0
        */
-
-      else if (h.isPositionDefined() && (h.getPosition(model) instanceof Refuge) && h.isHPDefined() && h.getHP() > 0) {
+      else if (h.isHPDefined() && h.getHP() > 0) {
         if (h instanceof FireBrigade || h instanceof AmbulanceTeam || h instanceof PoliceForce) {
           ha.clearDamage();
-          h.setDamage(0);
-          changes.addChange(ha.getHuman(), ha.getHuman().getDamageProperty());
+          setDamage(h, 0, changes);
           continue;
         }
-        if (waitingList.get(h.getPosition()).size() > 0 && waitingList.get(h.getPosition()).contains(h.getID())) {
-          updateDamage(ha);
-          int hp = h.isHPDefined() ? h.getHP() : 0;
-          int damage = ha.getTotalDamage();
-
-          h.setDamage(damage);
-          changes.addChange(ha.getHuman(), ha.getHuman().getDamageProperty());
-
-          // Update HP
-          boolean isAlive = hp > 0;
-          boolean hasDamage = damage > 0;
-
-          if (isAlive && hasDamage) {
-            int newHP = Math.max(0, hp - damage);
-            h.setHP(newHP);
-            changes.addChange(ha.getHuman(), ha.getHuman().getHPProperty());
-          }
-        } else if (beds.get(h.getPosition()).size() > 0 && beds.get(h.getPosition()).contains(h.getID())) {
-          updateDamageInRefuge(ha);
-          h.setDamage(ha.getTotalDamage());
-          changes.addChange(ha.getHuman(), ha.getHuman().getDamageProperty());
+        RefugeBeds refuge = refuges.get(position.getID());
+        if (refuge.waiting.contains(h.getID())) {
+          worsening.add(ha);
+        } else if (refuge.beds.contains(h.getID())) {
+          recovering.add(ha);
+        }
+      }
+    }
 
-          if (oldDamage > 0 && h.getDamage() <= 0) {
+    int[] oldDamage = new int[recovering.size()];
+    for (int i = 0; i < oldDamage.length; ++i) {
+      oldDamage[i] = recovering.get(i).getTotalDamage();
+    }
+    damageTable.progress(getLivingIndices(worsening), false);
+    damageTable.progress(getLivingIndices(recovering), true);
 
-            if (beds.get(h.getPosition()).remove(h.getID())) {
-              ((Refuge) h.getPosition(model)).decreaseOccupiedBeds();
-            }
+    for (HumanAttributes ha : worsening) {
+      Human h = ha.getHuman();
+      int hp = h.isHPDefined() ? h.getHP() : 0;
+      int damage = ha.getTotalDamage();
+      setDamage(h, damage, changes);
 
-            if (waitingList.get(h.getPosition()).size() > 0) {
-              beds.get(h.getPosition()).add(waitingList.get(h.getPosition()).remove());
-              ((Refuge) h.getPosition(model)).increaseOccupiedBeds();
-            }
-          }
-        }
+      // Update HP
+      boolean isAlive = hp > 0;
+      boolean hasDamage = damage > 0;
+
+      if (isAlive && hasDamage) {
+        int newHP = Math.max(0, hp - damage);
+        h.setHP(newHP);
+        changes.addChange(h, h.getHPProperty());
+      }
+    }
+    for (int i = 0; i < oldDamage.length; ++i) {
+      Human h = recovering.get(i).getHuman();
+      setDamage(h, recovering.get(i).getTotalDamage(), changes);
+      if (oldDamage[i] > 0 && h.getDamage() <= 0) {
+        RefugeBeds refuge = refuges.get(h.getPosition());
+        refuge.leaveBed(h.getID());
+        refuge.fillBed();
       }
     }
   }
 
-  private void updateDamage(HumanAttributes ha) {
-    Human h = ha.getHuman();
-    if (h.getHP() <= 0) {
-      return; // Agent is already dead.
+  // Dead humans keep their damage
+  private int[] getLivingIndices(List<HumanAttributes> list) {
+    int[] result = new int[list.size()];
+    int count = 0;
+    for (HumanAttributes ha : list) {
+      Human h = ha.getHuman();
+      if (h.isHPDefined() && h.getHP() > 0) {
+        result[count++] = ha.getIndex();
+      }
     }
-    ha.progressDamage();
+    return Arrays.copyOf(result, count);
   }
 
-  /*
-   * For the implementation of Refuge Bed Capacity
-   **/
-  private void updateDamageInRefuge(HumanAttributes ha) {
-    Human h = ha.getHuman();
-    if (h.getHP() <= 0) {
-      return; // Agent is already dead.
+  // Only tell the kernel about damage that has really changed
+  private void setDamage(Human h, int damage, ChangeSet changes) {
+    if (!h.isDamageDefined() || h.getDamage() != damage) {
+      h.setDamage(damage);
+      changes.addChange(h, h.getDamageProperty());
     }
-    ha.progressDamageInRefuge();
   }
 
   private boolean checkValidity(Command command) {
@@ -533,21 +531,11 @@ public class MiscSimulator extends StandardSimulator implements GUIComponent {
 
     Entity AgentPosition = ((Human) agent).getPosition(model);
     if (AgentPosition != null && AgentPosition instanceof Refuge) {
-
-      if (waitingList.get(h.getPosition()).size() > 0 && waitingList.get(h.getPosition()).contains(h.getID())) {
-        waitingList.get(h.getPosition()).remove(h.getID());
+      RefugeBeds refuge = refuges.get(AgentPosition.getID());
+      refuge.waiting.remove(h.getID());
+      if (refuge.leaveBed(h.getID())) {
+        refuge.fillBed();
       }
-
-      if (beds.get(h.getPosition()).size() > 0 && beds.get(h.getPosition()).contains(h.getID())) {
-        beds.get(h.getPosition()).remove(h.getID());
-        ((Refuge) h.getPosition(model)).decreaseOccupiedBeds();
-
-        if (waitingList.get(h.getPosition()).size() > 0) {
-          beds.get(h.getPosition()).add(waitingList.get(h.getPosition()).remove());
-          ((Refuge) h.getPosition(model)).increaseOccupiedBeds();
-        }
-      }
-
     }
   }
 
@@ -587,80 +575,97 @@ public class MiscSimulator extends StandardSimulator implements GUIComponent {
 
   private void addVictimToWaitingList(Entity refuge, Civilian victim) {
     if (victim.getDamage() > 0)
-      waitingList.get(refuge.getID()).add(victim.getID());
+      refuges.get(refuge.getID()).waiting.add(victim.getID());
   }
 
   /*
    * For the implementation of Refuge Bed Capacity
    **/
   private void updateRefuges() {
-    for (Map.Entry<EntityID, Deque<EntityID>> e : waitingList.entrySet()) {
-      ArrayList<EntityID> tempList = new ArrayList<EntityID>();
-      for (EntityID civ : (Deque<EntityID>) e.getValue()) {
-        if (model.getEntity(civ) instanceof Human) {
-          if (((Human) model.getEntity(civ)).getDamage() <= 0) {
-            tempList.add(civ);
-          }
-          if (((Human) model.getEntity(civ)).getHP() <= 0) {
-            tempList.add(civ);
-          }
+    for (RefugeBeds refuge : refuges.values()) {
+      for (Iterator<EntityID> it = refuge.waiting.iterator(); it.hasNext();) {
+        if (isDoneWithRefuge(it.next())) {
+          it.remove();
         }
       }
-      if (tempList.size() > 0) {
-        ((Deque<EntityID>) e.getValue()).removeAll(tempList);
-      }
-    }
-
-    for (Map.Entry<EntityID, Deque<EntityID>> e : beds.entrySet()) {
-      ArrayList<EntityID> tempList = new ArrayList<EntityID>();
-      for (EntityID civ : (Deque<EntityID>) e.getValue()) {
-        if (model.getEntity(civ) instanceof Human) {
-          if (((Human) model.getEntity(civ)).getDamage() <= 0) {
-            tempList.add(civ);
-          }
-          if (((Human) model.getEntity(civ)).getHP() <= 0) {
-            tempList.add(civ);
-          }
+      for (Iterator<EntityID> it = refuge.beds.iterator(); it.hasNext();) {
+        if (isDoneWithRefuge(it.next())) {
+          it.remove();
+          refuge.refuge.decreaseOccupiedBeds();
+          Logger.warn("decreaseOccupiedBeds in update Refuge");
         }
       }
-      if (tempList.size() > 0) {
-        // ( (Deque<EntityID>) e.getValue() ).removeAll( tempList );
-        for (EntityID id : tempList) {
-          if (((Deque<EntityID>) e.getValue()).remove(id)) {
-            ((Refuge) model.getEntity(e.getKey())).decreaseOccupiedBeds();
-            Logger.warn("decreaseOccupiedBeds in update Refuge");
-          }
+      while (refuge.refuge.getOccupiedBeds() < refuge.refuge.getBedCapacity()) {
+        if (!refuge.fillBed()) {
+          break;
         }
-
       }
     }
+  }
 
-    for (StandardEntity e : model.getEntitiesOfType(StandardEntityURN.REFUGE)) {
-      if (e instanceof Refuge) {
-        // Logger.warn("Refuge = " + e.getID() + " bed cap = " + ( (Refuge) e
-        // ).getOccupiedBeds() + " beds size = " + beds.get(e.getID()).size() + " wait
-        // size = " + waitingList.get(e.getID()).size());
-        while (((Refuge) e).getOccupiedBeds() < ((Refuge) e).getBedCapacity()) {
-          if (waitingList.get(e.getID()).size() > 0) {
-            beds.get(e.getID()).add(waitingList.get(e.getID()).remove());
-            ((Refuge) e).increaseOccupiedBeds();
-          } else
-            break;
-        }
-      }
+  private boolean isDoneWithRefuge(EntityID id) {
+    Entity e = model.getEntity(id);
+    if (!(e instanceof Human)) {
+      return false;
     }
+    return ((Human) e).getDamage() <= 0 || ((Human) e).getHP() <= 0;
   }
 
   /*
    * For the implementation of Refuge Bed Capacity
    **/
   private void updateChangeSet(ChangeSet changes) {
-    for (StandardEntity e : model.getEntitiesOfType(StandardEntityURN.REFUGE))
-      if (e instanceof Refuge) {
-        int size = waitingList.get(e.getID()).size();
-        ((Refuge) e).setWaitingListSize(size);
-        changes.addChange((Refuge) e, ((Refuge) e).getOccupiedBedsProperty());
-        changes.addChange((Refuge) e, ((Refuge) e).getWaitingListSizeProperty());
+    for (RefugeBeds next : refuges.values()) {
+      Refuge refuge = next.refuge;
+      refuge.setWaitingListSize(next.waiting.size());
+      if (refuge.getOccupiedBeds() != next.reportedBeds) {
+        next.reportedBeds = refuge.getOccupiedBeds();
+        changes.addChange(refuge, refuge.getOccupiedBedsProperty());
+      }
+      if (refuge.getWaitingListSize() != next.reportedWaiting) {
+        next.reportedWaiting = refuge.getWaitingListSize();
+        changes.addChange(refuge, refuge.getWaitingListSizeProperty());
+      }
+    }
+  }
+
+  /**
+   * The victims waiting for and lying on the beds of one refuge. Both are
+   * kept in arrival order so that beds go to the longest waiting victim.
+   */
+  private static class RefugeBeds {
+    private final Refuge refuge;
+    private final Set<EntityID> waiting;
+    private final Set<EntityID> beds;
+    // The values last put in a change set
+    private int reportedBeds;
+    private int reportedWaiting;
+
+    RefugeBeds(Refuge refuge) {
+      this.refuge = refuge;
+      this.waiting = new LinkedHashSet<EntityID>();
+      this.beds = new LinkedHashSet<EntityID>();
+      this.reportedBeds = -1;
+      this.reportedWaiting = -1;
+    }
+
+    boolean leaveBed(EntityID id) {
+      if (beds.remove(id)) {
+        refuge.decreaseOccupiedBeds();
+        return true;
       }
+      return false;
+    }
+
+    boolean fillBed() {
+      Iterator<EntityID> it = waiting.iterator();
+      if (!it.hasNext()) {
+        return false;
+      }
+      beds.add(it.next());
+      it.remove();
+      refuge.increaseOccupiedBeds();
+      return true;
+    }
   }
-}
\ No newline at end of file
+}
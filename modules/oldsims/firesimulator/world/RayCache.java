@@ -0,0 +1,144 @@
+package firesimulator.world;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Binary cache of the radiation sampling results (connectedBuilding and
+ * connectedValues of every building).
+ *
+ * Buildings are referred to by their index in ID order, so loading needs no
+ * lookups at all. The header records the map hash and the ray parameters so a
+ * cache sampled with different settings is never used.
+ *
+ * Layout (big-endian): magic, version, map hash, ray rate, max ray distance,
+ * building count, building IDs in index order, then for each building the
+ * number of connections followed by (index, weight) pairs.
+ */
+final class RayCache {
+  private static final Logger LOG = Logger.getLogger(RayCache.class);
+
+  private static final int MAGIC = 0x52415953; // "RAYS"
+  private static final int VERSION = 1;
+
+  private RayCache() {
+  }
+
+  /**
+   * Load the cache into the buildings.
+   *
+   * @param file      The cache file.
+   * @param hash      The hash of the current map.
+   * @param buildings The buildings of the current map.
+   * @return True if the cache was valid and has been loaded, false if it does
+   *         not exist or does not match the map and ray parameters. Buildings
+   *         are not modified if false is returned.
+   * @throws IOException If the file cannot be read.
+   */
+  static boolean load(File file, long hash, Collection<Building> buildings) throws IOException {
+    if (!file.exists()) {
+      return false;
+    }
+    List<Building> index = sort(buildings);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+      MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+        LOG.warn("\"" + file + "\" is not a radiation cache");
+        return false;
+      }
+      long fileHash = in.getLong();
+      float rayRate = in.getFloat();
+      int maxDistance = in.getInt();
+      int count = in.getInt();
+      if (fileHash != hash || rayRate != Wall.RAY_RATE || maxDistance != Wall.MAX_SAMPLE_DISTANCE
+          || count != index.size()) {
+        LOG.warn("radiation cache \"" + file + "\" was sampled with different parameters");
+        return false;
+      }
+      for (int i = 0; i < count; ++i) {
+        if (in.getInt() != index.get(i).getID()) {
+          LOG.warn("radiation cache \"" + file + "\" does not match the building list");
+          return false;
+        }
+      }
+      Building[][] connected = new Building[count][];
+      float[][] values = new float[count][];
+      for (int i = 0; i < count; ++i) {
+        int quantity = in.getInt();
+        connected[i] = new Building[quantity];
+        values[i] = new float[quantity];
+        for (int c = 0; c < quantity; ++c) {
+          connected[i][c] = index.get(in.getInt());
+          values[i][c] = in.getFloat();
+        }
+      }
+      // Only touch the buildings once the whole file has been read
+      for (int i = 0; i < count; ++i) {
+        Building b = index.get(i);
+        b.connectedBuilding = connected[i];
+        b.connectedValues = values[i];
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Write the sampling results of all buildings to a cache file.
+   *
+   * @param file      The cache file.
+   * @param hash      The hash of the current map.
+   * @param buildings The buildings of the current map.
+   * @throws IOException If the file cannot be written.
+   */
+  static void save(File file, long hash, Collection<Building> buildings) throws IOException {
+    List<Building> index = sort(buildings);
+    Map<Building, Integer> positions = new HashMap<Building, Integer>();
+    for (int i = 0; i < index.size(); ++i) {
+      positions.put(index.get(i), i);
+    }
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(hash);
+      out.writeFloat(Wall.RAY_RATE);
+      out.writeInt(Wall.MAX_SAMPLE_DISTANCE);
+      out.writeInt(index.size());
+      for (Building b : index) {
+        out.writeInt(b.getID());
+      }
+      for (Building b : index) {
+        out.writeInt(b.connectedBuilding.length);
+        for (int c = 0; c < b.connectedBuilding.length; ++c) {
+          out.writeInt(positions.get(b.connectedBuilding[c]));
+          out.writeFloat(b.connectedValues[c]);
+        }
+      }
+    }
+  }
+
+  private static List<Building> sort(Collection<Building> buildings) {
+    List<Building> result = new ArrayList<Building>(buildings);
+    Collections.sort(result, new Comparator<Building>() {
+      @Override
+      public int compare(Building b1, Building b2) {
+        return Integer.compare(b1.getID(), b2.getID());
+      }
+    });
+    return result;
+  }
+}
@@ -1,16 +1,16 @@
 package firesimulator.world;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 
@@ -169,32 +169,24 @@ public class World implements WorldConstants {
 
   private void initRayValues() {
     long hash = hash();
-    boolean loaded = false;
-    String fname = Configuration.getValue("resq-fire.rays.dir") + "/" + hash + ".rays";
+    String dir = Configuration.getValue("resq-fire.rays.dir");
+    File cache = new File(dir, hash + ".rays.bin");
+    boolean cached = false;
+    long t0 = System.currentTimeMillis();
     try {
-      File f = new File(fname);
-      BufferedReader br = new BufferedReader(new FileReader(f));
-      float rayDens = Float.parseFloat(br.readLine());
-      String nl;
-      while (null != (nl = br.readLine())) {
-        int x = Integer.parseInt(nl);
-        int y = Integer.parseInt(br.readLine());
-        int quantity = Integer.parseInt(br.readLine());
-        Building[] bl = new Building[quantity];
-        float[] wght = new float[quantity];
-        for (int c = 0; c < quantity; c++) {
-          int ox = Integer.parseInt(br.readLine());
-          int oy = Integer.parseInt(br.readLine());
-          bl[c] = (Building) getBuilding(ox, oy);
-          wght[c] = Float.parseFloat(br.readLine());
-        }
-        Building b = getBuilding(x, y);
-        b.connectedBuilding = bl;
-        b.connectedValues = wght;
+      cached = RayCache.load(cache, hash, buildings);
+      if (cached) {
+        LOG.info("loaded radiation cache \"" + cache + "\" in " + (System.currentTimeMillis() - t0) + "ms");
       }
-      loaded = true;
-      LOG.info("loaded radiation sample file \"" + fname + "\"");
     } catch (Exception e) {
+      LOG.warn("unable to load radiation cache \"" + cache + "\"", e);
+    }
+    if (cached) {
+      return;
+    }
+    // Fall back to a text file written by older versions before sampling again
+    String fname = dir + "/" + hash + ".rays";
+    if (!loadTextRayValues(fname)) {
       LOG.warn("unable to load radiation sample file \"" + fname + "\", sampling:");
       int n = 0;
       long t1 = System.currentTimeMillis();
@@ -212,36 +204,56 @@ public class World implements WorldConstants {
       }
     }
     try {
-      if (!loaded) {
-        File f = new File(fname);
-        f.createNewFile();
-        BufferedWriter bw = new BufferedWriter(new FileWriter(f));
-        bw.write(Wall.RAY_RATE + "\n");
-        for (Building b : buildings) {
-          bw.write(b.getX() + "\n");
-          bw.write(b.getY() + "\n");
-          bw.write(b.connectedBuilding.length + "\n");
-          for (int c = 0; c < b.connectedBuilding.length; c++) {
-            bw.write(b.connectedBuilding[c].getX() + "\n");
-            bw.write(b.connectedBuilding[c].getY() + "\n");
-            bw.write(b.connectedValues[c] + "\n");
-          }
+      RayCache.save(cache, hash, buildings);
+      LOG.info("wrote radiation cache \"" + cache + "\"");
+    } catch (Exception e) {
+      LOG.error("error while writting radiation cache \"" + cache + "\"", e);
+    }
+  }
+
+  private boolean loadTextRayValues(String fname) {
+    long t0 = System.currentTimeMillis();
+    Map<Long, Building> byLocation = new HashMap<Long, Building>();
+    for (Building b : buildings) {
+      byLocation.put(location(b.getX(), b.getY()), b);
+    }
+    try (BufferedReader br = new BufferedReader(new FileReader(new File(fname)))) {
+      float rayDens = Float.parseFloat(br.readLine());
+      String nl;
+      while (null != (nl = br.readLine())) {
+        int x = Integer.parseInt(nl);
+        int y = Integer.parseInt(br.readLine());
+        int quantity = Integer.parseInt(br.readLine());
+        Building[] bl = new Building[quantity];
+        float[] wght = new float[quantity];
+        for (int c = 0; c < quantity; c++) {
+          int ox = Integer.parseInt(br.readLine());
+          int oy = Integer.parseInt(br.readLine());
+          bl[c] = getBuilding(byLocation, ox, oy);
+          wght[c] = Float.parseFloat(br.readLine());
         }
-        bw.close();
-        LOG.info("wrote radiation sample file \"" + fname + "\"");
+        Building b = getBuilding(byLocation, x, y);
+        b.connectedBuilding = bl;
+        b.connectedValues = wght;
       }
+      LOG.info("loaded radiation sample file \"" + fname + "\" in " + (System.currentTimeMillis() - t0) + "ms");
+      return true;
     } catch (Exception e) {
-      LOG.error("error while writting radiation sample file \"" + fname + "\"", e);
+      return false;
     }
   }
 
-  private Building getBuilding(int x, int y) {
-    for (Building b : buildings) {
-      if (b.isBuilding(x, y))
-        return b;
+  private static long location(int x, int y) {
+    return (((long) x) << 32) | (y & 0xFFFFFFFFL);
+  }
+
+  private static Building getBuilding(Map<Long, Building> byLocation, int x, int y) {
+    Building b = byLocation.get(location(x, y));
+    if (b == null) {
+      LOG.error("parser error");
+      throw new NullPointerException();
     }
-    LOG.error("parser error");
-    throw new NullPointerException();
+    return b;
   }
 
   public float getMaxDistance() {
@@ -1,6 +1,9 @@
 package rescuecore2.components;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +36,21 @@ import rescuecore2.worldmodel.WorldModel;
  */
 public abstract class AbstractSimulator<T extends WorldModel<? extends Entity>> extends AbstractComponent<T>
     implements Simulator {
+  /**
+   * The config key for the number of entity IDs to lease from the kernel at a
+   * time. If this is zero then {@link #requestNewEntityIDs(int)} asks the
+   * kernel for exactly the IDs it needs.
+   */
+  public static final String ID_LEASE_SIZE_KEY = "simulator.ids.lease.size";
+  /**
+   * The config key for the number of leased entity IDs below which more are
+   * requested in the background.
+   */
+  public static final String ID_LEASE_WATERMARK_KEY = "simulator.ids.lease.watermark";
+
+  private static final int DEFAULT_ID_LEASE_SIZE = 256;
+  private static final int DEFAULT_ID_LEASE_WATERMARK = 64;
+
   /**
    * The ID of this simulator.
    */
@@ -40,8 +58,13 @@ public abstract class AbstractSimulator<T extends WorldModel<? extends Entity>>
 
   private int lastUpdateTime;
 
+  // Guarded by idRequests
   private Map<Integer, List<EntityID>> idRequests;
   private int nextIDRequest;
+  private Deque<EntityID> leasedIDs;
+  private int leaseRequest;
+  private int leaseSize;
+  private int leaseWatermark;
 
   /**
    * Create a new AbstractSimulator.
@@ -64,7 +87,11 @@ public abstract class AbstractSimulator<T extends WorldModel<? extends Entity>>
     lastUpdateTime = 0;
     nextIDRequest = 0;
     idRequests = new HashMap<Integer, List<EntityID>>();
+    leasedIDs = new ArrayDeque<EntityID>();
+    leaseRequest = -1;
     super.postConnect(c, entities, kernelConfig);
+    leaseSize = Math.max(0, config.getIntValue(ID_LEASE_SIZE_KEY, DEFAULT_ID_LEASE_SIZE));
+    leaseWatermark = Math.min(leaseSize, config.getIntValue(ID_LEASE_WATERMARK_KEY, DEFAULT_ID_LEASE_WATERMARK));
   }
 
   @Override
@@ -72,7 +99,8 @@ public abstract class AbstractSimulator<T extends WorldModel<? extends Entity>>
       throws ConnectionException, ComponentConnectionException, InterruptedException {
     this.config = config;
     int requestID = generator.generateRequestID();
-    SKConnect connect = new SKConnect(requestID, 1, getName());
+    SKConnect connect = new SKConnect(requestID, 1, getName(), getRequestedEntityURNs(),
+        getRequestedPropertyURNs());
     CountDownLatch latch = new CountDownLatch(1);
     SimulatorConnectionListener l = new SimulatorConnectionListener(requestID, latch);
     connection.addConnectionListener(l);
@@ -87,6 +115,29 @@ public abstract class AbstractSimulator<T extends WorldModel<? extends Entity>>
     super.shutdown();
   }
 
+  /**
+   * Get the entity types this simulator wants updates for. The kernel sends all
+   * changes to entities of these types. If both this and
+   * {@link #getRequestedPropertyURNs()} are empty the kernel sends all changes.
+   * The default implementation returns an empty array.
+   *
+   * @return The requested entity type URNs.
+   */
+  protected int[] getRequestedEntityURNs() {
+    return new int[0];
+  }
+
+  /**
+   * Get the properties this simulator wants updates for. The kernel sends all
+   * changes to these properties, whatever the type of the entity. The default
+   * implementation returns an empty array.
+   *
+   * @return The requested property URNs.
+   */
+  protected int[] getRequestedPropertyURNs() {
+    return new int[0];
+  }
+
   /**
    * Handle a KSUpdate object from the server. The default implementation just
    * updates the world model.
@@ -126,28 +177,54 @@ public abstract class AbstractSimulator<T extends WorldModel<? extends Entity>>
   }
 
   /**
-   * Request some new entity IDs from the kernel.
+   * Request some new entity IDs from the kernel. IDs are leased from the kernel
+   * in blocks of {@link #ID_LEASE_SIZE_KEY}, so most calls return without
+   * waiting for the kernel. When fewer than {@link #ID_LEASE_WATERMARK_KEY} IDs
+   * are left another block is requested without waiting for the reply.
    *
    * @param count The number to request.
    * @return A list of new entity IDs.
    */
   protected List<EntityID> requestNewEntityIDs(int count) throws InterruptedException {
     synchronized (idRequests) {
-      int id = nextIDRequest++;
-      Logger.debug("Requesting " + count + " new IDs: request number " + id);
-      send(new EntityIDRequest(simulatorID, id, count));
-      // Wait for a reply
-      Integer key = id;
-      while (!idRequests.containsKey(key)) {
-        Logger.debug("Waiting for response");
+      if (leaseSize == 0) {
+        int id = sendIDRequest(count);
+        // Wait for a reply
+        Integer key = id;
+        while (!idRequests.containsKey(key)) {
+          Logger.debug("Waiting for response");
+          idRequests.wait();
+        }
+        List<EntityID> result = idRequests.get(key);
+        idRequests.remove(key);
+        return result;
+      }
+      while (leasedIDs.size() < count) {
+        if (leaseRequest == -1) {
+          leaseRequest = sendIDRequest(Math.max(leaseSize, count - leasedIDs.size()));
+        }
+        Logger.debug("Waiting for leased IDs");
         idRequests.wait();
       }
-      List<EntityID> result = idRequests.get(key);
-      idRequests.remove(key);
+      List<EntityID> result = new ArrayList<EntityID>(count);
+      for (int i = 0; i < count; ++i) {
+        result.add(leasedIDs.removeFirst());
+      }
+      if (leasedIDs.size() < leaseWatermark && leaseRequest == -1) {
+        leaseRequest = sendIDRequest(leaseSize);
+      }
       return result;
     }
   }
 
+  // Must be called with the idRequests lock held
+  private int sendIDRequest(int count) {
+    int id = nextIDRequest++;
+    Logger.debug("Requesting " + count + " new IDs: request number " + id);
+    send(new EntityIDRequest(simulatorID, id, count));
+    return id;
+  }
+
   @Override
   protected void processMessage(Message msg) {
     if (msg instanceof KSUpdate) {
@@ -173,7 +250,12 @@ public abstract class AbstractSimulator<T extends WorldModel<? extends Entity>>
       if (resp.getSimulatorID() == simulatorID) {
         synchronized (idRequests) {
           Logger.debug("ID response: " + resp.getRequestID() + ", " + resp.getEntityIDs());
-          idRequests.put(resp.getRequestID(), resp.getEntityIDs());
+          if (resp.getRequestID() == leaseRequest) {
+            leasedIDs.addAll(resp.getEntityIDs());
+            leaseRequest = -1;
+          } else {
+            idRequests.put(resp.getRequestID(), resp.getEntityIDs());
+          }
           idRequests.notifyAll();
         }
       }
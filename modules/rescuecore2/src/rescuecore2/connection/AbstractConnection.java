@@ -4,6 +4,7 @@ import static rescuecore2.misc.EncodingTools.writeInt32;
 import static rescuecore2.misc.EncodingTools.readMessage;
 import static rescuecore2.misc.EncodingTools.writeMessage;
 
+import rescuecore2.messages.EncodedMessage;
 import rescuecore2.messages.Message;
 import rescuecore2.messages.protobuf.RCRSProto.MessageProto;
 import rescuecore2.messages.protobuf.MsgProtoBuf;
@@ -22,6 +23,8 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.IOException;
 
+import com.google.protobuf.ByteString;
+
 /**
    Abstract base class for Connection implementations.
  */
@@ -31,6 +34,7 @@ public abstract class AbstractConnection implements Connection {
     private List<ConnectionListener> listeners;
     private List<Message> toSend;
     private MessageBroadcastThread broadcast;
+    private final boolean useBroadcastThread;
     private Registry registry;
 
     private boolean logBytes;
@@ -44,6 +48,15 @@ public abstract class AbstractConnection implements Connection {
        Construct an abstract connection.
     */
     protected AbstractConnection() {
+        this(true);
+    }
+
+    /**
+       Construct an abstract connection.
+       @param useBroadcastThread True if received messages should be handed to listeners by a dedicated broadcast thread, false if {@link #fireMessageReceived} should notify listeners on the calling thread. Implementations that pass false are responsible for calling {@link #messageProtoReceived} from a thread that may block.
+    */
+    protected AbstractConnection(boolean useBroadcastThread) {
+        this.useBroadcastThread = useBroadcastThread;
         listeners = new ArrayList<ConnectionListener>();
         toSend = new LinkedList<Message>();
         logBytes = false;
@@ -64,8 +77,10 @@ public abstract class AbstractConnection implements Connection {
                 Registry old = Registry.getCurrentRegistry();
                 Registry.setCurrentRegistry(registry);
                 try {
-                    broadcast = new MessageBroadcastThread();
-                    broadcast.start();
+                    if (useBroadcastThread) {
+                        broadcast = new MessageBroadcastThread();
+                        broadcast.start();
+                    }
                     startupImpl();
                     state = State.STARTED;
                 }
@@ -80,11 +95,13 @@ public abstract class AbstractConnection implements Connection {
     public final void shutdown() {
         synchronized (stateLock) {
             if (state == State.STARTED) {
-                try {
-                    broadcast.kill();
-                }
-                catch (InterruptedException e) {
-                    Logger.error("AbstractConnection interrupted while shutting down broadcast thread", e);
+                if (broadcast != null) {
+                    try {
+                        broadcast.kill();
+                    }
+                    catch (InterruptedException e) {
+                        Logger.error("AbstractConnection interrupted while shutting down broadcast thread", e);
+                    }
                 }
                 shutdownImpl();
                 state = State.SHUTDOWN;
@@ -140,6 +157,19 @@ public abstract class AbstractConnection implements Connection {
             }
         }
         try {
+            sendMessagesImpl(messages);
+        }
+        catch (IOException e) {
+            throw new ConnectionException(e);
+        }
+    }
+
+    /**
+       Send some messages to the other end of the connection. This is called by {@link #sendMessages} once the connection has been checked. The default implementation sends the protobuf encoding of each message.
+       @param messages The messages to send.
+       @throws IOException If the messages cannot be sent.
+    */
+    protected void sendMessagesImpl(Collection<? extends Message> messages) throws IOException {
 //            ByteArrayOutputStream out = new ByteArrayOutputStream();
 //            for (Message next : messages) {
 //                writeMessage(next, out);
@@ -153,12 +183,13 @@ public abstract class AbstractConnection implements Connection {
 //            sendBytes(out.toByteArray());
       	  for ( Message msg : messages ) {
 //      	    builder.addMessages(MsgProtoBuf.setMessageProto(msg));
-      	    sendMessageProto( msg.toMessageProto());
+      	    if (msg instanceof EncodedMessage) {
+      	        sendEncodedMessage(((EncodedMessage)msg).getEncoding());
+      	    }
+      	    else {
+      	        sendMessageProto( msg.toMessageProto());
+      	    }
       	  }
-        }
-        catch (IOException e) {
-            throw new ConnectionException(e);
-        }
     }
 
     @Override
@@ -197,6 +228,15 @@ public abstract class AbstractConnection implements Connection {
 //    protected abstract void sendBytes(byte[] b) throws IOException;
     protected abstract void sendMessageProto(MessageProto  messageProto) throws IOException;
 
+    /**
+       Send a message that has already been encoded. The default implementation decodes it and calls {@link #sendMessageProto}; implementations that write the binary encoding should override this to send the bytes as they are.
+       @param encoding The encoded MessageProto. This may be shared with other connections and must not be modified.
+       @throws IOException If the data cannot be sent.
+    */
+    protected void sendEncodedMessage(ByteString encoding) throws IOException {
+        sendMessageProto(MessageProto.parseFrom(encoding));
+    }
+
     /**
        Perform startup actions. This will only ever be called once.
     */
@@ -247,12 +287,27 @@ public abstract class AbstractConnection implements Connection {
        @param m The message that was received.
     */
     protected void fireMessageReceived(Message m) {
+        if (!useBroadcastThread) {
+            notifyListeners(m);
+            return;
+        }
         synchronized (toSend) {
             toSend.add(m);
             toSend.notifyAll();
         }
     }
 
+    private void notifyListeners(Message m) {
+        ConnectionListener[] l;
+        synchronized (listeners) {
+            l = new ConnectionListener[listeners.size()];
+            listeners.toArray(l);
+        }
+        for (ConnectionListener next : l) {
+            next.messageReceived(this, m);
+        }
+    }
+
     /**
        The state of this connection: either not yet started, started or shut down.
     */
@@ -283,14 +338,7 @@ public abstract class AbstractConnection implements Connection {
             if (m == null) {
                 return true;
             }
-            ConnectionListener[] l;
-            synchronized (listeners) {
-                l = new ConnectionListener[listeners.size()];
-                listeners.toArray(l);
-            }
-            for (ConnectionListener next : l) {
-                next.messageReceived(AbstractConnection.this, m);
-            }
+            notifyListeners(m);
             return true;
         }
     }
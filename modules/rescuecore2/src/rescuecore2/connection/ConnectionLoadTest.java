@@ -0,0 +1,121 @@
+package rescuecore2.connection;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import rescuecore2.log.Logger;
+import rescuecore2.messages.Message;
+import rescuecore2.messages.control.AKAcknowledge;
+import rescuecore2.registry.Registry;
+import rescuecore2.worldmodel.EntityID;
+
+/**
+   Load test for the selector based connection layer. A ConnectionManager using {@link NIOConnection}s echoes every message it receives, and a number of synthetic agents connect to it from the same process and exchange messages. A few of the agents use {@link TCPConnection} to check that the two implementations can talk to each other.
+   <p>
+   Usage: ConnectionLoadTest [-a agents] [-t tcp agents] [-m messages per agent] [-p port]
+ */
+public final class ConnectionLoadTest {
+    private static final int DEFAULT_AGENTS = 1000;
+    private static final int DEFAULT_TCP_AGENTS = 10;
+    private static final int DEFAULT_MESSAGES = 10;
+    private static final int DEFAULT_PORT = 27941;
+    private static final long TIMEOUT = 60;
+
+    private ConnectionLoadTest() {}
+
+    /**
+       Run the load test.
+       @param args Command line arguments: [-a agents] [-t tcp agents] [-m messages per agent] [-p port]
+       @throws IOException If the server or clients cannot be created.
+       @throws InterruptedException If the test is interrupted.
+       @throws ConnectionException If a client cannot send.
+    */
+    public static void main(String[] args) throws IOException, InterruptedException, ConnectionException {
+        int agents = DEFAULT_AGENTS;
+        int tcpAgents = DEFAULT_TCP_AGENTS;
+        int messages = DEFAULT_MESSAGES;
+        int port = DEFAULT_PORT;
+        // CHECKSTYLE:OFF:ModifiedControlVariable
+        for (int i = 0; i < args.length; ++i) {
+            if ("-a".equalsIgnoreCase(args[i])) {
+                agents = Integer.parseInt(args[++i]);
+            }
+            else if ("-t".equalsIgnoreCase(args[i])) {
+                tcpAgents = Integer.parseInt(args[++i]);
+            }
+            else if ("-m".equalsIgnoreCase(args[i])) {
+                messages = Integer.parseInt(args[++i]);
+            }
+            else if ("-p".equalsIgnoreCase(args[i])) {
+                port = Integer.parseInt(args[++i]);
+            }
+            else {
+                System.out.println("Unrecognised option: " + args[i]);
+            }
+        }
+        // CHECKSTYLE:ON:ModifiedControlVariable
+        tcpAgents = Math.min(tcpAgents, agents);
+        int baseThreads = Thread.activeCount();
+        final CountDownLatch connected = new CountDownLatch(agents);
+        final CountDownLatch replies = new CountDownLatch(agents * messages);
+        ConnectionManager manager = new ConnectionManager(true);
+        manager.listen(port, Registry.SYSTEM_REGISTRY, new ConnectionManagerListener() {
+                @Override
+                public void newConnection(Connection c) {
+                    c.addConnectionListener(new ConnectionListener() {
+                            @Override
+                            public void messageReceived(Connection connection, Message msg) {
+                                try {
+                                    connection.sendMessage(msg);
+                                }
+                                catch (ConnectionException e) {
+                                    Logger.error("Error echoing message", e);
+                                }
+                            }
+                        });
+                    connected.countDown();
+                }
+            });
+        ConnectionSelector clients = new ConnectionSelector("Load test clients");
+        clients.start();
+        ConnectionListener counter = new ConnectionListener() {
+                @Override
+                public void messageReceived(Connection connection, Message msg) {
+                    replies.countDown();
+                }
+            };
+        List<Connection> connections = new ArrayList<Connection>(agents);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < agents; ++i) {
+            Connection c = i < tcpAgents ? new TCPConnection(port) : clients.connect(new InetSocketAddress("localhost", port));
+            c.addConnectionListener(counter);
+            c.startup();
+            connections.add(c);
+        }
+        boolean allConnected = connected.await(TIMEOUT, TimeUnit.SECONDS);
+        long connectTime = System.currentTimeMillis() - start;
+        System.out.println(agents + " agents (" + tcpAgents + " using TCPConnection) connected in " + connectTime + "ms" + (allConnected ? "" : " - timed out waiting for " + connected.getCount()));
+        System.out.println("Threads: " + baseThreads + " before, " + Thread.activeCount() + " with all agents connected");
+        start = System.currentTimeMillis();
+        for (int j = 0; j < messages; ++j) {
+            for (int i = 0; i < agents; ++i) {
+                connections.get(i).sendMessage(new AKAcknowledge(j, new EntityID(i)));
+            }
+        }
+        boolean allReplied = replies.await(TIMEOUT, TimeUnit.SECONDS);
+        long echoTime = System.currentTimeMillis() - start;
+        // CHECKSTYLE:OFF:MagicNumber
+        double rate = echoTime == 0 ? 0 : (agents * messages * 1000.0) / echoTime;
+        // CHECKSTYLE:ON:MagicNumber
+        System.out.println((agents * messages - replies.getCount()) + " of " + (agents * messages) + " messages echoed in " + echoTime + "ms (" + (int)rate + " round trips per second)" + (allReplied ? "" : " - timed out"));
+        for (Connection next : connections) {
+            next.shutdown();
+        }
+        clients.kill();
+        manager.shutdown();
+    }
+}
@@ -1,7 +1,9 @@
 package rescuecore2.connection;
 
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 import java.io.InterruptedIOException;
 import java.io.IOException;
 
@@ -17,6 +19,7 @@ import rescuecore2.log.Logger;
  */
 public class ConnectionManager {
     private Set<Reader> readers;
+    private ConnectionSelector selector;
     private boolean shutdown;
 
     private final Object lock = new Object();
@@ -25,8 +28,35 @@ public class ConnectionManager {
        Construct a new ConnectionManager.
     */
     public ConnectionManager() {
+        this(false);
+    }
+
+    /**
+       Construct a new ConnectionManager.
+       @param useSelector True if incoming protobuf connections should be {@link NIOConnection}s that share a single selector thread, false to use a {@link TCPConnection} with its own threads for each connection. JSON connections always use {@link JsonTCPConnection}.
+    */
+    public ConnectionManager(boolean useSelector) {
+        this(useSelector, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+       Construct a new ConnectionManager.
+       @param useSelector True if incoming protobuf connections should be {@link NIOConnection}s that share a single selector thread, false to use a {@link TCPConnection} with its own threads for each connection. JSON connections always use {@link JsonTCPConnection}.
+       @param dispatchThreads The number of threads that notify listeners of messages received by the selector. Ignored if useSelector is false.
+    */
+    public ConnectionManager(boolean useSelector, int dispatchThreads) {
         readers = new HashSet<Reader>();
         shutdown = false;
+        if (useSelector) {
+            try {
+                selector = new ConnectionSelector("ConnectionManager selector", dispatchThreads);
+                selector.start();
+            }
+            catch (IOException e) {
+                Logger.error("Error opening selector, falling back to TCPConnection", e);
+                selector = null;
+            }
+        }
     }
 
     /**
@@ -42,13 +72,21 @@ public class ConnectionManager {
                 throw new IOException("Connection manager has been shut down");
             }
             Logger.info("Listening for connections on port " + port);
-            ServerSocket socket = new ServerSocket(port);
-            socket.setSoTimeout(1000);
-            socket.setReuseAddress(true);
-            Reader r = new Reader(socket, registry, listener);
-            readers.add(r);
-            r.start();
-            
+            if (selector != null) {
+                ServerSocketChannel channel = ServerSocketChannel.open();
+                channel.socket().setReuseAddress(true);
+                channel.bind(new InetSocketAddress(port));
+                selector.listen(channel, registry, listener);
+            }
+            else {
+                ServerSocket socket = new ServerSocket(port);
+                socket.setSoTimeout(1000);
+                socket.setReuseAddress(true);
+                Reader r = new Reader(socket, registry, listener);
+                readers.add(r);
+                r.start();
+            }
+
             ServerSocket socketJson = new ServerSocket(port+1);
             socketJson.setSoTimeout(1000);
             socketJson.setReuseAddress(true);
@@ -76,6 +114,14 @@ public class ConnectionManager {
                 Logger.error("ConnectionManager interrupted while shutting down read threads", e);
             }
         }
+        if (selector != null) {
+            try {
+                selector.kill();
+            }
+            catch (InterruptedException e) {
+                Logger.error("ConnectionManager interrupted while shutting down selector", e);
+            }
+        }
     }
 
     /**
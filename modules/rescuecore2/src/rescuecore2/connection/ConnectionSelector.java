@@ -0,0 +1,245 @@
+package rescuecore2.connection;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rescuecore2.log.Logger;
+import rescuecore2.misc.WorkerThread;
+import rescuecore2.registry.Registry;
+
+/**
+   A single thread that performs all socket IO for a set of {@link NIOConnection}s. Received messages are handed to a fixed pool of dispatch threads, so the number of threads does not grow with the number of connections. Each connection uses at most one dispatch thread at a time.
+ */
+final class ConnectionSelector extends WorkerThread {
+    private static final int SELECT_TIMEOUT = 1000;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Selector selector;
+    private final ByteBuffer readBuffer;
+    private final Queue<Runnable> pending;
+    private final ExecutorService dispatcher;
+
+    /**
+       Create a ConnectionSelector with one dispatch thread per processor. The selector thread is not started.
+       @param name The name of the selector thread.
+       @throws IOException If the selector cannot be opened.
+    */
+    ConnectionSelector(String name) throws IOException {
+        this(name, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+       Create a ConnectionSelector. The selector thread is not started.
+       @param name The name of the selector thread.
+       @param dispatchThreads The number of threads that notify listeners of received messages.
+       @throws IOException If the selector cannot be opened.
+    */
+    ConnectionSelector(final String name, int dispatchThreads) throws IOException {
+        super();
+        setName(name);
+        setDaemon(true);
+        selector = Selector.open();
+        readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        pending = new ConcurrentLinkedQueue<Runnable>();
+        dispatcher = Executors.newFixedThreadPool(Math.max(1, dispatchThreads), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread result = new Thread(r, name + " dispatch-" + count.incrementAndGet());
+                    result.setDaemon(true);
+                    return result;
+                }
+            });
+    }
+
+    /**
+       Accept connections on a server channel. Each accepted connection is given the registry, passed to the listener and then started.
+       @param server The server channel. It will be switched to non-blocking mode.
+       @param registry The registry to install in new connections.
+       @param listener The listener to inform of new connections.
+       @throws IOException If the channel cannot be configured.
+    */
+    void listen(final ServerSocketChannel server, final Registry registry, final ConnectionManagerListener listener) throws IOException {
+        server.configureBlocking(false);
+        submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        server.register(selector, SelectionKey.OP_ACCEPT, new Acceptor(registry, listener));
+                    }
+                    catch (ClosedChannelException e) {
+                        Logger.error("Error listening for connections", e);
+                    }
+                }
+            });
+    }
+
+    /**
+       Open a client connection to a remote address. The returned connection has not been started.
+       @param address The address to connect to.
+       @return A new NIOConnection.
+       @throws IOException If the connection cannot be made.
+    */
+    NIOConnection connect(InetSocketAddress address) throws IOException {
+        SocketChannel channel = SocketChannel.open(address);
+        return createConnection(channel);
+    }
+
+    /**
+       Start watching a connection for incoming data.
+       @param connection The connection to register.
+    */
+    void register(final NIOConnection connection) {
+        submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        connection.setKey(connection.getChannel().register(selector, SelectionKey.OP_READ, connection));
+                    }
+                    catch (ClosedChannelException e) {
+                        connection.close();
+                    }
+                }
+            });
+    }
+
+    /**
+       Ask to be told when a connection can accept more output.
+       @param connection The connection that has output waiting.
+    */
+    void requestWrite(final NIOConnection connection) {
+        submit(new Runnable() {
+                @Override
+                public void run() {
+                    SelectionKey key = connection.getKey();
+                    if (key != null && key.isValid()) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    }
+                }
+            });
+    }
+
+    /**
+       Run a task on one of the dispatch threads.
+       @param task The task to run.
+    */
+    void dispatch(Runnable task) {
+        dispatcher.execute(task);
+    }
+
+    @Override
+    protected boolean work() throws InterruptedException {
+        try {
+            selector.select(SELECT_TIMEOUT);
+        }
+        catch (IOException e) {
+            Logger.error("Error selecting connections", e);
+            return false;
+        }
+        Runnable next;
+        while ((next = pending.poll()) != null) {
+            next.run();
+        }
+        for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
+            SelectionKey key = it.next();
+            it.remove();
+            if (!key.isValid()) {
+                continue;
+            }
+            if (key.isAcceptable()) {
+                accept((ServerSocketChannel)key.channel(), (Acceptor)key.attachment());
+                continue;
+            }
+            NIOConnection connection = (NIOConnection)key.attachment();
+            if (key.isReadable()) {
+                connection.read(readBuffer);
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.flush();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void cleanup() {
+        for (SelectionKey next : selector.keys()) {
+            if (next.attachment() instanceof NIOConnection) {
+                ((NIOConnection)next.attachment()).close();
+            }
+            else {
+                try {
+                    next.channel().close();
+                }
+                catch (IOException e) {
+                    Logger.error("Error closing server channel", e);
+                }
+            }
+        }
+        try {
+            selector.close();
+        }
+        catch (IOException e) {
+            Logger.error("Error closing selector", e);
+        }
+        dispatcher.shutdown();
+    }
+
+    private void submit(Runnable r) {
+        pending.add(r);
+        selector.wakeup();
+    }
+
+    private NIOConnection createConnection(SocketChannel channel) throws IOException {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.configureBlocking(false);
+        return new NIOConnection(channel, this);
+    }
+
+    private void accept(ServerSocketChannel server, final Acceptor acceptor) {
+        try {
+            SocketChannel channel = server.accept();
+            if (channel == null) {
+                return;
+            }
+            final NIOConnection connection = createConnection(channel);
+            connection.setRegistry(acceptor.registry);
+            // The listener may do arbitrary work so keep it off the selector thread
+            dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        acceptor.listener.newConnection(connection);
+                        connection.startup();
+                    }
+                });
+        }
+        catch (IOException e) {
+            Logger.error("Error accepting connection", e);
+        }
+    }
+
+    private static class Acceptor {
+        private final Registry registry;
+        private final ConnectionManagerListener listener;
+
+        Acceptor(Registry registry, ConnectionManagerListener listener) {
+            this.registry = registry;
+            this.listener = listener;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package rescuecore2.connection;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import rescuecore2.log.Logger;
+import rescuecore2.messages.AbstractMessage;
+import rescuecore2.messages.EncodedMessage;
+import rescuecore2.messages.Message;
+import rescuecore2.messages.MessageComponent;
+import rescuecore2.messages.components.EntityListComponent;
+import rescuecore2.messages.protobuf.MsgProtoBuf;
+import rescuecore2.messages.protobuf.RCRSProto.MessageProto;
+import rescuecore2.misc.Pair;
+import rescuecore2.misc.WorkerThread;
+import rescuecore2.registry.Registry;
+
+/**
+   A connection to another component in the same JVM. Messages are handed to the other end of the connection as they are, through a bounded queue, without being encoded. Senders must not modify a message after sending it. Messages are only encoded if byte logging is enabled, or if they contain entities that would otherwise be shared between the two world models. {@link EncodedMessage}s are decoded by the receiver.
+ */
+public final class InProcessConnection extends AbstractConnection {
+    /** The default number of messages that can be waiting for a receiver before senders block. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final long WAIT = 1000;
+
+    private final BlockingQueue<Message> received;
+    private InProcessConnection peer;
+    private DeliveryThread delivery;
+    private volatile boolean logBytes;
+    private volatile boolean closed;
+
+    private InProcessConnection(int capacity) {
+        super(false);
+        received = new ArrayBlockingQueue<Message>(capacity);
+    }
+
+    /**
+       Create a pair of connections that send messages to each other.
+       @return A pair of connections.
+    */
+    public static Pair<Connection, Connection> createConnectionPair() {
+        return createConnectionPair(DEFAULT_CAPACITY);
+    }
+
+    /**
+       Create a pair of connections that send messages to each other.
+       @param capacity The number of messages that can be waiting for each receiver before senders block.
+       @return A pair of connections.
+    */
+    public static Pair<Connection, Connection> createConnectionPair(int capacity) {
+        InProcessConnection c1 = new InProcessConnection(capacity);
+        InProcessConnection c2 = new InProcessConnection(capacity);
+        c1.peer = c2;
+        c2.peer = c1;
+        return new Pair<Connection, Connection>(c1, c2);
+    }
+
+    @Override
+    public void setLogBytes(boolean enabled) {
+        super.setLogBytes(enabled);
+        logBytes = enabled;
+    }
+
+    @Override
+    protected void startupImpl() {
+        delivery = new DeliveryThread();
+        delivery.setName(getName() + " delivery");
+        delivery.start();
+    }
+
+    @Override
+    protected void shutdownImpl() {
+        closed = true;
+        try {
+            delivery.kill();
+        }
+        catch (InterruptedException e) {
+            Logger.error("InProcessConnection interrupted while shutting down delivery thread", e);
+        }
+        received.clear();
+    }
+
+    @Override
+    protected void sendMessagesImpl(Collection<? extends Message> messages) throws IOException {
+        for (Message next : messages) {
+            Message m = next;
+            if (logBytes) {
+                ByteLogger.log(m.toMessageProto().toByteArray(), getName());
+            }
+            if (containsEntities(m)) {
+                // Entities are mutable and are added to the receiver's world model as they are
+                m = new EncodedMessage(m.getURN(), m.toMessageProto().toByteString());
+            }
+            peer.enqueue(m);
+        }
+    }
+
+    @Override
+    protected void sendMessageProto(MessageProto messageProto) throws IOException {
+        peer.enqueue(new EncodedMessage(messageProto.getUrn(), messageProto.toByteString()));
+    }
+
+    private void enqueue(Message m) throws IOException {
+        try {
+            while (!received.offer(m, WAIT, TimeUnit.MILLISECONDS)) {
+                if (closed) {
+                    throw new IOException("Connection " + this + " has been shut down");
+                }
+                Logger.debug("Waiting for " + this + " to take messages");
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sending to " + this, e);
+        }
+    }
+
+    private static boolean containsEntities(Message m) {
+        if (m instanceof AbstractMessage) {
+            for (MessageComponent next : ((AbstractMessage)m).getComponents()) {
+                if (next instanceof EntityListComponent) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+       Worker thread that hands received messages to listeners.
+    */
+    private class DeliveryThread extends WorkerThread {
+        @Override
+        protected boolean work() throws InterruptedException {
+            Message m = received.poll(WAIT, TimeUnit.MILLISECONDS);
+            if (m == null) {
+                return true;
+            }
+            Registry.setCurrentRegistry(getRegistry());
+            if (m instanceof EncodedMessage) {
+                m = MsgProtoBuf.messageProto2Message(m.toMessageProto());
+            }
+            if (m != null) {
+                fireMessageReceived(m);
+            }
+            return true;
+        }
+    }
+}
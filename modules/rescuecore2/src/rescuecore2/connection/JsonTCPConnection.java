@@ -7,6 +7,7 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.Socket;
 
+import com.google.protobuf.ByteString;
 import com.google.protobuf.util.JsonFormat;
 
 import rescuecore2.messages.protobuf.RCRSProto.MessageProto;
@@ -21,6 +22,11 @@ public class JsonTCPConnection extends TCPConnection{
 		reader = new InputStreamReader(in);
 	}
 
+	@Override
+	protected void sendEncodedMessage(ByteString encoding) throws IOException {
+		sendMessageProto(MessageProto.parseFrom(encoding));
+	}
+
 	@Override
 	protected void serializeMessageProto(MessageProto messageProto) throws IOException {
 		writer.append(JsonFormat.printer().print(messageProto));
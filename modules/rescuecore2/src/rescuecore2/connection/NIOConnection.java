@@ -0,0 +1,285 @@
+package rescuecore2.connection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import rescuecore2.log.Logger;
+import rescuecore2.messages.protobuf.RCRSProto.MessageProto;
+import rescuecore2.registry.Registry;
+
+/**
+   TCP implementation of a Connection that does not own any threads. All socket IO is done by a shared {@link ConnectionSelector} and listeners are notified on its dispatch threads, one message at a time and in the order the messages were received. The framing is the same as {@link TCPConnection}: a four byte big-endian length followed by an encoded MessageProto.
+ */
+public class NIOConnection extends AbstractConnection {
+    private static final int HEADER_SIZE = 4;
+
+    private final SocketChannel channel;
+    private final ConnectionSelector selector;
+    private volatile SelectionKey key;
+    private volatile boolean closed;
+
+    // Only touched by the selector thread
+    private final ByteBuffer header;
+    private byte[] body;
+    private int bodyRead;
+
+    private final Queue<ByteBuffer> toWrite;
+    private final Queue<byte[]> received;
+    private final AtomicBoolean dispatching;
+    private final Runnable dispatchTask;
+
+    /**
+       Create an NIOConnection around a non-blocking socket channel.
+       @param channel The channel to use.
+       @param selector The selector that will perform IO for this connection.
+    */
+    NIOConnection(SocketChannel channel, ConnectionSelector selector) {
+        super(false);
+        this.channel = channel;
+        this.selector = selector;
+        header = ByteBuffer.allocate(HEADER_SIZE);
+        toWrite = new LinkedList<ByteBuffer>();
+        received = new ConcurrentLinkedQueue<byte[]>();
+        dispatching = new AtomicBoolean();
+        dispatchTask = new Runnable() {
+                @Override
+                public void run() {
+                    dispatchReceived();
+                }
+            };
+        setName("NIOConnection: local port " + channel.socket().getLocalPort() + ", endpoint = " + channel.socket().getInetAddress() + ":" + channel.socket().getPort());
+    }
+
+    @Override
+    public boolean isAlive() {
+        return super.isAlive() && !closed;
+    }
+
+    @Override
+    protected void startupImpl() {
+        Logger.debug("Starting " + this + ". Registry: " + Registry.getCurrentRegistry());
+        selector.register(this);
+    }
+
+    @Override
+    protected void shutdownImpl() {
+        Logger.info("Shutting down " + this);
+        close();
+    }
+
+    @Override
+    protected void sendMessageProto(MessageProto messageProto) throws IOException {
+        int size = messageProto.getSerializedSize();
+        byte[] frame = new byte[HEADER_SIZE + size];
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        buffer.putInt(size);
+        CodedOutputStream out = CodedOutputStream.newInstance(frame, HEADER_SIZE, size);
+        messageProto.writeTo(out);
+        out.checkNoSpaceLeft();
+        buffer.rewind();
+        write(new ByteBuffer[] {buffer});
+    }
+
+    @Override
+    protected void sendEncodedMessage(ByteString encoding) throws IOException {
+        // Send read-only views of the shared encoding rather than copying it
+        List<ByteBuffer> pieces = encoding.asReadOnlyByteBufferList();
+        ByteBuffer[] frame = new ByteBuffer[pieces.size() + 1];
+        frame[0] = ByteBuffer.allocate(HEADER_SIZE);
+        frame[0].putInt(encoding.size());
+        frame[0].flip();
+        for (int i = 0; i < pieces.size(); ++i) {
+            frame[i + 1] = pieces.get(i);
+        }
+        write(frame);
+    }
+
+    private void write(ByteBuffer[] frame) throws IOException {
+        synchronized (toWrite) {
+            if (closed) {
+                throw new IOException(this + " is closed");
+            }
+            if (toWrite.isEmpty()) {
+                // Nothing queued: try to send immediately on the calling thread
+                try {
+                    channel.write(frame);
+                }
+                catch (IOException e) {
+                    close();
+                    throw e;
+                }
+            }
+            boolean wasEmpty = toWrite.isEmpty();
+            for (ByteBuffer next : frame) {
+                if (next.hasRemaining()) {
+                    toWrite.add(next);
+                }
+            }
+            if (wasEmpty && !toWrite.isEmpty()) {
+                selector.requestWrite(this);
+            }
+        }
+    }
+
+    /**
+       Get the underlying channel.
+       @return The socket channel.
+    */
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+       Get the selection key for this connection.
+       @return The selection key, or null if the connection has not been registered yet.
+    */
+    SelectionKey getKey() {
+        return key;
+    }
+
+    /**
+       Set the selection key for this connection.
+       @param newKey The new selection key.
+    */
+    void setKey(SelectionKey newKey) {
+        key = newKey;
+    }
+
+    /**
+       Read whatever is available from the channel and queue any complete messages for dispatch. Called by the selector thread.
+       @param buffer A scratch buffer to read into.
+    */
+    void read(ByteBuffer buffer) {
+        buffer.clear();
+        try {
+            if (channel.read(buffer) < 0) {
+                close();
+                return;
+            }
+        }
+        catch (IOException e) {
+            Logger.error("Error reading from " + this, e);
+            close();
+            return;
+        }
+        buffer.flip();
+        while (true) {
+            if (body == null) {
+                while (header.hasRemaining() && buffer.hasRemaining()) {
+                    header.put(buffer.get());
+                }
+                if (header.hasRemaining()) {
+                    return;
+                }
+                header.flip();
+                int size = header.getInt();
+                header.clear();
+                if (size < 0) {
+                    Logger.error("Invalid message size " + size + " received on " + this);
+                    close();
+                    return;
+                }
+                body = new byte[size];
+                bodyRead = 0;
+            }
+            int count = Math.min(buffer.remaining(), body.length - bodyRead);
+            buffer.get(body, bodyRead, count);
+            bodyRead += count;
+            if (bodyRead < body.length) {
+                return;
+            }
+            received.add(body);
+            body = null;
+            if (dispatching.compareAndSet(false, true)) {
+                selector.dispatch(dispatchTask);
+            }
+        }
+    }
+
+    /**
+       Write as much queued output as the channel will take. Called by the selector thread.
+    */
+    void flush() {
+        synchronized (toWrite) {
+            try {
+                while (!toWrite.isEmpty()) {
+                    ByteBuffer next = toWrite.peek();
+                    channel.write(next);
+                    if (next.hasRemaining()) {
+                        return;
+                    }
+                    toWrite.remove();
+                }
+            }
+            catch (IOException e) {
+                Logger.error("Error writing to " + this, e);
+                close();
+                return;
+            }
+            SelectionKey k = key;
+            if (k != null && k.isValid()) {
+                k.interestOps(SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    /**
+       Close the channel and discard any queued output.
+    */
+    void close() {
+        synchronized (toWrite) {
+            closed = true;
+            toWrite.clear();
+        }
+        SelectionKey k = key;
+        if (k != null) {
+            k.cancel();
+        }
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            Logger.error("Error closing " + this, e);
+        }
+    }
+
+    private void dispatchReceived() {
+        Registry old = Registry.getCurrentRegistry();
+        Registry.setCurrentRegistry(getRegistry());
+        try {
+            byte[] next;
+            while ((next = received.poll()) != null) {
+                try {
+                    messageProtoReceived(MessageProto.parseFrom(next));
+                }
+                catch (InvalidProtocolBufferException e) {
+                    Logger.error("Error decoding message from " + this, e);
+                }
+                // CHECKSTYLE:OFF:IllegalCatch
+                catch (RuntimeException e) {
+                    Logger.error("Error processing message from " + this, e);
+                }
+                // CHECKSTYLE:ON:IllegalCatch
+            }
+        }
+        finally {
+            Registry.setCurrentRegistry(old);
+            dispatching.set(false);
+        }
+        // Pick up anything that arrived after the queue was drained but before the flag was cleared
+        if (!received.isEmpty() && dispatching.compareAndSet(false, true)) {
+            selector.dispatch(dispatchTask);
+        }
+    }
+}
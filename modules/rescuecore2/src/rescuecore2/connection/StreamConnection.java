@@ -23,6 +23,8 @@ import rescuecore2.registry.Registry;
 import rescuecore2.log.Logger;
 import rescuecore2.messages.protobuf.RCRSProto.MessageProto;
 
+import com.google.protobuf.ByteString;
+
 /**
  * Connection implementation that uses InputStreams and OutputStreams.
  */
@@ -33,7 +35,8 @@ public class StreamConnection extends AbstractConnection {
 	protected OutputStream out;
 	private ReadThread readThread;
 	private WriteThread writeThread;
-	private List<MessageProto> toWrite;
+	// Either MessageProto objects or pre-encoded ByteStrings
+	private List<Object> toWrite;
 
 	protected static final boolean GZIP_ENABLE = false;
 
@@ -57,7 +60,7 @@ public class StreamConnection extends AbstractConnection {
 			this.in = in;
 			this.out = out;
 		}
-		toWrite = new LinkedList<MessageProto>();
+		toWrite = new LinkedList<Object>();
 	}
 
 	@Override
@@ -127,6 +130,18 @@ public class StreamConnection extends AbstractConnection {
 
 	}
 
+	/**
+	 * Write a pre-encoded message to the output stream.
+	 * 
+	 * @param encoding The encoded MessageProto.
+	 * @throws IOException If the data cannot be written.
+	 */
+	protected void serializeEncodedMessage(ByteString encoding)
+			throws IOException {
+		EncodingTools.writeInt32(encoding.size(), out);
+		encoding.writeTo(out);
+	}
+
 	protected MessageProto deserializeMessageProto() throws IOException {
 //    	return MessageProto.parseDelimitedFrom(in);
 		int size = EncodingTools.readInt32(in);
@@ -142,6 +157,15 @@ public class StreamConnection extends AbstractConnection {
 		}
 	}
 
+	@Override
+	protected void sendEncodedMessage(ByteString encoding)
+			throws IOException {
+		synchronized (toWrite) {
+			toWrite.add(encoding);
+			toWrite.notifyAll();
+		}
+	}
+
 	/**
 	 * Worker thread that reads from the input stream.
 	 */
@@ -178,22 +202,26 @@ public class StreamConnection extends AbstractConnection {
 	private class WriteThread extends WorkerThread {
 		@Override
 		protected boolean work() throws InterruptedException {
-			MessageProto messageProto = null;
+			Object next = null;
 			synchronized (toWrite) {
 				if (toWrite.isEmpty()) {
 					toWrite.wait(SEND_WAIT);
 					return true;
 				} else {
-					messageProto = toWrite.remove(0);
+					next = toWrite.remove(0);
 				}
 			}
-			if (messageProto == null) {
+			if (next == null) {
 				return true;
 			}
 			try {
 //                writeInt32(bytes.length, out);
 //                out.write(bytes);
-				serializeMessageProto(messageProto);
+				if (next instanceof ByteString) {
+					serializeEncodedMessage((ByteString) next);
+				} else {
+					serializeMessageProto((MessageProto) next);
+				}
 				out.flush();
 				return true;
 			} catch (IOException e) {
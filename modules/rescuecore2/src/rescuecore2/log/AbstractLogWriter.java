@@ -19,14 +19,24 @@ public abstract class AbstractLogWriter implements LogWriter {
 
 	@Override
 	public final void writeRecord(LogRecord entry) throws LogException {
+		write(encode(entry));
+	}
+
+	/**
+	 * Encode a log entry into the bytes that {@link #writeRecord} writes.
+	 *
+	 * @param entry The entry to encode.
+	 * @return The encoded entry.
+	 * @throws LogException If there is a problem encoding the entry.
+	 */
+	final byte[] encode(LogRecord entry) throws LogException {
 		if (isV2)
-			writeRecordProtoBuf(entry);
+			return encodeProtoBuf(entry);
 		else
-			writeRecordV1(entry);
+			return encodeV1(entry);
 	}
 
-	private final void writeRecordProtoBuf(LogRecord entry)
-			throws LogException {
+	private final byte[] encodeProtoBuf(LogRecord entry) throws LogException {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		try {
 			LogProto proto = entry.toLogProto();
@@ -34,13 +44,13 @@ public abstract class AbstractLogWriter implements LogWriter {
 			byte[] data = proto.toByteString().toByteArray();
 			writeInt32(data.length, out);
 			out.write(data);
-			write(out.toByteArray());
+			return out.toByteArray();
 		} catch (IOException e) {
 			throw new LogException(e);
 		}
 	}
 
-	private final void writeRecordV1(LogRecord entry) throws LogException {
+	private final byte[] encodeV1(LogRecord entry) throws LogException {
 		ByteArrayOutputStream gather = new ByteArrayOutputStream();
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		try {
@@ -49,7 +59,7 @@ public abstract class AbstractLogWriter implements LogWriter {
 			writeInt32(entry.getRecordType().getID(), out);
 			writeInt32(data.length, out);
 			out.write(data);
-			write(out.toByteArray());
+			return out.toByteArray();
 		} catch (IOException e) {
 			throw new LogException(e);
 		}
@@ -0,0 +1,256 @@
+package rescuecore2.log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import rescuecore2.registry.Registry;
+
+/**
+ * A log writer that encodes and writes records on background threads. Records
+ * are passed to the background threads through a bounded queue, so the caller
+ * only blocks when the queue is full. If the wrapped writer is an
+ * {@link AbstractLogWriter} then records are encoded on one thread and
+ * compressed and written on another. The bytes written are exactly the bytes
+ * the wrapped writer would have written.
+ * <p>
+ * Commands, perception, updates and start and end of log records are written
+ * later, so they must not be modified after they have been passed to
+ * {@link #writeRecord}. Initial conditions and config records refer to objects
+ * that change during the simulation and are encoded before
+ * {@link #writeRecord} returns.
+ * <p>
+ * Errors on the background threads are reported by the next call to
+ * {@link #writeRecord}. Records written after an error are discarded.
+ */
+public class AsyncLogWriter implements LogWriter {
+	/** The default number of records that can be waiting before the caller blocks. */
+	public static final int DEFAULT_CAPACITY = 1000;
+
+	private static final Pending END = new Pending(null, null, null);
+
+	private final LogWriter delegate;
+	private final AbstractLogWriter encoder;
+	private final Registry registry;
+	private final BlockingQueue<Pending> records;
+	private final BlockingQueue<Pending> encoded;
+	private final Thread encodeThread;
+	private final Thread writeThread;
+	private volatile LogException error;
+	private boolean closed;
+
+	/**
+	 * Create an AsyncLogWriter with the default capacity.
+	 *
+	 * @param delegate The writer to write records to.
+	 */
+	public AsyncLogWriter(LogWriter delegate) {
+		this(delegate, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create an AsyncLogWriter.
+	 *
+	 * @param delegate The writer to write records to.
+	 * @param capacity The number of records that can be waiting to be written
+	 *                 before the caller blocks.
+	 */
+	public AsyncLogWriter(LogWriter delegate, int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException(
+					"Capacity must be positive: " + capacity);
+		}
+		this.delegate = delegate;
+		this.encoder = delegate instanceof AbstractLogWriter
+				? (AbstractLogWriter) delegate
+				: null;
+		this.registry = Registry.getCurrentRegistry();
+		records = new ArrayBlockingQueue<Pending>(capacity);
+		if (encoder != null) {
+			encoded = new ArrayBlockingQueue<Pending>(capacity);
+			encodeThread = new EncodeThread();
+			encodeThread.start();
+		} else {
+			encoded = records;
+			encodeThread = null;
+		}
+		writeThread = new WriteThread();
+		writeThread.start();
+	}
+
+	@Override
+	public void writeRecord(LogRecord entry) throws LogException {
+		if (closed) {
+			throw new LogException("Log has been closed");
+		}
+		checkError();
+		if (isDeferrable(entry)) {
+			put(new Pending(entry, null, null));
+		} else if (encoder != null) {
+			put(new Pending(null, encoder.encode(entry), null));
+		} else {
+			// Wait for the record to be written before returning
+			CountDownLatch done = new CountDownLatch(1);
+			put(new Pending(entry, null, done));
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new LogException("Interrupted while writing log", e);
+			}
+			checkError();
+		}
+	}
+
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			records.put(END);
+			if (encodeThread != null) {
+				encodeThread.join();
+			}
+			writeThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			Logger.error("Interrupted while closing log", e);
+		}
+		if (error != null) {
+			Logger.error("Error writing log", error);
+		}
+		delegate.close();
+	}
+
+	private static boolean isDeferrable(LogRecord entry) {
+		switch (entry.getRecordType()) {
+		case START_OF_LOG:
+		case END_OF_LOG:
+		case COMMANDS:
+		case PERCEPTION:
+		case UPDATES:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private void checkError() throws LogException {
+		LogException e = error;
+		if (e != null) {
+			throw new LogException("Error writing log", e);
+		}
+	}
+
+	private void put(Pending p) throws LogException {
+		try {
+			records.put(p);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new LogException("Interrupted while writing log", e);
+		}
+	}
+
+	private void fail(LogException e) {
+		if (error == null) {
+			Logger.error("Error writing log", e);
+			error = e;
+		}
+	}
+
+	/**
+	 * A record waiting to be encoded or written.
+	 */
+	private static final class Pending {
+		final LogRecord record;
+		final byte[] bytes;
+		final CountDownLatch done;
+
+		Pending(LogRecord record, byte[] bytes, CountDownLatch done) {
+			this.record = record;
+			this.bytes = bytes;
+			this.done = done;
+		}
+	}
+
+	/**
+	 * Thread that encodes records for an AbstractLogWriter.
+	 */
+	private class EncodeThread extends Thread {
+		EncodeThread() {
+			super("Log encoder");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			Registry.setCurrentRegistry(registry);
+			try {
+				while (true) {
+					Pending next = records.take();
+					if (next != END && next.bytes == null && error == null) {
+						try {
+							next = new Pending(null, encoder.encode(next.record),
+									null);
+						} catch (LogException e) {
+							fail(e);
+						} catch (RuntimeException e) {
+							fail(new LogException(e));
+						}
+					}
+					encoded.put(next);
+					if (next == END) {
+						return;
+					}
+				}
+			} catch (InterruptedException e) {
+				Logger.error("Log encoder interrupted", e);
+			}
+		}
+	}
+
+	/**
+	 * Thread that writes encoded records, or records that the wrapped writer
+	 * encodes itself.
+	 */
+	private class WriteThread extends Thread {
+		WriteThread() {
+			super("Log writer");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			Registry.setCurrentRegistry(registry);
+			try {
+				while (true) {
+					Pending next = encoded.take();
+					if (next == END) {
+						return;
+					}
+					try {
+						if (error == null) {
+							if (next.bytes != null) {
+								encoder.write(next.bytes);
+							} else {
+								delegate.writeRecord(next.record);
+							}
+						}
+					} catch (LogException e) {
+						fail(e);
+					} catch (RuntimeException e) {
+						fail(new LogException(e));
+					} finally {
+						if (next.done != null) {
+							next.done.countDown();
+						}
+					}
+				}
+			} catch (InterruptedException e) {
+				Logger.error("Log writer interrupted", e);
+			}
+		}
+	}
+}
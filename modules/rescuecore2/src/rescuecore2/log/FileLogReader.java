@@ -34,6 +34,18 @@ public class FileLogReader extends StreamLogReader {
         this(new File(name), registry);
     }
 
+    /**
+       Construct a new FileLogReader.
+       @param name The name of the file to read.
+       @param registry The registry to use for reading log entries.
+       @param options Options for the reader such as the world model keyframe interval.
+       @throws IOException If the file cannot be read.
+       @throws LogException If there is a problem reading the log.
+    */
+    public FileLogReader(String name, Registry registry, Config options) throws IOException, LogException {
+        this(new File(name), registry, options);
+    }
+
     /**
        Construct a new FileLogReader.
        @param file The file object to read.
@@ -42,7 +54,19 @@ public class FileLogReader extends StreamLogReader {
        @throws LogException If there is a problem reading the log.
     */
     public FileLogReader(File file, Registry registry) throws IOException, LogException {
-        super(new FileInputStream(file),registry);
+        this(file, registry, new Config());
+    }
+
+    /**
+       Construct a new FileLogReader.
+       @param file The file object to read.
+       @param registry The registry to use for reading log entries.
+       @param options Options for the reader such as the world model keyframe interval.
+       @throws IOException If the file cannot be read.
+       @throws LogException If there is a problem reading the log.
+    */
+    public FileLogReader(File file, Registry registry, Config options) throws IOException, LogException {
+        super(new FileInputStream(file), registry, options);
         Logger.info("Reading file log: " + file.getAbsolutePath());
     }
 }
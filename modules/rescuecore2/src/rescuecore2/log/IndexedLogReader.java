@@ -0,0 +1,404 @@
+package rescuecore2.log;
+
+import static rescuecore2.log.IndexedLogWriter.CHUNK_HEADER_SIZE;
+import static rescuecore2.log.IndexedLogWriter.FLAG_KEYFRAME;
+import static rescuecore2.log.IndexedLogWriter.HEADER_SIZE;
+import static rescuecore2.log.IndexedLogWriter.MAGIC;
+import static rescuecore2.log.IndexedLogWriter.TRAILER_SIZE;
+import static rescuecore2.log.IndexedLogWriter.VERSION;
+import static rescuecore2.misc.EncodingTools.readBytes;
+import static rescuecore2.misc.EncodingTools.readInt32;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.tukaani.xz.LZMAInputStream;
+
+import rescuecore2.config.Config;
+import rescuecore2.messages.protobuf.RCRSLogProto.LogProto;
+import rescuecore2.registry.Registry;
+import rescuecore2.worldmodel.DefaultWorldModel;
+import rescuecore2.worldmodel.Entity;
+import rescuecore2.worldmodel.EntityID;
+import rescuecore2.worldmodel.WorldModel;
+
+/**
+ * A reader for logs written by {@link IndexedLogWriter}. Opening the log only
+ * reads the index and the first chunk. Other chunks are read when they are
+ * needed, and the world model at a timestep is rebuilt from the nearest
+ * earlier keyframe. The file is memory-mapped if it is small enough.
+ * <p>
+ * If the log was not closed properly the index is missing and the chunks are
+ * found by reading their headers instead.
+ */
+public class IndexedLogReader extends AbstractLogReader {
+	/** The number of decoded chunks to cache. */
+	private static final int CHUNK_CACHE_SIZE = 32;
+	/** The number of rebuilt world models to cache. */
+	private static final int WORLD_CACHE_SIZE = 10;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final MappedByteBuffer map;
+	private final int[] times;
+	private final long[] offsets;
+	private final Map<Integer, Chunk> chunks;
+	private final Map<Integer, WorldModel<? extends Entity>> worldModels;
+	private Config config;
+
+	/**
+	 * Construct an IndexedLogReader.
+	 *
+	 * @param name     The name of the file to read.
+	 * @param registry The registry to use for reading log entries.
+	 * @throws IOException  If the file cannot be read.
+	 * @throws LogException If there is a problem reading the log.
+	 */
+	public IndexedLogReader(String name, Registry registry)
+			throws IOException, LogException {
+		this(new File(name), registry);
+	}
+
+	/**
+	 * Construct an IndexedLogReader.
+	 *
+	 * @param f        The file to read.
+	 * @param registry The registry to use for reading log entries.
+	 * @throws IOException  If the file cannot be read.
+	 * @throws LogException If there is a problem reading the log.
+	 */
+	public IndexedLogReader(File f, Registry registry)
+			throws IOException, LogException {
+		super(registry);
+		Logger.info("Reading indexed log: " + f.getAbsolutePath());
+		file = new RandomAccessFile(f, "r");
+		channel = file.getChannel();
+		long size = channel.size();
+		map = size <= Integer.MAX_VALUE
+				? channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+				: null;
+		ByteBuffer header = read(0, HEADER_SIZE);
+		if (header.getInt() != MAGIC) {
+			throw new LogException("Log does not start with correct magic number");
+		}
+		int version = header.getInt();
+		if (version != VERSION) {
+			throw new LogException("Unsupported log version: " + version);
+		}
+		List<Integer> t = new ArrayList<Integer>();
+		List<Long> o = new ArrayList<Long>();
+		if (!readIndex(size, t, o)) {
+			Logger.warn("Log has no index; scanning chunks");
+			scanChunks(size, t, o);
+		}
+		if (t.isEmpty()) {
+			throw new LogException("Log has no records");
+		}
+		times = new int[t.size()];
+		offsets = new long[o.size()];
+		for (int i = 0; i < times.length; ++i) {
+			times[i] = t.get(i);
+			offsets[i] = o.get(i);
+		}
+		chunks = new LinkedHashMap<Integer, Chunk>(CHUNK_CACHE_SIZE + 1, 1,
+				true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Chunk> eldest) {
+				return size() > CHUNK_CACHE_SIZE;
+			}
+		};
+		worldModels = new LinkedHashMap<Integer, WorldModel<? extends Entity>>(
+				WORLD_CACHE_SIZE + 1, 1, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<Integer, WorldModel<? extends Entity>> eldest) {
+				return size() > WORLD_CACHE_SIZE;
+			}
+		};
+		config = getChunk(0).config;
+		Logger.info("Found " + getMaxTimestep() + " cycles.");
+	}
+
+	@Override
+	public synchronized Config getConfig() throws LogException {
+		if (config == null) {
+			throw new LogException("No config record found");
+		}
+		return config;
+	}
+
+	@Override
+	public int getMaxTimestep() throws LogException {
+		return times[times.length - 1];
+	}
+
+	@Override
+	public synchronized WorldModel<? extends Entity> getWorldModel(int time)
+			throws LogException {
+		checkTime(time);
+		WorldModel<? extends Entity> result = worldModels.get(time);
+		if (result != null) {
+			return result;
+		}
+		// Start from the latest keyframe or cached world model before the
+		// requested time
+		int last = indexOf(time);
+		if (last < 0) {
+			return DefaultWorldModel.create();
+		}
+		int first = last;
+		while (first > 0 && (getFlags(first) & FLAG_KEYFRAME) == 0) {
+			--first;
+		}
+		WorldModel<? extends Entity> base = getChunk(first).keyframe;
+		int start = times[first];
+		for (Map.Entry<Integer, WorldModel<? extends Entity>> next : worldModels
+				.entrySet()) {
+			int cached = next.getKey();
+			if (cached > start && cached < time) {
+				start = cached;
+				base = next.getValue();
+			}
+		}
+		if (base == null) {
+			result = DefaultWorldModel.create();
+		} else {
+			result = WorldModelStore.copy(base);
+		}
+		Registry.setCurrentRegistry(registry);
+		for (int i = first; i <= last; ++i) {
+			if (times[i] > start) {
+				UpdatesRecord updates = getChunk(i).updates;
+				if (updates != null) {
+					result.merge(updates.getChangeSet());
+				}
+			}
+		}
+		worldModels.put(time, result);
+		return result;
+	}
+
+	@Override
+	public synchronized Set<EntityID> getEntitiesWithUpdates(int time)
+			throws LogException {
+		checkTime(time);
+		Chunk c = getChunkAt(time);
+		Set<EntityID> result = new HashSet<EntityID>();
+		if (c != null) {
+			result.addAll(c.perception.keySet());
+		}
+		return result;
+	}
+
+	@Override
+	public synchronized PerceptionRecord getPerception(int time,
+			EntityID entity) throws LogException {
+		checkTime(time);
+		Chunk c = getChunkAt(time);
+		return c == null ? null : c.perception.get(entity);
+	}
+
+	@Override
+	public synchronized CommandsRecord getCommands(int time)
+			throws LogException {
+		checkTime(time);
+		Chunk c = getChunkAt(time);
+		return c == null ? null : c.commands;
+	}
+
+	@Override
+	public synchronized UpdatesRecord getUpdates(int time)
+			throws LogException {
+		checkTime(time);
+		Chunk c = getChunkAt(time);
+		return c == null ? null : c.updates;
+	}
+
+	/**
+	 * Close the file.
+	 */
+	public synchronized void close() {
+		try {
+			file.close();
+		} catch (IOException e) {
+			Logger.error("Error closing log file", e);
+		}
+	}
+
+	private void checkTime(int time) throws LogException {
+		if (time < 0 || time > getMaxTimestep()) {
+			throw new IllegalArgumentException("Time is out of range: " + time
+					+ " should be between 0 and " + getMaxTimestep());
+		}
+	}
+
+	private boolean readIndex(long size, List<Integer> t, List<Long> o)
+			throws IOException {
+		if (size < HEADER_SIZE + TRAILER_SIZE) {
+			return false;
+		}
+		ByteBuffer trailer = read(size - TRAILER_SIZE, TRAILER_SIZE);
+		long indexOffset = trailer.getLong();
+		if (trailer.getInt() != MAGIC || indexOffset < HEADER_SIZE
+				|| indexOffset > size - TRAILER_SIZE - 4) {
+			return false;
+		}
+		int count = read(indexOffset, 4).getInt();
+		if (count < 0 || indexOffset + 4 + count * 12L != size - TRAILER_SIZE) {
+			return false;
+		}
+		ByteBuffer index = read(indexOffset + 4, count * 12);
+		for (int i = 0; i < count; ++i) {
+			t.add(index.getInt());
+			o.add(index.getLong());
+		}
+		return true;
+	}
+
+	private void scanChunks(long size, List<Integer> t, List<Long> o)
+			throws IOException {
+		long offset = HEADER_SIZE;
+		while (offset + CHUNK_HEADER_SIZE <= size) {
+			ByteBuffer header = read(offset, CHUNK_HEADER_SIZE);
+			int time = header.getInt();
+			header.getInt();
+			header.getInt();
+			int length = header.getInt();
+			long next = offset + CHUNK_HEADER_SIZE + length;
+			if (length < 0 || next > size
+					|| (!t.isEmpty() && time <= t.get(t.size() - 1))) {
+				// Truncated chunk
+				break;
+			}
+			t.add(time);
+			o.add(offset);
+			offset = next;
+		}
+	}
+
+	private ByteBuffer read(long offset, int length) throws IOException {
+		if (map != null) {
+			ByteBuffer result = map.duplicate();
+			result.position((int) offset);
+			result.limit((int) offset + length);
+			return result.slice();
+		}
+		ByteBuffer result = ByteBuffer.allocate(length);
+		while (result.hasRemaining()) {
+			if (channel.read(result, offset + result.position()) < 0) {
+				throw new IOException("Unexpected end of log file");
+			}
+		}
+		result.flip();
+		return result;
+	}
+
+	private int indexOf(int time) {
+		// The latest chunk at or before the given time
+		int i = Arrays.binarySearch(times, time);
+		return i >= 0 ? i : -i - 2;
+	}
+
+	private int getFlags(int i) throws LogException {
+		try {
+			ByteBuffer header = read(offsets[i], CHUNK_HEADER_SIZE);
+			header.getInt();
+			return header.getInt();
+		} catch (IOException e) {
+			throw new LogException(e);
+		}
+	}
+
+	private Chunk getChunkAt(int time) throws LogException {
+		int i = Arrays.binarySearch(times, time);
+		return i >= 0 ? getChunk(i) : null;
+	}
+
+	private Chunk getChunk(int i) throws LogException {
+		Chunk result = chunks.get(i);
+		if (result == null) {
+			result = readChunk(i);
+			chunks.put(i, result);
+		}
+		return result;
+	}
+
+	private Chunk readChunk(int i) throws LogException {
+		Registry.setCurrentRegistry(registry);
+		try {
+			ByteBuffer header = read(offsets[i], CHUNK_HEADER_SIZE);
+			header.getInt();
+			header.getInt();
+			int count = header.getInt();
+			int length = header.getInt();
+			ByteBuffer data = read(offsets[i] + CHUNK_HEADER_SIZE, length);
+			byte[] bytes = new byte[length];
+			data.get(bytes);
+			InputStream in = new LZMAInputStream(new ByteArrayInputStream(bytes));
+			Chunk result = new Chunk();
+			for (int j = 0; j < count; ++j) {
+				int size = readInt32(in);
+				LogProto log = LogProto.parseFrom(readBytes(size, in));
+				result.add(log);
+			}
+			return result;
+		} catch (IOException e) {
+			throw new LogException(e);
+		}
+	}
+
+	/**
+	 * The decoded records of one chunk.
+	 */
+	private static class Chunk {
+		final Map<EntityID, PerceptionRecord> perception = new HashMap<EntityID, PerceptionRecord>();
+		CommandsRecord commands;
+		UpdatesRecord updates;
+		WorldModel<? extends Entity> keyframe;
+		Config config;
+
+		void add(LogProto log) throws LogException {
+			switch (log.getLogCase()) {
+			case INITIALCONDITION:
+				keyframe = new InitialConditionsRecord(log).getWorldModel();
+				break;
+			case PERCEPTION:
+				PerceptionRecord p = new PerceptionRecord(log);
+				perception.put(p.getEntityID(), p);
+				break;
+			case COMMAND:
+				commands = new CommandsRecord(log);
+				break;
+			case UPDATE:
+				updates = new UpdatesRecord(log);
+				break;
+			case CONFIG:
+				config = new ConfigRecord(log).getConfig();
+				break;
+			case START:
+			case END:
+				break;
+			default:
+				throw new LogException("Unexpected record type: " + log.getLogCase());
+			}
+		}
+	}
+}
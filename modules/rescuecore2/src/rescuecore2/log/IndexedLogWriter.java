@@ -0,0 +1,208 @@
+package rescuecore2.log;
+
+import static rescuecore2.misc.EncodingTools.writeInt32;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.LZMAOutputStream;
+
+import rescuecore2.worldmodel.Entity;
+import rescuecore2.worldmodel.WorldModel;
+
+/**
+ * A log writer that writes a log that can be read at any timestep without
+ * reading the whole file.
+ * <p>
+ * The records of each timestep are compressed separately into a chunk. Every
+ * few timesteps the chunk also holds a keyframe: the whole world model at the
+ * end of that timestep. An index of the chunk offsets is written at the end of
+ * the file when the log is closed. The file layout is:
+ *
+ * <pre>
+ * header:  int32 MAGIC, int32 VERSION
+ * chunk:   int32 time, int32 flags, int32 record count, int32 length,
+ *          LZMA compressed records as in the V2 log (int32 length, LogProto)
+ * index:   int32 chunk count, (int32 time, int64 offset) per chunk
+ * trailer: int64 index offset, int32 MAGIC
+ * </pre>
+ *
+ * Start and end of log records are not stored.
+ */
+public class IndexedLogWriter implements LogWriter {
+	/** The magic number at the start and end of an indexed log. */
+	public static final int MAGIC = 0x52434958;
+	/** The version of the format. */
+	public static final int VERSION = 1;
+	/** The chunk flag for chunks that contain a keyframe. */
+	public static final int FLAG_KEYFRAME = 0x01;
+	/** The default number of timesteps between keyframes. */
+	public static final int DEFAULT_KEYFRAME_INTERVAL = 10;
+
+	static final int HEADER_SIZE = 8;
+	static final int CHUNK_HEADER_SIZE = 16;
+	static final int TRAILER_SIZE = 12;
+
+	private static final int LZMA_PRESET = 7;
+
+	private final DataOutputStream out;
+	private final int keyframeInterval;
+	private final List<Integer> times;
+	private final List<Long> offsets;
+	private final ByteArrayOutputStream chunk;
+	private int chunkTime;
+	private int chunkRecords;
+	private int chunkFlags;
+	private long position;
+	private WorldModel<? extends Entity> world;
+
+	/**
+	 * Create an indexed log writer with the default keyframe interval.
+	 *
+	 * @param file The file to write to.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	public IndexedLogWriter(File file) throws IOException {
+		this(file, DEFAULT_KEYFRAME_INTERVAL);
+	}
+
+	/**
+	 * Create an indexed log writer.
+	 *
+	 * @param file             The file to write to.
+	 * @param keyframeInterval The number of timesteps between keyframes, or
+	 *                         zero for no keyframes after the initial
+	 *                         conditions.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	public IndexedLogWriter(File file, int keyframeInterval)
+			throws IOException {
+		this.out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)));
+		this.keyframeInterval = keyframeInterval;
+		times = new ArrayList<Integer>();
+		offsets = new ArrayList<Long>();
+		chunk = new ByteArrayOutputStream();
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		position = HEADER_SIZE;
+	}
+
+	@Override
+	public void writeRecord(LogRecord record) throws LogException {
+		try {
+			switch (record.getRecordType()) {
+			case START_OF_LOG:
+				break;
+			case END_OF_LOG:
+				flushChunk();
+				break;
+			case INITIAL_CONDITIONS:
+				// The record shares its entities with the caller
+				world = WorldModelStore.copy(
+						((InitialConditionsRecord) record).getWorldModel());
+				append(record);
+				chunkFlags |= FLAG_KEYFRAME;
+				break;
+			case CONFIG:
+				append(record);
+				break;
+			case COMMANDS:
+				startChunk(((CommandsRecord) record).getTime());
+				append(record);
+				break;
+			case PERCEPTION:
+				startChunk(((PerceptionRecord) record).getTime());
+				append(record);
+				break;
+			case UPDATES:
+				UpdatesRecord updates = (UpdatesRecord) record;
+				startChunk(updates.getTime());
+				append(record);
+				if (world != null && updates.getChangeSet() != null) {
+					world.merge(updates.getChangeSet());
+				}
+				break;
+			default:
+				throw new LogException(
+						"Unexpected record type: " + record.getRecordType());
+			}
+		} catch (IOException e) {
+			throw new LogException(e);
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			flushChunk();
+			long indexOffset = position;
+			out.writeInt(times.size());
+			for (int i = 0; i < times.size(); ++i) {
+				out.writeInt(times.get(i));
+				out.writeLong(offsets.get(i));
+			}
+			out.writeLong(indexOffset);
+			out.writeInt(MAGIC);
+		} catch (IOException e) {
+			Logger.error("Error writing log index", e);
+		}
+		try {
+			out.close();
+		} catch (IOException e) {
+			Logger.error("Error closing log stream", e);
+		}
+	}
+
+	private void startChunk(int time) throws IOException, LogException {
+		if (time < chunkTime) {
+			throw new LogException("Record for timestep " + time
+					+ " found after timestep " + chunkTime);
+		}
+		if (time > chunkTime) {
+			flushChunk();
+			chunkTime = time;
+		}
+	}
+
+	private void append(LogRecord record) throws IOException {
+		byte[] data = record.toLogProto().toByteArray();
+		writeInt32(data.length, chunk);
+		chunk.write(data);
+		++chunkRecords;
+	}
+
+	private void flushChunk() throws IOException {
+		if (chunkRecords == 0) {
+			return;
+		}
+		if (keyframeInterval > 0 && chunkTime > 0
+				&& chunkTime % keyframeInterval == 0 && world != null) {
+			append(new InitialConditionsRecord(world));
+			chunkFlags |= FLAG_KEYFRAME;
+		}
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		LZMAOutputStream lzma = new LZMAOutputStream(compressed,
+				new LZMA2Options(LZMA_PRESET), -1);
+		chunk.writeTo(lzma);
+		lzma.close();
+		times.add(chunkTime);
+		offsets.add(position);
+		out.writeInt(chunkTime);
+		out.writeInt(chunkFlags);
+		out.writeInt(chunkRecords);
+		out.writeInt(compressed.size());
+		compressed.writeTo(out);
+		position += CHUNK_HEADER_SIZE + compressed.size();
+		chunk.reset();
+		chunkRecords = 0;
+		chunkFlags = 0;
+	}
+}
@@ -3,9 +3,6 @@ package rescuecore2.log;
 import static rescuecore2.misc.java.JavaTools.instantiate;
 
 import java.awt.Graphics;
-import java.awt.GraphicsConfiguration;
-import java.awt.GraphicsEnvironment;
-import java.awt.Transparency;
 import java.awt.image.BufferedImage;
 import java.io.BufferedWriter;
 import java.io.File;
@@ -14,6 +11,12 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import javax.imageio.ImageIO;
 
@@ -30,16 +33,26 @@ import rescuecore2.worldmodel.Entity;
 import rescuecore2.worldmodel.WorldModel;
 
 /**
- * A class for viewing log files.
+ * A class for extracting scores and snapshots from log files. The log is read
+ * once, in order. Snapshots are rendered and written on a pool of threads
+ * while the scores of later timesteps are computed, each thread with its own
+ * viewers.
  */
 public class LogExtractor {
 	private static final String VIEWERS_KEY = "log.viewers";
+	private static final String THREADS_KEY = "log.extract.threads";
+	/** The number of snapshots per thread that can be waiting to be written. */
+	private static final int PENDING_PER_THREAD = 2;
 
 	private ScoreFunction scoreFunction;
 	private LogReader log;
 	private List<ViewComponent> viewers;
 	private int maxTime;
 
+	private ExecutorService renderPool;
+	private BlockingQueue<List<ViewComponent>> renderers;
+	private Semaphore pending;
+
 	private int current_time;
 	WorldModel<? extends Entity> current_model = null;
 
@@ -52,7 +65,16 @@ public class LogExtractor {
 	 */
 	public LogExtractor(LogReader reader, Config config) throws LogException {
 		this.log = reader;
-		registerViewers(config);
+		viewers = createViewers(config);
+		int threads = config.getIntValue(THREADS_KEY,
+				Runtime.getRuntime().availableProcessors());
+		threads = Math.max(1, threads);
+		renderPool = Executors.newFixedThreadPool(threads);
+		renderers = new ArrayBlockingQueue<List<ViewComponent>>(threads);
+		for (int i = 0; i < threads; ++i) {
+			renderers.add(createViewers(config));
+		}
+		pending = new Semaphore(threads * PENDING_PER_THREAD);
 		maxTime = log.getMaxTimestep();
 		scoreFunction = makeScoreFunction(config);
 		showTimestep(0);
@@ -104,6 +126,11 @@ public class LogExtractor {
 		for (ViewComponent next : viewers) {
 			next.setBounds(0, 0, width, height);
 		}
+		for (List<ViewComponent> renderer : renderers) {
+			for (ViewComponent next : renderer) {
+				next.setBounds(0, 0, width, height);
+			}
+		}
 	}
 
 	public double getScore() {
@@ -111,17 +138,67 @@ public class LogExtractor {
 	}
 
 	public BufferedImage paintImage() {
+		return paintImage(viewers, current_model);
+	}
+
+	public void writeImage(String filename) {
+		writeImage(paintImage(), filename);
+	}
+
+	/**
+	 * Render the current timestep and write it to a file on another thread.
+	 * This blocks if too many snapshots are waiting to be written.
+	 *
+	 * @param filename The file to write.
+	 */
+	public void writeImageLater(final String filename) {
+		final WorldModel<? extends Entity> model = current_model;
+		pending.acquireUninterruptibly();
+		renderPool.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					List<ViewComponent> renderer = renderers.take();
+					try {
+						writeImage(paintImage(renderer, model), filename);
+					} finally {
+						renderers.add(renderer);
+					}
+				} catch (InterruptedException e) {
+					Logger.error("Interrupted while writing " + filename, e);
+				} catch (RuntimeException e) {
+					Logger.error("Error writing " + filename, e);
+				} finally {
+					pending.release();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Wait for all snapshots to be written and stop the render threads.
+	 */
+	public void finish() {
+		renderPool.shutdown();
+		try {
+			while (!renderPool.awaitTermination(1, TimeUnit.MINUTES)) {
+				Logger.info("Waiting for snapshots to be written");
+			}
+		} catch (InterruptedException e) {
+			Logger.error("Interrupted while writing snapshots", e);
+		}
+	}
+
+	private static BufferedImage paintImage(List<ViewComponent> viewers,
+			WorldModel<? extends Entity> model) {
 		if (viewers.isEmpty()) {
 			return null;
 		}
 		ViewComponent view = viewers.get(0);
-		view.view(current_model, null, null);
-		// Create the image
-		GraphicsConfiguration configuration = GraphicsEnvironment
-				.getLocalGraphicsEnvironment().getDefaultScreenDevice()
-				.getDefaultConfiguration();
-		BufferedImage image = configuration.createCompatibleImage(
-				view.getWidth(), view.getHeight(), Transparency.TRANSLUCENT);
+		view.view(model, null, null);
+		// Create the image without a display so this also works headless
+		BufferedImage image = new BufferedImage(view.getWidth(),
+				view.getHeight(), BufferedImage.TYPE_INT_ARGB);
 
 		// Render the component onto the image
 		Graphics graphics = image.createGraphics();
@@ -130,8 +207,10 @@ public class LogExtractor {
 		return image;
 	}
 
-	public void writeImage(String filename) {
-		BufferedImage bi = paintImage();
+	private static void writeImage(BufferedImage bi, String filename) {
+		if (bi == null) {
+			return;
+		}
 		File outfile = new File(filename);
 		try {
 			ImageIO.write(bi, "png", outfile);
@@ -140,15 +219,16 @@ public class LogExtractor {
 		}
 	}
 
-	private void registerViewers(Config config) {
-		viewers = new ArrayList<ViewComponent>();
+	private static List<ViewComponent> createViewers(Config config) {
+		List<ViewComponent> result = new ArrayList<ViewComponent>();
 		for (String next : config.getArrayValue(VIEWERS_KEY, "")) {
 			ViewComponent viewer = instantiate(next, ViewComponent.class);
 			if (viewer != null) {
 				viewer.initialise(config);
-				viewers.add(viewer);
+				result.add(viewer);
 			}
 		}
+		return result;
 	}
 
 	private ScoreFunction makeScoreFunction(Config config) {
@@ -181,7 +261,7 @@ public class LogExtractor {
 			String outdir = args[1];
 			processJarFiles(config);
 			LogReader reader = RCRSLogFactory.getLogReader(name,
-					Registry.SYSTEM_REGISTRY);
+					Registry.SYSTEM_REGISTRY, config);
 			LogExtractor log = new LogExtractor(reader, config);
 			log.setDimension(1024, 786);
 			// viewer.setPreferredSize(new Dimension(VIEWER_SIZE, VIEWER_SIZE));
@@ -190,15 +270,15 @@ public class LogExtractor {
 			writeFile(outdir + "/init-score.txt", "" + log.getScore());
 			while (log.step()) {
 				if (log.getTime() == 1) {
-					log.writeImage(outdir + "/snapshot-init.png");
+					log.writeImageLater(outdir + "/snapshot-init.png");
 				}
 				if (log.getTime() % 50 == 0) {
-					log.writeImage(
+					log.writeImageLater(
 							outdir + "/snapshot-" + log.getTime() + ".png");
 				}
 				scores.add(log.getScore());
 			}
-			log.writeImage(outdir + "/snapshot-final.png");
+			log.writeImageLater(outdir + "/snapshot-final.png");
 			writeFile(outdir + "/final-score.txt", "" + log.getScore());
 
 			StringBuffer scoreString = new StringBuffer();
@@ -209,6 +289,7 @@ public class LogExtractor {
 				scoreString.append(score);
 			}
 			writeFile(outdir + "/scores.txt", scoreString.toString());
+			log.finish();
 		} catch (IOException e) {
 			Logger.error("Error reading log", e);
 		} catch (ConfigException e) {
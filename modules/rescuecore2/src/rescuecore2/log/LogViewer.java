@@ -263,7 +263,7 @@ public class LogViewer extends JPanel {
 			String name = args[0];
 			processJarFiles(config);
 			LogReader reader = RCRSLogFactory.getLogReader(name,
-					Registry.SYSTEM_REGISTRY);
+					Registry.SYSTEM_REGISTRY, config);
 			LogViewer viewer = new LogViewer(reader, config);
 			viewer.setPreferredSize(new Dimension(VIEWER_SIZE, VIEWER_SIZE));
 			JFrame frame = new JFrame("Log viewer: " + name);
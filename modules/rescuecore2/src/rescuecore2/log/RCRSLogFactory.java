@@ -3,16 +3,24 @@ package rescuecore2.log;
 import java.io.File;
 import java.io.IOException;
 
+import rescuecore2.config.Config;
 import rescuecore2.registry.Registry;
 
 public class RCRSLogFactory {
 
 	public static LogReader getLogReader(String filename, Registry registry)
 			throws LogException, IOException {
+		return getLogReader(filename, registry, new Config());
+	}
+
+	public static LogReader getLogReader(String filename, Registry registry,
+			Config options) throws LogException, IOException {
+		if (filename.endsWith(".rlog"))
+			return new IndexedLogReader(filename, registry);
 		if (filename.endsWith(".7z"))
-			return new ZipLogReader(filename, registry);
+			return new ZipLogReader(filename, registry, options);
 		if (filename.endsWith(".xz"))
-			return new FileLogReader(filename, registry);
+			return new FileLogReader(filename, registry, options);
 		if (filename.endsWith(".log"))
 			return new FileLogReaderV1(filename, registry);
 		throw new LogException("Undefined Format");
@@ -21,6 +29,8 @@ public class RCRSLogFactory {
 	public static LogWriter getLogWriter(File file)
 			throws LogException, IOException {
 		String filename = file.getName();
+		if (filename.endsWith(".rlog"))
+			return new IndexedLogWriter(file);
 		if (filename.endsWith(".7z"))
 			return new ZipLogWriter(file);
 		if (filename.endsWith(".xz"))
@@ -34,7 +34,7 @@ public class StreamLogReader extends AbstractLogReader {
     private int maxTime;
     private Map<Integer, CommandsRecord> commands;
     private Map<Integer, UpdatesRecord> updates;
-    private Map<Integer, WorldModel<? extends Entity>> worldModels;
+    private WorldModelStore worldModels;
     private Map<Integer, Map<EntityID, PerceptionRecord>> perception;
     private Config config;
 
@@ -45,10 +45,21 @@ public class StreamLogReader extends AbstractLogReader {
        @throws LogException If there is a problem reading the log.
      */
     public StreamLogReader(InputStream in, Registry registry) throws LogException {
+        this(in, registry, new Config());
+    }
+
+    /**
+       Construct a StreamLogReader.
+       @param in The InputStream to read.
+       @param registry The registry to use for reading log entries.
+       @param options Options for the reader such as the world model keyframe interval. This is not the config stored in the log.
+       @throws LogException If there is a problem reading the log.
+     */
+    public StreamLogReader(InputStream in, Registry registry, Config options) throws LogException {
         super(registry);
         commands = new HashMap<Integer, CommandsRecord>();
         updates = new HashMap<Integer, UpdatesRecord>();
-        worldModels = new HashMap<Integer, WorldModel<? extends Entity>>();
+        worldModels = new WorldModelStore(registry, options);
         perception = new HashMap<Integer, Map<EntityID, PerceptionRecord>>();
         try {
             readLog(in);
@@ -74,7 +85,7 @@ public class StreamLogReader extends AbstractLogReader {
     @Override
     public WorldModel<? extends Entity> getWorldModel(int time) throws LogException {
         checkTime(time);
-        WorldModel<? extends Entity> result = worldModels.get(time);
+        WorldModel<? extends Entity> result = worldModels.getWorldModel(time);
         if (result == null) {
             result = DefaultWorldModel.create();
         }
@@ -225,11 +236,11 @@ public class StreamLogReader extends AbstractLogReader {
 
     private void readInitialConditions(InputStream in) throws IOException, LogException {
         InitialConditionsRecord record = new InitialConditionsRecord(in);
-        worldModels.put(0, record.getWorldModel());
+        worldModels.setInitialConditions(record.getWorldModel());
     }
 	private void readInitialConditions(LogProto log) throws LogException {
 		InitialConditionsRecord record =new InitialConditionsRecord(log);
-		worldModels.put(0, record.getWorldModel());
+		worldModels.setInitialConditions(record.getWorldModel());
 	}
 
     private void readPerception(InputStream in) throws IOException, LogException {
@@ -270,36 +281,14 @@ public class StreamLogReader extends AbstractLogReader {
         UpdatesRecord record = new UpdatesRecord(in);
         int time = record.getTime();
         updates.put(time, record);
-        // Make the world model for this timestep
-        WorldModel<? extends Entity> newWorld = new DefaultWorldModel<Entity>(Entity.class);
-        WorldModel<? extends Entity> oldWorld = getWorldModel(time - 1);
-        if (oldWorld != null) {
-            Set<Entity> copy = new HashSet<Entity>();
-            for (Entity next : oldWorld) {
-                copy.add(next.copy());
-            }
-            newWorld.merge(copy);
-        }
-        newWorld.merge(record.getChangeSet());
-        worldModels.put(time, newWorld);
+        worldModels.addChanges(time, record.getChangeSet());
         maxTime = Math.max(time, maxTime);
     }
     private void readUpdates(LogProto log) throws LogException {
         UpdatesRecord record = new UpdatesRecord(log);
         int time = record.getTime();
         updates.put(time, record);
-        // Make the world model for this timestep
-        WorldModel<? extends Entity> newWorld = new DefaultWorldModel<Entity>(Entity.class);
-        WorldModel<? extends Entity> oldWorld = getWorldModel(time - 1);
-        if (oldWorld != null) {
-            Set<Entity> copy = new HashSet<Entity>();
-            for (Entity next : oldWorld) {
-                copy.add(next.copy());
-            }
-            newWorld.merge(copy);
-        }
-        newWorld.merge(record.getChangeSet());
-        worldModels.put(time, newWorld);
+        worldModels.addChanges(time, record.getChangeSet());
         maxTime = Math.max(time, maxTime);
     }
 
@@ -0,0 +1,205 @@
+package rescuecore2.log;
+
+import rescuecore2.worldmodel.WorldModel;
+import rescuecore2.worldmodel.DefaultWorldModel;
+import rescuecore2.worldmodel.Entity;
+import rescuecore2.worldmodel.ChangeSet;
+import rescuecore2.config.Config;
+import rescuecore2.registry.Registry;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+   Stores the world model of every timestep of a log without keeping a full copy of each one. A full copy (a keyframe) is kept every few timesteps along with the change set of every timestep. Other timesteps are rebuilt on demand from the nearest earlier keyframe or cached world model, and the most recently used world models are cached.
+   <p>
+   World models returned by this store must not be modified.
+ */
+public class WorldModelStore {
+    /** The default number of timesteps between keyframes. */
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 10;
+    /** The default number of rebuilt world models to cache. */
+    public static final int DEFAULT_CACHE_SIZE = 10;
+    /** The config key for the number of timesteps between keyframes. */
+    public static final String KEYFRAME_INTERVAL_KEY = "log.worldmodel.keyframe-interval";
+    /** The config key for the number of rebuilt world models to cache. */
+    public static final String CACHE_SIZE_KEY = "log.worldmodel.cache-size";
+
+    private final Registry registry;
+    private final int keyframeInterval;
+    private final Map<Integer, WorldModel<? extends Entity>> keyframes;
+    private final Map<Integer, ChangeSet> changes;
+    private final LinkedHashMap<Integer, WorldModel<? extends Entity>> cache;
+    private WorldModel<? extends Entity> current;
+    private int currentTime;
+
+    /**
+       Construct a WorldModelStore with the default keyframe interval and cache size.
+       @param registry The registry to use when rebuilding world models.
+     */
+    public WorldModelStore(Registry registry) {
+        this(registry, DEFAULT_KEYFRAME_INTERVAL, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+       Construct a WorldModelStore with the keyframe interval and cache size given in a config.
+       @param registry The registry to use when rebuilding world models.
+       @param config The config to read the keyframe interval and cache size from.
+     */
+    public WorldModelStore(Registry registry, Config config) {
+        this(registry, config.getIntValue(KEYFRAME_INTERVAL_KEY, DEFAULT_KEYFRAME_INTERVAL), config.getIntValue(CACHE_SIZE_KEY, DEFAULT_CACHE_SIZE));
+    }
+
+    /**
+       Construct a WorldModelStore.
+       @param registry The registry to use when rebuilding world models.
+       @param keyframeInterval The number of timesteps between keyframes.
+       @param cacheSize The number of rebuilt world models to cache.
+     */
+    public WorldModelStore(Registry registry, int keyframeInterval, final int cacheSize) {
+        if (keyframeInterval < 1) {
+            throw new IllegalArgumentException("Keyframe interval must be positive: " + keyframeInterval);
+        }
+        this.registry = registry;
+        this.keyframeInterval = keyframeInterval;
+        keyframes = new HashMap<Integer, WorldModel<? extends Entity>>();
+        changes = new HashMap<Integer, ChangeSet>();
+        cache = new LinkedHashMap<Integer, WorldModel<? extends Entity>>(cacheSize + 1, 1, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, WorldModel<? extends Entity>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        currentTime = -1;
+    }
+
+    /**
+       Set the initial conditions. This must be called before any changes are added.
+       @param world The world model at timestep zero. This object is used as the first keyframe and must not be modified afterwards.
+     */
+    public synchronized void setInitialConditions(WorldModel<? extends Entity> world) {
+        keyframes.clear();
+        changes.clear();
+        cache.clear();
+        keyframes.put(0, world);
+        current = copy(world);
+        currentTime = 0;
+    }
+
+    /**
+       Add the changes of a timestep. Timesteps must be added in order. Any timesteps that are skipped are assumed to have no changes.
+       @param time The timestep.
+       @param changeSet The changes made in that timestep, or null if there were none.
+       @throws LogException If there are no initial conditions or the timestep has already been added.
+     */
+    public synchronized void addChanges(int time, ChangeSet changeSet) throws LogException {
+        if (current == null) {
+            throw new LogException("No initial conditions before timestep " + time);
+        }
+        if (time <= currentTime) {
+            throw new LogException("Updates for timestep " + time + " found after timestep " + currentTime);
+        }
+        while (currentTime < time - 1) {
+            advance(currentTime + 1);
+        }
+        if (changeSet != null) {
+            changes.put(time, changeSet);
+            Registry old = Registry.getCurrentRegistry();
+            Registry.setCurrentRegistry(registry);
+            try {
+                current.merge(changeSet);
+            }
+            finally {
+                Registry.setCurrentRegistry(old);
+            }
+        }
+        advance(time);
+    }
+
+    /**
+       Get the last timestep in this store.
+       @return The last timestep, or -1 if there are no initial conditions.
+     */
+    public synchronized int getMaxTimestep() {
+        return currentTime;
+    }
+
+    /**
+       Get the world model at a timestep.
+       @param time The timestep.
+       @return The world model at that timestep, or null if the timestep has not been added.
+     */
+    public synchronized WorldModel<? extends Entity> getWorldModel(int time) {
+        if (time < 0 || time > currentTime) {
+            return null;
+        }
+        WorldModel<? extends Entity> result = cache.get(time);
+        if (result != null) {
+            return result;
+        }
+        // Start from the latest cached world model or keyframe before the requested time
+        int keyframe = time - (time % keyframeInterval);
+        int start = keyframe;
+        WorldModel<? extends Entity> base = keyframes.get(keyframe);
+        for (Map.Entry<Integer, WorldModel<? extends Entity>> next : cache.entrySet()) {
+            int t = next.getKey();
+            if (t > start && t < time) {
+                start = t;
+                base = next.getValue();
+            }
+        }
+        List<ChangeSet> toApply = new ArrayList<ChangeSet>(time - start);
+        for (int t = start + 1; t <= time; ++t) {
+            ChangeSet next = changes.get(t);
+            if (next != null) {
+                toApply.add(next);
+            }
+        }
+        if (toApply.isEmpty() && cache.containsKey(start)) {
+            // Nothing changed since a cached world model; share it
+            result = base;
+        }
+        else {
+            result = copy(base);
+            Registry old = Registry.getCurrentRegistry();
+            Registry.setCurrentRegistry(registry);
+            try {
+                for (ChangeSet next : toApply) {
+                    result.merge(next);
+                }
+            }
+            finally {
+                Registry.setCurrentRegistry(old);
+            }
+        }
+        cache.put(time, result);
+        return result;
+    }
+
+    private void advance(int time) {
+        currentTime = time;
+        if (time % keyframeInterval == 0) {
+            keyframes.put(time, copy(current));
+        }
+    }
+
+    /**
+       Copy a world model and all of its entities.
+       @param world The world model to copy.
+       @return A new world model.
+     */
+    static WorldModel<? extends Entity> copy(WorldModel<? extends Entity> world) {
+        DefaultWorldModel<Entity> result = new DefaultWorldModel<Entity>(Entity.class);
+        List<Entity> entities = new ArrayList<Entity>(world.getAllEntities().size());
+        for (Entity next : world) {
+            entities.add(next.copy());
+        }
+        result.merge(entities);
+        return result;
+    }
+}
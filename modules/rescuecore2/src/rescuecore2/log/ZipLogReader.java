@@ -13,7 +13,6 @@ import org.apache.commons.compress.archivers.sevenz.SevenZFile;
 import rescuecore2.config.Config;
 import rescuecore2.messages.protobuf.RCRSLogProto.LogProto;
 import rescuecore2.registry.Registry;
-import rescuecore2.worldmodel.DefaultWorldModel;
 import rescuecore2.worldmodel.Entity;
 import rescuecore2.worldmodel.EntityID;
 import rescuecore2.worldmodel.WorldModel;
@@ -22,7 +21,7 @@ public class ZipLogReader extends AbstractLogReader {
 
 	private SevenZFile sevenZFile;
 	private Map<String, SevenZArchiveEntry> entries = new HashMap<>();
-	private Map<Integer, WorldModel<? extends Entity>> worldModels = new HashMap<>();
+	private WorldModelStore worldModels;
 	private Map<Integer, Set<EntityID>> entitiesWithUpdates = new HashMap<>();
 	private int maxCycle = 0;
 
@@ -30,8 +29,19 @@ public class ZipLogReader extends AbstractLogReader {
 		this(new File(path), registry);
 	}
 
+	public ZipLogReader(String path, Registry registry, Config options)
+			throws LogException {
+		this(new File(path), registry, options);
+	}
+
 	public ZipLogReader(File file, Registry registry) throws LogException {
+		this(file, registry, new Config());
+	}
+
+	public ZipLogReader(File file, Registry registry, Config options)
+			throws LogException {
 		super(registry);
+		worldModels = new WorldModelStore(registry, options);
 		try {
 			sevenZFile = SevenZFile.builder().setFile(file).get();
 		} catch (IOException e) {
@@ -64,7 +74,7 @@ public class ZipLogReader extends AbstractLogReader {
 	}
 
 	private void buildWorldModels() throws LogException {
-		worldModels.put(0, getInitialConditions().getWorldModel());
+		worldModels.setInitialConditions(getInitialConditions().getWorldModel());
 		for (int i = 1; i <= getMaxTimestep(); i++) {
 			buildWorldModelForTime(i);
 		}
@@ -77,19 +87,8 @@ public class ZipLogReader extends AbstractLogReader {
 			System.out.println(time);
 		Logger.info("Building worldmodel of " + time + ".");
 
-		// Make the world model for this timestep
-		WorldModel<? extends Entity> newWorld = new DefaultWorldModel<Entity>(
-				Entity.class);
-		WorldModel<? extends Entity> oldWorld = getWorldModel(time - 1);
-		if (oldWorld != null) {
-			Set<Entity> copy = new HashSet<Entity>();
-			for (Entity next : oldWorld) {
-				copy.add(next.copy());
-			}
-			newWorld.merge(copy);
-		}
-		newWorld.merge(record.getChangeSet());
-		worldModels.put(time, newWorld);
+		// Only the changes are kept; the world model is rebuilt on demand
+		worldModels.addChanges(time, record == null ? null : record.getChangeSet());
 	}
 
 	private LogProto readFromFile(String path) throws LogException {
@@ -126,7 +125,7 @@ public class ZipLogReader extends AbstractLogReader {
 	public WorldModel<? extends Entity> getWorldModel(int time)
 			throws LogException {
 
-		return worldModels.get(time);
+		return worldModels.getWorldModel(time);
 	}
 
 	@Override
@@ -105,7 +105,11 @@ public abstract class AbstractMessage implements Message {
   public void fromMessageProto(MessageProto proto) {
     Map<Integer, MessageComponentProto> receivedcomponents = proto.getComponentsMap();
     for (MessageComponent next : components) {
-      next.fromMessageComponentProto(receivedcomponents.get(next.getName().getURNId()));
+      MessageComponentProto received = receivedcomponents.get(next.getName().getURNId());
+      // Components added in later versions may be missing; keep their defaults
+      if (received != null) {
+        next.fromMessageComponentProto(received);
+      }
     }
   }
 }
\ No newline at end of file
@@ -0,0 +1,163 @@
+package rescuecore2.messages;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+import rescuecore2.URN;
+import rescuecore2.messages.protobuf.RCRSProto.EntityListProto;
+import rescuecore2.messages.protobuf.RCRSProto.MessageComponentProto;
+import rescuecore2.messages.protobuf.RCRSProto.MessageProto;
+import rescuecore2.worldmodel.Entity;
+import rescuecore2.worldmodel.EntityID;
+
+/**
+ * A list of entities that has been encoded once so that it can be sent in many
+ * messages without encoding the entities again. Each message can replace or
+ * add a few entities. The shared part of the encoding is never copied.
+ */
+public class EncodedEntityList {
+  private static final int MAP_KEY_FIELD = 1;
+  private static final int MAP_VALUE_FIELD = 2;
+
+  private final ByteString encoding;
+  private final Map<EntityID, int[]> ranges;
+
+  /**
+   * Encode a collection of entities.
+   *
+   * @param entities The entities to encode.
+   */
+  public EncodedEntityList(Collection<? extends Entity> entities) {
+    ranges = new HashMap<EntityID, int[]>();
+    ByteString.Output out = ByteString.newOutput();
+    try {
+      for (Entity next : entities) {
+        int start = out.size();
+        EntityListProto.newBuilder().addEntities(next.toEntityProto()).build().writeTo(out);
+        ranges.put(next.getID(), new int[] {start, out.size()});
+      }
+    } catch (IOException e) {
+      // ByteString.Output does not throw
+      throw new IllegalStateException(e);
+    }
+    encoding = out.toByteString();
+  }
+
+  /**
+   * Get the number of entities in this list.
+   *
+   * @return The number of entities.
+   */
+  public int size() {
+    return ranges.size();
+  }
+
+  /**
+   * Get the encoded size of this list in bytes.
+   *
+   * @return The encoded size.
+   */
+  public int getEncodedSize() {
+    return encoding.size();
+  }
+
+  /**
+   * Get the EntityListProto encoding of this list with some entities replaced.
+   * Entities with the same ID as one in this list take its place; others are
+   * added to the end.
+   *
+   * @param replacements The entities to replace or add.
+   * @return The encoded EntityListProto.
+   */
+  public ByteString getEncoding(Collection<? extends Entity> replacements) {
+    if (replacements.isEmpty()) {
+      return encoding;
+    }
+    List<int[]> skipped = new ArrayList<int[]>();
+    ByteString added = ByteString.EMPTY;
+    for (Entity next : replacements) {
+      int[] range = ranges.get(next.getID());
+      if (range != null) {
+        skipped.add(range);
+      }
+      added = added.concat(EntityListProto.newBuilder().addEntities(next.toEntityProto()).build().toByteString());
+    }
+    Collections.sort(skipped, new Comparator<int[]>() {
+      @Override
+      public int compare(int[] a, int[] b) {
+        return Integer.compare(a[0], b[0]);
+      }
+    });
+    ByteString result = ByteString.EMPTY;
+    int position = 0;
+    for (int[] next : skipped) {
+      result = result.concat(encoding.substring(position, next[0]));
+      position = next[1];
+    }
+    result = result.concat(encoding.substring(position));
+    return result.concat(added);
+  }
+
+  /**
+   * Encode a message and use this list as the content of one of its entity
+   * list components. Only the other components of the message are encoded.
+   *
+   * @param message      The message to encode. The content of the entity list
+   *                     component is ignored.
+   * @param component    The name of the entity list component.
+   * @param replacements Entities to replace or add for this message.
+   * @return The encoded message.
+   */
+  public EncodedMessage encode(AbstractMessage message, URN component,
+      Collection<? extends Entity> replacements) {
+    MessageProto.Builder builder = MessageProto.newBuilder().setUrn(message.getURN());
+    for (MessageComponent next : message.getComponents()) {
+      if (next.getName().getURNId() != component.getURNId()) {
+        builder.putComponents(next.getName().getURNId(), next.toMessageComponentProto());
+      }
+    }
+    ByteString list = getEncoding(replacements);
+    // Hand-encode the map entry around the shared bytes: a MessageComponentProto
+    // holding the entity list, keyed by the component URN.
+    ByteString value = lengthDelimited(MessageComponentProto.ENTITYLIST_FIELD_NUMBER, list.size()).concat(list);
+    ByteString entryHeader = encodeKey(component.getURNId());
+    ByteString entry = entryHeader.concat(lengthDelimited(MAP_VALUE_FIELD, value.size())).concat(value);
+    ByteString components = lengthDelimited(MessageProto.COMPONENTS_FIELD_NUMBER, entry.size()).concat(entry);
+    return new EncodedMessage(message.getURN(), builder.build().toByteString().concat(components));
+  }
+
+  private static ByteString lengthDelimited(int field, int length) {
+    ByteString.Output out = ByteString.newOutput();
+    try {
+      CodedOutputStream coded = CodedOutputStream.newInstance(out);
+      coded.writeTag(field, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+      coded.writeUInt32NoTag(length);
+      coded.flush();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return out.toByteString();
+  }
+
+  private static ByteString encodeKey(int key) {
+    ByteString.Output out = ByteString.newOutput();
+    try {
+      CodedOutputStream coded = CodedOutputStream.newInstance(out);
+      coded.writeInt32(MAP_KEY_FIELD, key);
+      coded.flush();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return out.toByteString();
+  }
+}
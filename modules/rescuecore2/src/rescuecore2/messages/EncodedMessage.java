@@ -0,0 +1,86 @@
+package rescuecore2.messages;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import rescuecore2.messages.protobuf.MsgProtoBuf;
+import rescuecore2.messages.protobuf.RCRSProto.MessageProto;
+import rescuecore2.registry.Registry;
+
+/**
+ * A message that has already been encoded as a MessageProto. Connections that
+ * use the binary protobuf framing send the encoding as it is, so one encoding
+ * can be shared by many connections without being rebuilt for each of them.
+ * Reading a message into an EncodedMessage replaces its encoding; the
+ * ByteString itself is never modified, so other messages sharing it are not
+ * affected.
+ *
+ * @see SharedMessageEncoder
+ */
+public final class EncodedMessage implements Message {
+  private int urn;
+  private ByteString encoding;
+
+  /**
+   * Construct an EncodedMessage.
+   *
+   * @param urn      The urn of the message.
+   * @param encoding The wire encoding of the MessageProto.
+   */
+  public EncodedMessage(int urn, ByteString encoding) {
+    this.urn = urn;
+    this.encoding = encoding;
+  }
+
+  @Override
+  public int getURN() {
+    return urn;
+  }
+
+  /**
+   * Get the wire encoding of this message.
+   *
+   * @return The encoded MessageProto.
+   */
+  public ByteString getEncoding() {
+    return encoding;
+  }
+
+  @Override
+  public void write(OutputStream out) throws IOException {
+    MsgProtoBuf.messageProto2Message(toMessageProto()).write(out);
+  }
+
+  @Override
+  public void read(InputStream in) throws IOException {
+    Message message = Registry.getCurrentRegistry().createMessage(urn, in);
+    if (message == null) {
+      throw new IOException("Unrecognised message urn: " + urn);
+    }
+    encoding = message.toMessageProto().toByteString();
+  }
+
+  @Override
+  public MessageProto toMessageProto() {
+    try {
+      return MessageProto.parseFrom(encoding);
+    } catch (InvalidProtocolBufferException e) {
+      throw new IllegalStateException("Invalid message encoding", e);
+    }
+  }
+
+  @Override
+  public void fromMessageProto(MessageProto proto) {
+    urn = proto.getUrn();
+    encoding = proto.toByteString();
+  }
+
+  @Override
+  public String toString() {
+    return urn + " : encoded (" + encoding.size() + " bytes)";
+  }
+}
@@ -0,0 +1,54 @@
+package rescuecore2.messages;
+
+import com.google.protobuf.ByteString;
+
+import rescuecore2.URN;
+import rescuecore2.messages.components.IntComponent;
+import rescuecore2.messages.protobuf.RCRSProto.MessageProto;
+
+/**
+ * Encodes a message that is sent to several recipients and differs only in an
+ * integer recipient ID. Everything except the ID is encoded once. Each
+ * recipient then gets its own small encoding of the ID, concatenated with the
+ * shared bytes. Concatenating encoded protobuf messages is the same as merging
+ * them, so the result decodes exactly like the original message.
+ */
+public class SharedMessageEncoder {
+  private final int urn;
+  private final URN idComponent;
+  private final ByteString shared;
+
+  /**
+   * Construct a SharedMessageEncoder.
+   *
+   * @param template    A message that contains the shared content. Its value
+   *                    for the ID component is ignored.
+   * @param idComponent The name of the IntComponent that holds the recipient
+   *                    ID.
+   */
+  public SharedMessageEncoder(AbstractMessage template, URN idComponent) {
+    this.urn = template.getURN();
+    this.idComponent = idComponent;
+    MessageProto.Builder builder = MessageProto.newBuilder().setUrn(urn);
+    for (MessageComponent next : template.getComponents()) {
+      if (next.getName().getURNId() != idComponent.getURNId()) {
+        builder.putComponents(next.getName().getURNId(), next.toMessageComponentProto());
+      }
+    }
+    shared = builder.build().toByteString();
+  }
+
+  /**
+   * Get the encoded message for one recipient. The shared part of the encoding
+   * is not copied.
+   *
+   * @param id The recipient ID.
+   * @return An EncodedMessage for the recipient.
+   */
+  public EncodedMessage encode(int id) {
+    ByteString header = MessageProto.newBuilder()
+        .putComponents(idComponent.getURNId(), new IntComponent(idComponent, id).toMessageComponentProto()).build()
+        .toByteString();
+    return new EncodedMessage(urn, header.concat(shared));
+  }
+}
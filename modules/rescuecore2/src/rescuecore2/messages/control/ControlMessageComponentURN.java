@@ -24,7 +24,8 @@ public enum ControlMessageComponentURN implements URN {
   TIMES(CONTROL_MSG_COMPONENT_URN_PREFIX | 18, "TIMES"), ID(CONTROL_MSG_COMPONENT_URN_PREFIX | 19, "ID"),
   Commands(CONTROL_MSG_COMPONENT_URN_PREFIX | 20, "Commands"),
   SimulatorConfig(CONTROL_MSG_COMPONENT_URN_PREFIX | 21, "Simulator config"),
-  Changes(CONTROL_MSG_COMPONENT_URN_PREFIX | 22, "Changes");
+  Changes(CONTROL_MSG_COMPONENT_URN_PREFIX | 22, "Changes"),
+  RequestedPropertyTypes(CONTROL_MSG_COMPONENT_URN_PREFIX | 23, "Requested property types");
 
   private int urnId;
   private String urnStr;
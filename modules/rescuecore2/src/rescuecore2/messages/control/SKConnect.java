@@ -3,8 +3,11 @@ package rescuecore2.messages.control;
 import java.io.IOException;
 import java.io.InputStream;
 
+import java.util.List;
+
 import rescuecore2.messages.AbstractMessage;
 import rescuecore2.messages.components.IntComponent;
+import rescuecore2.messages.components.IntListComponent;
 import rescuecore2.messages.components.StringComponent;
 import rescuecore2.messages.protobuf.RCRSProto.MessageProto;
 
@@ -15,6 +18,8 @@ public class SKConnect extends AbstractMessage {
   private IntComponent requestID;
   private IntComponent version;
   private StringComponent simulatorName;
+  private IntListComponent requestedEntityTypes;
+  private IntListComponent requestedPropertyTypes;
 
   /**
    * An SKConnect message that populates its data from a stream.
@@ -41,6 +46,24 @@ public class SKConnect extends AbstractMessage {
     this.simulatorName.setValue(name);
   }
 
+  /**
+   * An SKConnect with a given version and request ID that asks for a subset of
+   * the updates. The simulator will receive all changes to entities of the
+   * requested types and all changes to the requested properties of any entity.
+   * If both are empty the simulator receives all changes.
+   *
+   * @param requestID      The request ID.
+   * @param version        The version number.
+   * @param name           The name of the simulator.
+   * @param entityTypes    The requested entity type URNs.
+   * @param propertyTypes  The requested property URNs.
+   */
+  public SKConnect(int requestID, int version, String name, int[] entityTypes, int[] propertyTypes) {
+    this(requestID, version, name);
+    this.requestedEntityTypes.setValues(entityTypes);
+    this.requestedPropertyTypes.setValues(propertyTypes);
+  }
+
   private SKConnect() {
     super(ControlMessageURN.SK_CONNECT);
     requestID = new IntComponent(ControlMessageComponentURN.RequestID);
@@ -49,6 +72,10 @@ public class SKConnect extends AbstractMessage {
     addMessageComponent(requestID);
     addMessageComponent(version);
     addMessageComponent(simulatorName);
+    requestedEntityTypes = new IntListComponent(ControlMessageComponentURN.RequestedEntityTypes);
+    requestedPropertyTypes = new IntListComponent(ControlMessageComponentURN.RequestedPropertyTypes);
+    addMessageComponent(requestedEntityTypes);
+    addMessageComponent(requestedPropertyTypes);
   }
 
   public SKConnect(MessageProto proto) {
@@ -82,4 +109,22 @@ public class SKConnect extends AbstractMessage {
   public String getSimulatorName() {
     return simulatorName.getValue();
   }
+
+  /**
+   * Get the entity types whose changes the simulator wants to receive.
+   *
+   * @return The requested entity type URNs.
+   */
+  public List<Integer> getRequestedEntityTypes() {
+    return requestedEntityTypes.getValues();
+  }
+
+  /**
+   * Get the properties whose changes the simulator wants to receive.
+   *
+   * @return The requested property URNs.
+   */
+  public List<Integer> getRequestedPropertyTypes() {
+    return requestedPropertyTypes.getValues();
+  }
 }
@@ -2,6 +2,7 @@ package rescuecore2.registry;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -15,6 +16,11 @@ import rescuecore2.worldmodel.Property;
 /**
  * A class for managing the different types of entities, properties, messages
  * and their associated factories.
+ * <p>
+ * Factory lookups do not lock. Registering a factory discards an immutable
+ * table of all factories known to this registry and its parents, indexed by
+ * URN, and the table is rebuilt by the next lookup. A table is also rebuilt
+ * when the table of a parent registry has changed.
  */
 public final class Registry {
   /**
@@ -35,13 +41,17 @@ public final class Registry {
     SYSTEM_REGISTRY.registerFactory(rescuecore2.messages.control.ControlMessageComponentFactory.INSTANCE);
   }
 
+  // Factories registered with this registry, guarded by this registry
   private final Map<Integer, EntityFactory> entityFactories;
   private final Map<Integer, PropertyFactory> propertyFactories;
   private final Map<Integer, MessageFactory> messageFactories;
   private final Map<Integer, MessageComponentFactory> messageComponentFactories;
-  private final Map<String, Integer> urn_map_str_id;
-  private final Map<Integer, String> urn_map_id_str;
-  private final Map<Integer, String> urn_prettyName;
+  // URN names are replaced rather than modified once published
+  private volatile Map<String, Integer> urn_map_str_id;
+  private volatile Map<Integer, String> urn_map_id_str;
+  private volatile Map<Integer, String> urn_prettyName;
+
+  private volatile Tables tables;
 
   private final Registry parent;
   private final String name;
@@ -85,9 +95,9 @@ public final class Registry {
     propertyFactories = new HashMap<Integer, PropertyFactory>();
     messageFactories = new HashMap<Integer, MessageFactory>();
     messageComponentFactories = new HashMap<Integer, MessageComponentFactory>();
-    urn_map_str_id = new HashMap<String, Integer>();
-    urn_map_id_str = new HashMap<Integer, String>();
-    urn_prettyName = new HashMap<Integer, String>();
+    urn_map_str_id = Collections.emptyMap();
+    urn_map_id_str = Collections.emptyMap();
+    urn_prettyName = Collections.emptyMap();
   }
 
   /**
@@ -162,7 +172,7 @@ public final class Registry {
   }
 
   private <T extends Factory> void registerFactoryInternal(int urnId, T factory, Map<Integer, T> target) {
-    synchronized (target) {
+    synchronized (this) {
       T old = target.get(urnId);
       if (old != null && old != factory) {
         Logger.warn(getName() + ": " + urnId + " (" + old.getPrettyName(urnId) + ":" + old.getURNStr(urnId) + ")"
@@ -170,11 +180,20 @@ public final class Registry {
       }
       target.put(urnId, factory);
 
-      this.urn_prettyName.put(urnId, factory.getPrettyName(urnId));
+      Map<Integer, String> prettyNames = new HashMap<Integer, String>(urn_prettyName);
+      prettyNames.put(urnId, factory.getPrettyName(urnId));
+      this.urn_prettyName = prettyNames;
 
       String urn_str = factory.getURNStr(urnId);
-      this.urn_map_str_id.put(urn_str, urnId);
-      this.urn_map_id_str.put(urnId, urn_str);
+      Map<String, Integer> strToId = new HashMap<String, Integer>(urn_map_str_id);
+      strToId.put(urn_str, urnId);
+      this.urn_map_str_id = strToId;
+      Map<Integer, String> idToStr = new HashMap<Integer, String>(urn_map_id_str);
+      idToStr.put(urnId, urn_str);
+      this.urn_map_id_str = idToStr;
+
+      // Rebuilt by the next lookup
+      tables = null;
     }
 
   }
@@ -251,14 +270,7 @@ public final class Registry {
    * @return An EntityFactory, or null if the URN is not recognised.
    */
   protected EntityFactory getEntityFactory(int urn) {
-    EntityFactory result = null;
-    synchronized (entityFactories) {
-      result = entityFactories.get(urn);
-    }
-    if (result == null && parent != null) {
-      result = parent.getEntityFactory(urn);
-    }
-    return result;
+    return getTables().entities.get(urn);
   }
 
   /**
@@ -268,14 +280,7 @@ public final class Registry {
    * @return A PropertyFactory, or null if the URN is not recognised.
    */
   protected PropertyFactory getPropertyFactory(Integer urn) {
-    PropertyFactory result = null;
-    synchronized (propertyFactories) {
-      result = propertyFactories.get(urn);
-    }
-    if (result == null && parent != null) {
-      result = parent.getPropertyFactory(urn);
-    }
-    return result;
+    return getTables().properties.get(urn);
   }
 
   /**
@@ -285,13 +290,29 @@ public final class Registry {
    * @return A MessageFactory, or null if the URN is not recognised.
    */
   protected MessageFactory getMessageFactory(Integer urn) {
-    MessageFactory result = null;
-    synchronized (messageFactories) {
-      result = messageFactories.get(urn);
+    return getTables().messages.get(urn);
+  }
+
+  private Tables getTables() {
+    Tables result = tables;
+    Tables parentTables = parent == null ? null : parent.getTables();
+    if (result == null || result.parent != parentTables) {
+      result = buildTables(parentTables);
     }
-    if (result == null && parent != null) {
-      result = parent.getMessageFactory(urn);
+    return result;
+  }
+
+  private synchronized Tables buildTables(Tables parentTables) {
+    Tables result = tables;
+    if (result != null && result.parent == parentTables) {
+      // Built by another thread
+      return result;
     }
+    result = new Tables(parentTables,
+        new FactoryTable<EntityFactory>(entityFactories, parentTables == null ? null : parentTables.entities),
+        new FactoryTable<PropertyFactory>(propertyFactories, parentTables == null ? null : parentTables.properties),
+        new FactoryTable<MessageFactory>(messageFactories, parentTables == null ? null : parentTables.messages));
+    tables = result;
     return result;
   }
 
@@ -306,4 +327,71 @@ public final class Registry {
   public String toPrettyName(int urn) {
     return urn_prettyName.get(urn);
   }
-}
\ No newline at end of file
+
+  /**
+   * The factories of a registry and all its parents.
+   */
+  private static final class Tables {
+    private final Tables parent;
+    private final FactoryTable<EntityFactory> entities;
+    private final FactoryTable<PropertyFactory> properties;
+    private final FactoryTable<MessageFactory> messages;
+
+    Tables(Tables parent, FactoryTable<EntityFactory> entities, FactoryTable<PropertyFactory> properties,
+        FactoryTable<MessageFactory> messages) {
+      this.parent = parent;
+      this.entities = entities;
+      this.properties = properties;
+      this.messages = messages;
+    }
+  }
+
+  /**
+   * An immutable map from URN to factory. URNs up to {@link #MAX_DIRECT} are
+   * looked up in an array.
+   */
+  private static final class FactoryTable<T extends Factory> {
+    private static final int MAX_DIRECT = 1 << 16;
+
+    private final Map<Integer, T> all;
+    private final Factory[] direct;
+    private final Map<Integer, T> overflow;
+
+    FactoryTable(Map<Integer, T> local, FactoryTable<T> parent) {
+      all = new HashMap<Integer, T>();
+      if (parent != null) {
+        all.putAll(parent.all);
+      }
+      // Factories in this registry override those of the parent
+      all.putAll(local);
+      int max = -1;
+      for (int urn : all.keySet()) {
+        if (urn >= 0 && urn < MAX_DIRECT) {
+          max = Math.max(max, urn);
+        }
+      }
+      direct = new Factory[max + 1];
+      overflow = new HashMap<Integer, T>();
+      for (Map.Entry<Integer, T> next : all.entrySet()) {
+        int urn = next.getKey();
+        if (urn >= 0 && urn < MAX_DIRECT) {
+          direct[urn] = next.getValue();
+        } else {
+          overflow.put(urn, next.getValue());
+        }
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(Integer urn) {
+      if (urn == null) {
+        return null;
+      }
+      int i = urn;
+      if (i >= 0 && i < direct.length) {
+        return (T) direct[i];
+      }
+      return overflow.isEmpty() ? null : overflow.get(i);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package rescuecore2.score;
+
+import rescuecore2.config.Config;
+import rescuecore2.worldmodel.WorldModel;
+import rescuecore2.worldmodel.Entity;
+import rescuecore2.worldmodel.EntityID;
+import rescuecore2.worldmodel.ChangeSet;
+import rescuecore2.log.Logger;
+import rescuecore2.Timestep;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+   Abstract base class for score functions that sum a contribution from each entity. The totals are kept between timesteps, and if the world model is the one seen in the previous timestep then only the entities in the timestep's change set are looked at. Otherwise the totals are recomputed from all entities.
+   <p>
+   If {@link #VERIFY_KEY} is set then the totals are also recomputed every timestep and a warning is logged if they give a different score.
+ */
+public abstract class IncrementalScoreFunction extends AbstractScoreFunction {
+    /** The config key for checking incremental scores against a full recompute. */
+    public static final String VERIFY_KEY = "score.incremental.verify";
+
+    private static final double TOLERANCE = 1e-9;
+
+    private final int size;
+    private final Map<EntityID, double[]> contributions;
+    private double[] totals;
+    private boolean verify;
+    private WorldModel<? extends Entity> lastWorld;
+    private int lastTime;
+    private double lastScore;
+
+    /**
+       Construct an IncrementalScoreFunction.
+       @param name The name of this function.
+       @param size The number of totals.
+    */
+    protected IncrementalScoreFunction(String name, int size) {
+        super(name);
+        this.size = size;
+        contributions = new HashMap<EntityID, double[]>();
+        totals = new double[size];
+    }
+
+    @Override
+    public void initialise(WorldModel<? extends Entity> world, Config config) {
+        verify = config.getBooleanValue(VERIFY_KEY, false);
+        lastWorld = null;
+    }
+
+    @Override
+    public double score(WorldModel<? extends Entity> world, Timestep timestep) {
+        int time = timestep.getTime();
+        if (world == lastWorld && time == lastTime) {
+            return lastScore;
+        }
+        ChangeSet changes = timestep.getChangeSet();
+        if (world == lastWorld && time == lastTime + 1 && changes != null) {
+            for (EntityID next : changes.getChangedEntities()) {
+                update(next, world.getEntity(next));
+            }
+            for (EntityID next : changes.getDeletedEntities()) {
+                update(next, null);
+            }
+            if (verify) {
+                verify(world, time);
+            }
+        }
+        else {
+            recompute(world);
+        }
+        lastWorld = world;
+        lastTime = time;
+        lastScore = computeScore(totals);
+        return lastScore;
+    }
+
+    /**
+       Compute the contribution of an entity to the totals.
+       @param e The entity.
+       @param values The array to write the contribution to. It is filled with zeros.
+       @return True if the entity contributes to the totals, false otherwise.
+    */
+    protected abstract boolean contribute(Entity e, double[] values);
+
+    /**
+       Compute the score from the sum of all contributions.
+       @param sums The totals.
+       @return The score.
+    */
+    protected abstract double computeScore(double[] sums);
+
+    private void update(EntityID id, Entity e) {
+        double[] values = contributions.remove(id);
+        if (values != null) {
+            for (int i = 0; i < size; ++i) {
+                totals[i] -= values[i];
+            }
+            Arrays.fill(values, 0);
+        }
+        else {
+            values = new double[size];
+        }
+        if (e != null && contribute(e, values)) {
+            contributions.put(id, values);
+            for (int i = 0; i < size; ++i) {
+                totals[i] += values[i];
+            }
+        }
+    }
+
+    private void recompute(WorldModel<? extends Entity> world) {
+        contributions.clear();
+        Arrays.fill(totals, 0);
+        for (Entity next : world) {
+            update(next.getID(), next);
+        }
+    }
+
+    private void verify(WorldModel<? extends Entity> world, int time) {
+        double incremental = computeScore(totals);
+        recompute(world);
+        double full = computeScore(totals);
+        if (Math.abs(incremental - full) > TOLERANCE * Math.max(1, Math.abs(full))) {
+            Logger.warn(getName() + ": incremental score " + incremental + " differs from full score " + full + " at timestep " + time);
+        }
+    }
+}
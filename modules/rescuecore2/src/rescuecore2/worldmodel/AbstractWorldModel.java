@@ -86,26 +86,9 @@ public abstract class AbstractWorldModel<T extends Entity> implements WorldModel
 
     @Override
     public void merge(ChangeSet changeSet) {
-        for (EntityID e : changeSet.getChangedEntities()) {
-            Entity existingEntity = getEntity(e);
-            boolean add = false;
-            if (existingEntity == null) {
-                // Construct a new entity
-                existingEntity = Registry.getCurrentRegistry().createEntity(changeSet.getEntityURN(e), e);
-                if (existingEntity == null) {
-                    // Bail out
-                    continue;
-                }
-                add = true;
-            }
-            for (Property p : changeSet.getChangedProperties(e)) {
-                Property existingProperty = existingEntity.getProperty(p.getURN());
-                existingProperty.takeValue(p);
-            }
-            if (add) {
-                addEntity(existingEntity);
-            }
-        }
+        MergeProcedure procedure = new MergeProcedure();
+        changeSet.forEachChange(procedure);
+        procedure.finish();
         for (EntityID next : changeSet.getDeletedEntities()) {
             removeEntity(next);
         }
@@ -158,4 +141,38 @@ public abstract class AbstractWorldModel<T extends Entity> implements WorldModel
             return new HashSet<WorldModelListener<? super T>>(listeners);
         }
     }
+
+    /**
+       Applies changes to the entities in this world model. New entities are added once all their properties have been set.
+    */
+    private class MergeProcedure implements ChangeSet.ChangeProcedure {
+        private EntityID current;
+        private Entity entity;
+        private boolean add;
+
+        @Override
+        public boolean execute(EntityID id, int urn, Property property) {
+            if (!id.equals(current)) {
+                finish();
+                current = id;
+                entity = getEntity(id);
+                if (entity == null) {
+                    // Construct a new entity
+                    entity = Registry.getCurrentRegistry().createEntity(urn, id);
+                    add = entity != null;
+                }
+            }
+            if (entity != null) {
+                entity.getProperty(property.getURN()).takeValue(property);
+            }
+            return true;
+        }
+
+        void finish() {
+            if (add) {
+                addEntity(entity);
+                add = false;
+            }
+        }
+    }
 }
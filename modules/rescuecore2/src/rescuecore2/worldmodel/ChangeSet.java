@@ -7,16 +7,18 @@ import static rescuecore2.misc.EncodingTools.writeInt32;
 import static rescuecore2.misc.EncodingTools.writeProperty;
 import static rescuecore2.misc.EncodingTools.writeString;
 
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntIterator;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TIntObjectIterator;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 import rescuecore2.log.Logger;
@@ -24,33 +26,30 @@ import rescuecore2.messages.protobuf.MsgProtoBuf;
 import rescuecore2.messages.protobuf.RCRSProto.ChangeSetProto;
 import rescuecore2.messages.protobuf.RCRSProto.ChangeSetProto.EntityChangeProto;
 import rescuecore2.messages.protobuf.RCRSProto.PropertyProto;
-import rescuecore2.misc.collections.LazyMap;
 import rescuecore2.registry.Registry;
-//import rescuecore2.standard.entities.StandardPropertyURN;
 import rescuecore2.worldmodel.properties.EntityRefListProperty;
 
 /**
  * This class is used for accumulating changes to entities.
+ * <p>
+ * Changes are kept in maps keyed by entity ID value, with the changed
+ * properties of each entity in a small array. Properties passed to
+ * {@link #addChange} are copied, but properties are shared rather than copied
+ * between ChangeSets when they are merged or decoded, so properties obtained
+ * from a ChangeSet must not be modified.
  */
 public class ChangeSet {
+  private static final int INITIAL_PROPERTIES = 4;
 
-  private Map<EntityID, Map<Integer, Property>> changes;
-  private Set<EntityID> deleted;
-  private Map<EntityID, Integer> entityURNs;
+  private TIntObjectHashMap<EntityChanges> changes;
+  private TIntHashSet deleted;
 
   /**
    * Create an empty ChangeSet.
    */
   public ChangeSet() {
-    changes = new LazyMap<EntityID, Map<Integer, Property>>() {
-
-      @Override
-      public Map<Integer, Property> createValue() {
-        return new HashMap<Integer, Property>();
-      }
-    };
-    entityURNs = new HashMap<EntityID, Integer>();
-    deleted = new HashSet<EntityID>();
+    changes = new TIntObjectHashMap<EntityChanges>();
+    deleted = new TIntHashSet();
   }
 
   /**
@@ -60,7 +59,11 @@ public class ChangeSet {
    */
   public ChangeSet(ChangeSet other) {
     this();
-    merge(other);
+    for (TIntObjectIterator<EntityChanges> it = other.changes.iterator(); it.hasNext();) {
+      it.advance();
+      changes.put(it.key(), new EntityChanges(it.value()));
+    }
+    deleted.addAll(other.deleted.toArray());
   }
 
   /**
@@ -81,12 +84,10 @@ public class ChangeSet {
    * @param p   The property that has changed.
    */
   public void addChange(EntityID e, int urn, Property p) {
-    if (deleted.contains(e)) {
+    if (deleted.contains(e.getValue())) {
       return;
     }
-    Property prop = p.copy();
-    changes.get(e).put(prop.getURN(), prop);
-    entityURNs.put(e, urn);
+    put(e, urn, p.copy());
   }
 
   /**
@@ -95,8 +96,8 @@ public class ChangeSet {
    * @param e The ID of the entity that has been deleted.
    */
   public void entityDeleted(EntityID e) {
-    deleted.add(e);
-    changes.remove(e);
+    deleted.add(e.getValue());
+    changes.remove(e.getValue());
   }
 
   /**
@@ -107,7 +108,15 @@ public class ChangeSet {
    *         null.
    */
   public Set<Property> getChangedProperties(EntityID e) {
-    return new HashSet<Property>(changes.get(e).values());
+    EntityChanges c = changes.get(e.getValue());
+    if (c == null) {
+      return new HashSet<Property>();
+    }
+    Set<Property> result = new HashSet<Property>(c.count * 2);
+    for (int i = 0; i < c.count; ++i) {
+      result.add(c.properties[i]);
+    }
+    return result;
   }
 
   /**
@@ -119,9 +128,9 @@ public class ChangeSet {
    *         not found or has not changed.
    */
   public Property getChangedProperty(EntityID e, int urn) {
-    Map<Integer, Property> props = changes.get(e);
-    if (props != null) {
-      return props.get(urn);
+    EntityChanges c = changes.get(e.getValue());
+    if (c != null) {
+      return c.get(urn);
     }
     return null;
   }
@@ -132,7 +141,12 @@ public class ChangeSet {
    * @return A set of IDs of changed entities.
    */
   public Set<EntityID> getChangedEntities() {
-    return new HashSet<EntityID>(changes.keySet());
+    Set<EntityID> result = new HashSet<EntityID>(changes.size() * 2);
+    for (TIntObjectIterator<EntityChanges> it = changes.iterator(); it.hasNext();) {
+      it.advance();
+      result.add(it.value().id);
+    }
+    return result;
   }
 
   /**
@@ -141,7 +155,11 @@ public class ChangeSet {
    * @return A set of IDs of deleted entities.
    */
   public Set<EntityID> getDeletedEntities() {
-    return new HashSet<EntityID>(deleted);
+    Set<EntityID> result = new HashSet<EntityID>(deleted.size() * 2);
+    for (TIntIterator it = deleted.iterator(); it.hasNext();) {
+      result.add(new EntityID(it.next()));
+    }
+    return result;
   }
 
   /**
@@ -151,7 +169,31 @@ public class ChangeSet {
    * @return The URN of the changed entity.
    */
   public int getEntityURN(EntityID id) {
-    return entityURNs.get(id);
+    EntityChanges c = changes.get(id.getValue());
+    if (c == null) {
+      throw new IllegalArgumentException("Entity " + id + " has not changed");
+    }
+    return c.urn;
+  }
+
+  /**
+   * Visit every changed property without copying. All properties of an entity
+   * are visited one after another.
+   *
+   * @param procedure The procedure to call for each changed property.
+   * @return False if the procedure stopped the iteration, true otherwise.
+   */
+  public boolean forEachChange(ChangeProcedure procedure) {
+    for (TIntObjectIterator<EntityChanges> it = changes.iterator(); it.hasNext();) {
+      it.advance();
+      EntityChanges c = it.value();
+      for (int i = 0; i < c.count; ++i) {
+        if (!procedure.execute(c.id, c.urn, c.properties[i])) {
+          return false;
+        }
+      }
+    }
+    return true;
   }
 
   /**
@@ -159,47 +201,45 @@ public class ChangeSet {
    *
    * @param other The other ChangeSet.
    */
-  // private static final String BLOCKADES_URN = StandardPropertyURN.BLOCKADES
-  // .toString();
-
   public void merge(ChangeSet other) {
-    for (Map.Entry<EntityID, Map<Integer, Property>> next : other.changes.entrySet()) {
-      EntityID e = next.getKey();
-      int urn = other.getEntityURN(e);
-      for (Property p : next.getValue().values()) {
-
-        // if ( p.getURN().equals( BLOCKADES_URN )
-        // && changes.get( e ).containsKey( BLOCKADES_URN ) ) {
-
-        if ((p instanceof EntityRefListProperty)
-            && (changes.get(e).containsKey(urn) && (changes.get(e).get(urn) instanceof EntityRefListProperty))) {
-
+    for (TIntObjectIterator<EntityChanges> it = other.changes.iterator(); it.hasNext();) {
+      it.advance();
+      EntityChanges o = it.value();
+      EntityID e = o.id;
+      int urn = o.urn;
+      if (deleted.contains(e.getValue())) {
+        continue;
+      }
+      for (int i = 0; i < o.count; ++i) {
+        Property p = o.properties[i];
+        EntityChanges c = changes.get(e.getValue());
+        // As before, the existing change is looked up by the entity URN
+        Property existing = c == null ? null : c.get(urn);
+        if ((p instanceof EntityRefListProperty) && (existing instanceof EntityRefListProperty)) {
           EntityRefListProperty bp1 = (EntityRefListProperty) p.copy();
-          // EntityRefListProperty bp2 = (EntityRefListProperty)
-          // changes.get( e )
-          // .get( BLOCKADES_URN );
-          EntityRefListProperty bp2 = (EntityRefListProperty) changes.get(e).get(urn);
+          EntityRefListProperty bp2 = (EntityRefListProperty) existing;
 
           if (bp2.isDefined()) {
             for (EntityID id : bp2.getValue())
               bp1.addValue(id);
           }
 
-          for (EntityID id : deleted) {
-            bp1.removeValue(id);
+          for (TIntIterator d = deleted.iterator(); d.hasNext();) {
+            bp1.removeValue(new EntityID(d.next()));
           }
 
-          for (EntityID id : other.deleted) {
-            bp1.removeValue(id);
+          for (TIntIterator d = other.deleted.iterator(); d.hasNext();) {
+            bp1.removeValue(new EntityID(d.next()));
           }
 
           p = bp1;
         }
 
-        addChange(e, urn, p);
+        // Properties in the other ChangeSet are never modified so they can be shared
+        put(e, urn, p);
       }
     }
-    deleted.addAll(other.deleted);
+    deleted.addAll(other.deleted.toArray());
   }
 
   /**
@@ -226,20 +266,20 @@ public class ChangeSet {
   public void write(OutputStream out) throws IOException {
     // Number of entity IDs
     writeInt32(changes.size(), out);
-    for (Map.Entry<EntityID, Map<Integer, Property>> next : changes.entrySet()) {
-      EntityID id = next.getKey();
-      Collection<Property> props = next.getValue().values();
+    for (TIntObjectIterator<EntityChanges> it = changes.iterator(); it.hasNext();) {
+      it.advance();
+      EntityChanges c = it.value();
       // EntityID, URN, number of properties
-      writeInt32(id.getValue(), out);
-      writeString(Registry.getCurrentRegistry().toURN_Str(getEntityURN(id)), out);
-      writeInt32(props.size(), out);
-      for (Property prop : props) {
-        writeProperty(prop, out);
+      writeInt32(c.id.getValue(), out);
+      writeString(Registry.getCurrentRegistry().toURN_Str(c.urn), out);
+      writeInt32(c.count, out);
+      for (int i = 0; i < c.count; ++i) {
+        writeProperty(c.properties[i], out);
       }
     }
     writeInt32(deleted.size(), out);
-    for (EntityID next : deleted) {
-      writeInt32(next.getValue(), out);
+    for (TIntIterator it = deleted.iterator(); it.hasNext();) {
+      writeInt32(it.next(), out);
     }
   }
 
@@ -260,14 +300,13 @@ public class ChangeSet {
       for (int j = 0; j < propCount; ++j) {
         Property p = readProperty(in);
         if (p != null) {
-          addChange(id, urn, p);
+          put(id, urn, p);
         }
       }
     }
     int deletedCount = readInt32(in);
     for (int i = 0; i < deletedCount; ++i) {
-      EntityID id = new EntityID(readInt32(in));
-      deleted.add(id);
+      deleted.add(readInt32(in));
     }
   }
 
@@ -275,23 +314,25 @@ public class ChangeSet {
   public String toString() {
     StringBuilder result = new StringBuilder();
     result.append("ChangeSet:");
-    for (Entry<EntityID, Map<Integer, Property>> next : changes.entrySet()) {
+    for (TIntObjectIterator<EntityChanges> it = changes.iterator(); it.hasNext();) {
+      it.advance();
+      EntityChanges c = it.value();
       result.append(" Entity ");
-      result.append(next.getKey());
+      result.append(c.id);
       result.append(" (");
-      result.append(getEntityURN(next.getKey()));
+      result.append(c.urn);
       result.append(") [");
-      for (Iterator<Property> it = next.getValue().values().iterator(); it.hasNext();) {
-        result.append(it.next());
-        if (it.hasNext()) {
+      for (int i = 0; i < c.count; ++i) {
+        if (i > 0) {
           result.append(", ");
         }
+        result.append(c.properties[i]);
       }
       result.append("]");
     }
     result.append(" {Deleted ");
-    for (Iterator<EntityID> it = deleted.iterator(); it.hasNext();) {
-      result.append(it.next());
+    for (TIntIterator it = deleted.iterator(); it.hasNext();) {
+      result.append(new EntityID(it.next()));
       if (it.hasNext()) {
         result.append(", ");
       }
@@ -305,14 +346,16 @@ public class ChangeSet {
    */
   public void debug() {
     Logger.debug("ChangeSet");
-    for (Map.Entry<EntityID, Map<Integer, Property>> next : changes.entrySet()) {
-      Logger.debug("  Entity " + next.getKey() + "(" + getEntityURN(next.getKey()) + ")");
-      for (Iterator<Property> it = next.getValue().values().iterator(); it.hasNext();) {
-        Logger.debug("    " + it.next());
+    for (TIntObjectIterator<EntityChanges> it = changes.iterator(); it.hasNext();) {
+      it.advance();
+      EntityChanges c = it.value();
+      Logger.debug("  Entity " + c.id + "(" + c.urn + ")");
+      for (int i = 0; i < c.count; ++i) {
+        Logger.debug("    " + c.properties[i]);
       }
     }
-    for (Iterator<EntityID> it = deleted.iterator(); it.hasNext();) {
-      Logger.debug("  Deleted: " + it.next());
+    for (TIntIterator it = deleted.iterator(); it.hasNext();) {
+      Logger.debug("  Deleted: " + new EntityID(it.next()));
     }
   }
 
@@ -320,41 +363,121 @@ public class ChangeSet {
     changes.clear();
     deleted.clear();
     List<EntityChangeProto> changesList = changeSetProto.getChangesList();
-    for (EntityChangeProto entityChange : changesList) {
+    for (int i = 0; i < changesList.size(); ++i) {
+      EntityChangeProto entityChange = changesList.get(i);
       EntityID entityID = new EntityID(entityChange.getEntityID());
       int urn = entityChange.getUrn();
 
       List<PropertyProto> propertyProtoList = entityChange.getPropertiesList();
-      for (PropertyProto propertyProto : propertyProtoList) {
-        Property prop = MsgProtoBuf.propertyProto2Property(propertyProto);
+      for (int j = 0; j < propertyProtoList.size(); ++j) {
+        Property prop = MsgProtoBuf.propertyProto2Property(propertyProtoList.get(j));
         if (prop != null) {
-          this.addChange(entityID, urn, prop);
+          // Decoded properties are not shared with anything else
+          put(entityID, urn, prop);
         }
       }
     }
     // Add deleted entities
-    for (Integer entityID : changeSetProto.getDeletesList()) {
-      this.entityDeleted(new EntityID(entityID));
+    for (int i = 0; i < changeSetProto.getDeletesCount(); ++i) {
+      int entityID = changeSetProto.getDeletes(i);
+      deleted.add(entityID);
+      changes.remove(entityID);
     }
 
   }
 
   public ChangeSetProto toChangeSetProto() {
     ChangeSetProto.Builder builder = ChangeSetProto.newBuilder();
-    for (Entry<EntityID, Map<Integer, Property>> next : changes.entrySet()) {
-      EntityID id = next.getKey();
-      Collection<Property> props = next.getValue().values();
-      // EntityID, URN, number of properties
-      EntityChangeProto.Builder entityChangeBuilder = EntityChangeProto.newBuilder().setEntityID(id.getValue())
-          .setUrn(getEntityURN(id));
-      for (Property prop : props) {
-        entityChangeBuilder.addProperties(prop.toPropertyProto());
+    for (TIntObjectIterator<EntityChanges> it = changes.iterator(); it.hasNext();) {
+      it.advance();
+      EntityChanges c = it.value();
+      EntityChangeProto.Builder entityChangeBuilder = EntityChangeProto.newBuilder().setEntityID(c.id.getValue())
+          .setUrn(c.urn);
+      for (int i = 0; i < c.count; ++i) {
+        entityChangeBuilder.addProperties(c.properties[i].toPropertyProto());
       }
       builder.addChanges(entityChangeBuilder);
     }
-    for (EntityID next : deleted) {
-      builder.addDeletes(next.getValue());
+    for (TIntIterator it = deleted.iterator(); it.hasNext();) {
+      builder.addDeletes(it.next());
     }
     return builder.build();
   }
-}
\ No newline at end of file
+
+  private void put(EntityID e, int urn, Property p) {
+    EntityChanges c = changes.get(e.getValue());
+    if (c == null) {
+      c = new EntityChanges(e);
+      changes.put(e.getValue(), c);
+    }
+    c.urn = urn;
+    c.put(p);
+  }
+
+  /**
+   * Procedure for visiting the changes in a ChangeSet.
+   */
+  public interface ChangeProcedure {
+    /**
+     * Visit a changed property.
+     *
+     * @param id       The ID of the changed entity.
+     * @param urn      The URN of the changed entity.
+     * @param property The changed property. This must not be modified.
+     * @return False to stop visiting, true to continue.
+     */
+    boolean execute(EntityID id, int urn, Property property);
+  }
+
+  /**
+   * The changed properties of one entity. Properties are replaced, never
+   * modified, so arrays can be shared until one of the copies changes.
+   */
+  private static final class EntityChanges {
+    private final EntityID id;
+    private int urn;
+    private Property[] properties;
+    private int count;
+    private boolean shared;
+
+    EntityChanges(EntityID id) {
+      this.id = id;
+      properties = new Property[INITIAL_PROPERTIES];
+    }
+
+    EntityChanges(EntityChanges other) {
+      this.id = other.id;
+      this.urn = other.urn;
+      this.properties = other.properties;
+      this.count = other.count;
+      // Both copies must copy the array before changing it
+      this.shared = true;
+      other.shared = true;
+    }
+
+    Property get(int propertyURN) {
+      for (int i = 0; i < count; ++i) {
+        if (properties[i].getURN() == propertyURN) {
+          return properties[i];
+        }
+      }
+      return null;
+    }
+
+    void put(Property p) {
+      int urn = p.getURN();
+      int index = 0;
+      while (index < count && properties[index].getURN() != urn) {
+        ++index;
+      }
+      if (shared || index == properties.length) {
+        properties = Arrays.copyOf(properties, index == properties.length ? properties.length * 2 : properties.length);
+        shared = false;
+      }
+      properties[index] = p;
+      if (index == count) {
+        ++count;
+      }
+    }
+  }
+}
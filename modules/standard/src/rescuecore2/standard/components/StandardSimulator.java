@@ -1,5 +1,10 @@
 package rescuecore2.standard.components;
 
+import java.util.EnumSet;
+
+import rescuecore2.URN;
+import rescuecore2.standard.entities.StandardEntityURN;
+import rescuecore2.standard.entities.StandardPropertyURN;
 import rescuecore2.standard.entities.StandardWorldModel;
 import rescuecore2.components.AbstractSimulator;
 
@@ -17,4 +22,39 @@ public abstract class StandardSimulator extends AbstractSimulator<StandardWorldM
         super.postConnect();
         model.index();
     }
+
+    @Override
+    protected final int[] getRequestedEntityURNs() {
+        return toURNIds(getRequestedEntityURNsEnum());
+    }
+
+    @Override
+    protected final int[] getRequestedPropertyURNs() {
+        return toURNIds(getRequestedPropertyURNsEnum());
+    }
+
+    /**
+       Get the entity types this simulator wants updates for. The default implementation returns an empty set, which together with an empty set of properties means all updates.
+       @return An EnumSet containing requested entity URNs.
+    */
+    protected EnumSet<StandardEntityURN> getRequestedEntityURNsEnum() {
+        return EnumSet.noneOf(StandardEntityURN.class);
+    }
+
+    /**
+       Get the properties this simulator wants updates for, whatever the type of the entity. The default implementation returns an empty set.
+       @return An EnumSet containing requested property URNs.
+    */
+    protected EnumSet<StandardPropertyURN> getRequestedPropertyURNsEnum() {
+        return EnumSet.noneOf(StandardPropertyURN.class);
+    }
+
+    private static int[] toURNIds(EnumSet<? extends URN> set) {
+        int[] result = new int[set.size()];
+        int i = 0;
+        for (URN next : set) {
+            result[i++] = next.getURNId();
+        }
+        return result;
+    }
 }
@@ -4,6 +4,7 @@ import com.infomatiq.jsi.Rectangle;
 import com.infomatiq.jsi.SpatialIndex;
 import com.infomatiq.jsi.rtree.RTree;
 import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumMap;
 import java.util.HashMap;
@@ -23,16 +24,24 @@ import gnu.trove.TIntProcedure;
 
 /**
  * A wrapper around a WorldModel that indexes Entities by location.
+ *
+ * Areas are kept in a static spatial index that is built once. Humans and
+ * blockades are kept in a separate dynamic index. Merging a ChangeSet only
+ * re-indexes the entities whose location properties appear in it.
  */
 public class StandardWorldModel extends DefaultWorldModel<StandardEntity> {
 
-  private SpatialIndex index;
+  private SpatialIndex staticIndex;
+  private SpatialIndex dynamicIndex;
 
   private Map<StandardEntityURN, Collection<StandardEntity>> storedTypes;
   private Set<StandardEntity> unindexedEntities;
-  private Map<Human, Rectangle> humanRectangles;
+  private Map<EntityID, Rectangle> rectangles;
+  // Humans without X/Y whose location is that of their position entity
+  private Set<Human> positionedHumans;
 
   private boolean indexed;
+  private boolean boundsValid;
   private int minX;
   private int maxX;
   private int minY;
@@ -46,7 +55,8 @@ public class StandardWorldModel extends DefaultWorldModel<StandardEntity> {
     storedTypes = new EnumMap<StandardEntityURN, Collection<StandardEntity>>(
         StandardEntityURN.class);
     unindexedEntities = new HashSet<StandardEntity>();
-    humanRectangles = new HashMap<Human, Rectangle>();
+    rectangles = new HashMap<EntityID, Rectangle>();
+    positionedHumans = new HashSet<Human>();
     addWorldModelListener(new AddRemoveListener());
     indexed = false;
   }
@@ -55,17 +65,20 @@ public class StandardWorldModel extends DefaultWorldModel<StandardEntity> {
   @Override
   public void merge(ChangeSet changeSet) {
     super.merge(changeSet);
-    // Update human rectangles
-    for (Map.Entry<Human, Rectangle> next : humanRectangles.entrySet()) {
-      Human h = next.getKey();
-      Rectangle r = next.getValue();
-      index.delete(r, h.getID().getValue());
-      r = makeRectangle(h);
-      if (r != null) {
-        index.add(r, h.getID().getValue());
-        next.setValue(r);
+    if (!indexed) {
+      return;
+    }
+    // Entities added by the change set are complete, so index them now
+    indexUnindexedEntities();
+    for (EntityID id : changeSet.getChangedEntities()) {
+      StandardEntity e = getEntity(id);
+      if (e != null && movedIn(changeSet, id)) {
+        reindex(e);
       }
     }
+    for (Human next : new ArrayList<Human>(positionedHumans)) {
+      reindex(next);
+    }
   }
 
 
@@ -89,44 +102,50 @@ public class StandardWorldModel extends DefaultWorldModel<StandardEntity> {
 
 
   /**
-   * Re-index the world model.
+   * Re-index the world model. The first call builds the index; later calls
+   * only add entities that have been added since.
    */
   public void index() {
-    if (indexed && unindexedEntities.isEmpty()) {
-      Logger.debug(
-          "Not bothering with reindex: No entities are currently unindexed");
+    if (indexed) {
+      if (unindexedEntities.isEmpty()) {
+        Logger.debug(
+            "Not bothering with reindex: No entities are currently unindexed");
+      } else {
+        Logger.debug("Indexing " + unindexedEntities.size() + " new entities");
+        indexUnindexedEntities();
+      }
       return;
     }
-    Logger.debug("Re-indexing world model");
+    Logger.debug("Indexing world model");
     long start = System.currentTimeMillis();
-    index = new RTree();
-    index.init(new Properties());
-    humanRectangles.clear();
+    staticIndex = new RTree();
+    staticIndex.init(new Properties());
+    dynamicIndex = new RTree();
+    dynamicIndex.init(new Properties());
+    rectangles.clear();
+    positionedHumans.clear();
     unindexedEntities.clear();
-    minX = Integer.MAX_VALUE;
-    maxX = Integer.MIN_VALUE;
-    minY = Integer.MAX_VALUE;
-    maxY = Integer.MIN_VALUE;
     // Add all rectangles
     for (StandardEntity next : this) {
-      Rectangle r = makeRectangle(next);
-      if (r != null) {
-        index.add(r, next.getID().getValue());
-        minX = Math.min(minX, (int) r.minX);
-        maxX = Math.max(maxX, (int) r.maxX);
-        minY = Math.min(minY, (int) r.minY);
-        maxY = Math.max(maxY, (int) r.maxY);
-        if (next instanceof Human) {
-          humanRectangles.put((Human) next, r);
-        }
-      }
+      add(next);
     }
+    computeBounds();
     long end = System.currentTimeMillis();
-    Logger.debug("Finished re-index. Took " + (end - start) + "ms");
+    Logger.debug("Finished index. Took " + (end - start) + "ms");
     indexed = true;
   }
 
 
+  /**
+   * Find out whether the spatial index has been built.
+   *
+   * @return True if the spatial index has been built, false otherwise.
+   */
+  public boolean isIndexed() {
+    return indexed;
+  }
+
+
   /**
    * Get objects within a certain range of an entity.
    *
@@ -204,7 +223,7 @@ public class StandardWorldModel extends DefaultWorldModel<StandardEntity> {
     }
     final Collection<StandardEntity> result = new HashSet<StandardEntity>();
     Rectangle r = new Rectangle(x1, y1, x2, y2);
-    index.intersects(r, new TIntProcedure() {
+    TIntProcedure collect = new TIntProcedure() {
 
       @Override
       public boolean execute(int id) {
@@ -214,7 +233,9 @@ public class StandardWorldModel extends DefaultWorldModel<StandardEntity> {
         }
         return true;
       }
-    });
+    };
+    staticIndex.intersects(r, collect);
+    dynamicIndex.intersects(r, collect);
     return result;
   }
 
@@ -306,6 +327,9 @@ public class StandardWorldModel extends DefaultWorldModel<StandardEntity> {
     if (!indexed) {
       index();
     }
+    if (!boundsValid) {
+      computeBounds();
+    }
     return new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
   }
 
@@ -319,6 +343,9 @@ public class StandardWorldModel extends DefaultWorldModel<StandardEntity> {
     if (!indexed) {
       index();
     }
+    if (!boundsValid) {
+      computeBounds();
+    }
     Pair<Integer, Integer> topLeft = new Pair<Integer, Integer>(minX, minY);
     Pair<Integer, Integer> bottomRight = new Pair<Integer, Integer>(maxX, maxY);
     return new Pair<Pair<Integer, Integer>, Pair<Integer, Integer>>(topLeft,
@@ -371,6 +398,96 @@ public class StandardWorldModel extends DefaultWorldModel<StandardEntity> {
   }
 
 
+  private void indexUnindexedEntities() {
+    for (StandardEntity next : unindexedEntities) {
+      add(next);
+    }
+    unindexedEntities.clear();
+  }
+
+
+  private boolean movedIn(ChangeSet changeSet, EntityID id) {
+    return changeSet.getChangedProperty(id,
+        StandardPropertyURN.X.getURNId()) != null
+        || changeSet.getChangedProperty(id,
+            StandardPropertyURN.Y.getURNId()) != null
+        || changeSet.getChangedProperty(id,
+            StandardPropertyURN.POSITION.getURNId()) != null
+        || changeSet.getChangedProperty(id,
+            StandardPropertyURN.APEXES.getURNId()) != null;
+  }
+
+
+  private SpatialIndex indexFor(StandardEntity e) {
+    return e instanceof Area ? staticIndex : dynamicIndex;
+  }
+
+
+  private void add(StandardEntity e) {
+    if (e instanceof Human) {
+      Human h = (Human) e;
+      if (h.isXDefined() && h.isYDefined()) {
+        positionedHumans.remove(h);
+      } else {
+        positionedHumans.add(h);
+      }
+    }
+    Rectangle r = makeRectangle(e);
+    if (r != null) {
+      indexFor(e).add(r, e.getID().getValue());
+      rectangles.put(e.getID(), r);
+      if (boundsValid) {
+        minX = Math.min(minX, (int) r.minX);
+        maxX = Math.max(maxX, (int) r.maxX);
+        minY = Math.min(minY, (int) r.minY);
+        maxY = Math.max(maxY, (int) r.maxY);
+      }
+    }
+  }
+
+
+  private void remove(StandardEntity e) {
+    if (e instanceof Human) {
+      positionedHumans.remove(e);
+    }
+    Rectangle r = rectangles.remove(e.getID());
+    if (r != null) {
+      indexFor(e).delete(r, e.getID().getValue());
+      if ((int) r.minX <= minX || (int) r.maxX >= maxX || (int) r.minY <= minY
+          || (int) r.maxY >= maxY) {
+        boundsValid = false;
+      }
+    }
+  }
+
+
+  private void reindex(StandardEntity e) {
+    Rectangle old = rectangles.get(e.getID());
+    Rectangle r = makeRectangle(e);
+    if (old != null && r != null && old.minX == r.minX && old.minY == r.minY
+        && old.maxX == r.maxX && old.maxY == r.maxY) {
+      return;
+    }
+    remove(e);
+    add(e);
+  }
+
+
+  private void computeBounds() {
+    minX = Integer.MAX_VALUE;
+    maxX = Integer.MIN_VALUE;
+    minY = Integer.MAX_VALUE;
+    maxY = Integer.MIN_VALUE;
+    for (Rectangle r : rectangles.values()) {
+      minX = Math.min(minX, (int) r.minX);
+      maxX = Math.max(maxX, (int) r.maxX);
+      minY = Math.min(minY, (int) r.minY);
+      maxY = Math.max(maxY, (int) r.maxY);
+    }
+    boundsValid = true;
+  }
+
+
   private Rectangle makeRectangle(StandardEntity e) {
     int x1 = Integer.MAX_VALUE;
     int x2 = Integer.MIN_VALUE;
@@ -449,7 +566,9 @@ public class StandardWorldModel extends DefaultWorldModel<StandardEntity> {
         Collection<StandardEntity> bucket = storedTypes.get(type);
         bucket.remove(e);
       }
-      unindexedEntities.remove(e);
+      if (!unindexedEntities.remove(e) && indexed) {
+        remove(e);
+      }
     }
   }
 }
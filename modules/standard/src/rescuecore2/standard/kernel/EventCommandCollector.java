@@ -0,0 +1,183 @@
+package rescuecore2.standard.kernel;
+
+import rescuecore2.config.Config;
+import rescuecore2.messages.Command;
+import rescuecore2.log.Logger;
+import rescuecore2.worldmodel.Entity;
+
+import rescuecore2.standard.entities.Human;
+
+import kernel.AgentCommandListener;
+import kernel.AgentProxy;
+import kernel.CommandCollector;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+   A CommandCollector that returns as soon as every live agent has sent a non-communication command, or when the think time expires. Agents notify this collector as commands arrive so it never needs to poll.
+*/
+public class EventCommandCollector implements CommandCollector, AgentCommandListener {
+    private static final int DEFAULT_TIME = 1000;
+    private static final String TIME_KEY = "kernel.agents.think-time";
+
+    private long time;
+    private final Set<AgentProxy> registered;
+    private volatile StepState current;
+    private Map<AgentProxy, Long> latencies;
+
+    /**
+       Construct an EventCommandCollector.
+    */
+    public EventCommandCollector() {
+        registered = new HashSet<AgentProxy>();
+        latencies = Collections.emptyMap();
+    }
+
+    @Override
+    public void initialise(Config config) {
+        time = config.getIntValue(TIME_KEY, DEFAULT_TIME);
+    }
+
+    @Override
+    public Collection<Command> getAgentCommands(Collection<AgentProxy> agents, int timestep) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        Set<AgentProxy> live = new HashSet<AgentProxy>();
+        for (AgentProxy next : agents) {
+            if (isLive(next)) {
+                live.add(next);
+            }
+        }
+        StepState state = new StepState(timestep, start, live);
+        current = state;
+        try {
+            // Commands may have arrived before this method was called
+            for (AgentProxy next : agents) {
+                register(next);
+                for (Command c : next.getAgentCommands(timestep)) {
+                    state.commandReceived(next, c);
+                }
+            }
+            long remaining = start + time - System.currentTimeMillis();
+            Logger.trace(this + " waiting up to " + remaining + "ms for " + state.latch.getCount() + " agents");
+            if (remaining > 0) {
+                state.latch.await(remaining, TimeUnit.MILLISECONDS);
+            }
+        }
+        finally {
+            current = null;
+        }
+        long end = System.currentTimeMillis();
+        synchronized (this) {
+            latencies = Collections.unmodifiableMap(new HashMap<AgentProxy, Long>(state.latencies));
+        }
+        logLatencies(state, end - start);
+        Collection<Command> result = new ArrayList<Command>();
+        for (AgentProxy next : agents) {
+            result.addAll(next.getAgentCommands(timestep));
+        }
+        Logger.trace(this + " returning " + result.size() + " commands");
+        return result;
+    }
+
+    @Override
+    public void commandReceived(AgentProxy agent, Command c) {
+        StepState state = current;
+        if (state != null) {
+            state.commandReceived(agent, c);
+        }
+    }
+
+    /**
+       Get the time each agent took to send a trigger command in the most recent timestep. Agents that did not send a trigger command before the think time expired are not included.
+       @return An unmodifiable map from agent to latency in milliseconds.
+    */
+    public Map<AgentProxy, Long> getLatencies() {
+        synchronized (this) {
+            return latencies;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Event command collector";
+    }
+
+    private void register(AgentProxy agent) {
+        if (registered.add(agent)) {
+            agent.addAgentCommandListener(this);
+        }
+    }
+
+    private boolean isLive(AgentProxy agent) {
+        if (!agent.getConnection().isAlive()) {
+            return false;
+        }
+        Entity e = agent.getControlledEntity();
+        if (e instanceof Human) {
+            Human h = (Human)e;
+            return !h.isHPDefined() || h.getHP() > 0;
+        }
+        return true;
+    }
+
+    private void logLatencies(StepState state, long elapsed) {
+        Logger.debug(this + " finished timestep " + state.timestep + " after " + elapsed + "ms");
+        AgentProxy slowest = null;
+        long slowestTime = -1;
+        for (Map.Entry<AgentProxy, Long> next : state.latencies.entrySet()) {
+            Logger.trace(next.getKey() + " responded after " + next.getValue() + "ms");
+            if (next.getValue() > slowestTime) {
+                slowest = next.getKey();
+                slowestTime = next.getValue();
+            }
+        }
+        if (slowest != null) {
+            Logger.debug("Slowest agent: " + slowest + " (" + slowestTime + "ms)");
+        }
+        if (!state.waiting.isEmpty()) {
+            // Group by agent name so it is easy to see which team is late
+            Map<String, Integer> late = new HashMap<String, Integer>();
+            for (AgentProxy next : state.waiting) {
+                Integer count = late.get(next.getName());
+                late.put(next.getName(), count == null ? 1 : count + 1);
+            }
+            Logger.info(this + ": " + state.waiting.size() + " agents did not send a command in time: " + late);
+        }
+    }
+
+    private static final class StepState {
+        private final int timestep;
+        private final long start;
+        private final Set<AgentProxy> waiting;
+        private final Map<AgentProxy, Long> latencies;
+        private final CountDownLatch latch;
+
+        StepState(int timestep, long start, Collection<AgentProxy> live) {
+            this.timestep = timestep;
+            this.start = start;
+            waiting = Collections.newSetFromMap(new ConcurrentHashMap<AgentProxy, Boolean>());
+            waiting.addAll(live);
+            latencies = new ConcurrentHashMap<AgentProxy, Long>();
+            latch = new CountDownLatch(waiting.size());
+        }
+
+        void commandReceived(AgentProxy agent, Command c) {
+            if (c.getTime() != timestep || !StandardCommandCollector.isTriggerCommand(c)) {
+                return;
+            }
+            if (waiting.remove(agent)) {
+                latencies.put(agent, System.currentTimeMillis() - start);
+                latch.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package rescuecore2.standard.kernel;
+
+import static rescuecore2.misc.java.JavaTools.instantiate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import kernel.KernelConstants;
+import kernel.KernelException;
+import kernel.WorldModelCreator;
+
+import rescuecore2.config.Config;
+import rescuecore2.config.ConfigException;
+import rescuecore2.misc.CommandLineOptions;
+import rescuecore2.misc.Pair;
+import rescuecore2.misc.geometry.Point2D;
+import rescuecore2.standard.entities.Human;
+import rescuecore2.standard.entities.StandardEntity;
+import rescuecore2.standard.entities.StandardWorldModel;
+
+/**
+   Timing comparison between the grid and brute-force ray casters of {@link LineOfSightPerception}. Every human in the scenario is used as a viewpoint.
+   <p>
+   Usage: LineOfSightBenchmark -c kernel.cfg --gis.map.dir=map [-r rounds]
+ */
+public final class LineOfSightBenchmark {
+    private static final int DEFAULT_ROUNDS = 5;
+    private static final String DEFAULT_GIS = "gis2.GMLWorldModelCreator";
+
+    private LineOfSightBenchmark() {}
+
+    /**
+       Run the timing comparison.
+       @param args Command line arguments.
+       @throws IOException If the config cannot be read.
+       @throws ConfigException If the config is invalid.
+       @throws KernelException If the map cannot be loaded.
+    */
+    public static void main(String[] args) throws IOException, ConfigException, KernelException {
+        Config config = new Config();
+        args = CommandLineOptions.processArgs(args, config);
+        int rounds = DEFAULT_ROUNDS;
+        // CHECKSTYLE:OFF:ModifiedControlVariable
+        for (int i = 0; i < args.length; ++i) {
+            if ("-r".equalsIgnoreCase(args[i])) {
+                rounds = Integer.parseInt(args[++i]);
+            }
+            else {
+                System.out.println("Unrecognised option: " + args[i]);
+            }
+        }
+        // CHECKSTYLE:ON:ModifiedControlVariable
+        WorldModelCreator creator = instantiate(config.getValue(KernelConstants.GIS_KEY + ".auto", DEFAULT_GIS), WorldModelCreator.class);
+        if (creator == null) {
+            System.out.println("Couldn't create world model creator");
+            return;
+        }
+        StandardWorldModel world = StandardWorldModel.createStandardWorldModel(creator.buildWorldModel(config));
+        LineOfSightPerception bruteForce = new LineOfSightPerception();
+        bruteForce.initialise(config, world);
+        bruteForce.setUseGrid(false);
+        bruteForce.setTime(1);
+        LineOfSightPerception gridded = new LineOfSightPerception();
+        gridded.initialise(config, world);
+        long gridStart = System.currentTimeMillis();
+        gridded.setTime(1);
+        long gridBuilt = System.currentTimeMillis();
+        int viewDistance = config.getIntValue("perception.los.max-distance", 30000);
+        List<Pair<Human, Point2D>> viewers = new ArrayList<Pair<Human, Point2D>>();
+        for (StandardEntity next : world) {
+            if (next instanceof Human) {
+                Pair<Integer, Integer> location = next.getLocation(world);
+                if (location != null) {
+                    viewers.add(new Pair<Human, Point2D>((Human)next, new Point2D(location.first(), location.second())));
+                }
+            }
+        }
+        System.out.println("Grid built in " + (gridBuilt - gridStart) + "ms");
+        System.out.println(viewers.size() + " viewpoints, " + rounds + " rounds");
+        long bruteTime = 0;
+        long gridTime = 0;
+        int mismatches = 0;
+        for (int round = 0; round < rounds; ++round) {
+            for (Pair<Human, Point2D> next : viewers) {
+                Point2D p = next.second();
+                Collection<StandardEntity> nearby = world.getObjectsInRange((int)p.getX(), (int)p.getY(), viewDistance);
+                long start = System.nanoTime();
+                Collection<StandardEntity> expected = bruteForce.findVisible(next.first(), p, nearby);
+                long middle = System.nanoTime();
+                Collection<StandardEntity> actual = gridded.findVisible(next.first(), p, nearby);
+                long end = System.nanoTime();
+                bruteTime += middle - start;
+                gridTime += end - middle;
+                if (round == 0 && !expected.equals(actual)) {
+                    ++mismatches;
+                }
+            }
+        }
+        // CHECKSTYLE:OFF:MagicNumber
+        double calls = (double)viewers.size() * rounds;
+        System.out.println("Brute force: " + (bruteTime / 1000000) + "ms (average " + (bruteTime / calls / 1000000.0) + "ms)");
+        System.out.println("Grid       : " + (gridTime / 1000000) + "ms (average " + (gridTime / calls / 1000000.0) + "ms)");
+        // CHECKSTYLE:ON:MagicNumber
+        System.out.println("Viewpoints with different visible sets: " + mismatches);
+    }
+}
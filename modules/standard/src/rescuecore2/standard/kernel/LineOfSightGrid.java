@@ -0,0 +1,307 @@
+package rescuecore2.standard.kernel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import rescuecore2.log.Logger;
+import rescuecore2.misc.Pair;
+import rescuecore2.misc.geometry.GeometryTools2D;
+import rescuecore2.misc.geometry.Line2D;
+import rescuecore2.misc.geometry.Point2D;
+import rescuecore2.standard.entities.Blockade;
+import rescuecore2.standard.entities.Building;
+import rescuecore2.standard.entities.Edge;
+import rescuecore2.standard.entities.Road;
+import rescuecore2.standard.entities.StandardEntity;
+import rescuecore2.standard.entities.StandardEntityURN;
+import rescuecore2.standard.entities.StandardWorldModel;
+
+/**
+   A uniform grid over the edges of a world model used for casting line of sight rays. Building and road edges are indexed once when the grid is created. Blockade edges are kept in a separate layer that is updated incrementally by {@link #updateBlockades()}. Rays walk the grid cells front-to-back and stop as soon as a blocking edge has been found that is closer than any unvisited cell.
+   <p>
+   Casting rays is thread-safe as long as {@link #updateBlockades()} is not called at the same time.
+ */
+final class LineOfSightGrid {
+    /** Margin added around each line when deciding which cells it occupies. */
+    private static final double MARGIN = 1;
+
+    private final StandardWorldModel world;
+    private final double cellSize;
+    private final double minX;
+    private final double minY;
+    private final int width;
+    private final int height;
+
+    private final LineOfSightPerception.LineInfo[][] staticCells;
+    private final List<LineOfSightPerception.LineInfo>[] blockadeCells;
+    private final List<LineOfSightPerception.LineInfo> outside;
+    private final Map<Blockade, BlockadeLines> blockades;
+
+    /**
+       Construct a grid over all building and road edges in a world model.
+       @param world The world model.
+       @param cellSize The size of each grid cell.
+    */
+    @SuppressWarnings("unchecked")
+    LineOfSightGrid(StandardWorldModel world, int cellSize) {
+        long start = System.currentTimeMillis();
+        this.world = world;
+        this.cellSize = cellSize;
+        Pair<Pair<Integer, Integer>, Pair<Integer, Integer>> bounds = world.getWorldBounds();
+        minX = bounds.first().first();
+        minY = bounds.first().second();
+        width = Math.max(1, (int)Math.ceil((bounds.second().first() - minX) / cellSize) + 1);
+        height = Math.max(1, (int)Math.ceil((bounds.second().second() - minY) / cellSize) + 1);
+        List<LineOfSightPerception.LineInfo>[] cells = new List[width * height];
+        outside = new ArrayList<LineOfSightPerception.LineInfo>();
+        int count = 0;
+        for (StandardEntity next : world) {
+            if (next instanceof Building) {
+                for (Edge edge : ((Building)next).getEdges()) {
+                    insert(cells, new LineOfSightPerception.LineInfo(edge.getLine(), next, !edge.isPassable()));
+                    ++count;
+                }
+            }
+            else if (next instanceof Road) {
+                for (Edge edge : ((Road)next).getEdges()) {
+                    insert(cells, new LineOfSightPerception.LineInfo(edge.getLine(), next, false));
+                    ++count;
+                }
+            }
+        }
+        staticCells = new LineOfSightPerception.LineInfo[width * height][];
+        for (int i = 0; i < cells.length; ++i) {
+            staticCells[i] = cells[i] == null ? new LineOfSightPerception.LineInfo[0] : cells[i].toArray(new LineOfSightPerception.LineInfo[cells[i].size()]);
+        }
+        blockadeCells = new List[width * height];
+        blockades = new HashMap<Blockade, BlockadeLines>();
+        updateBlockades();
+        long end = System.currentTimeMillis();
+        Logger.debug("Built " + width + "x" + height + " line of sight grid with " + count + " static lines in " + (end - start) + "ms");
+    }
+
+    /**
+       Bring the blockade layer up to date with the world model. Only blockades that have been added, removed or reshaped since the last call are re-indexed.
+    */
+    void updateBlockades() {
+        Set<Blockade> seen = new HashSet<Blockade>();
+        for (StandardEntity next : world.getEntitiesOfType(StandardEntityURN.BLOCKADE)) {
+            Blockade b = (Blockade)next;
+            seen.add(b);
+            int[] apexes = b.isApexesDefined() ? b.getApexes() : null;
+            BlockadeLines old = blockades.get(b);
+            if (old != null && Arrays.equals(old.apexes, apexes)) {
+                continue;
+            }
+            if (old != null) {
+                removeBlockade(old);
+            }
+            BlockadeLines lines = new BlockadeLines(apexes == null ? null : apexes.clone());
+            if (apexes != null) {
+                List<Point2D> points = GeometryTools2D.vertexArrayToPoints(apexes);
+                for (Line2D line : GeometryTools2D.pointsToLines(points, true)) {
+                    LineOfSightPerception.LineInfo info = new LineOfSightPerception.LineInfo(line, b, false);
+                    lines.lines.add(info);
+                    insert(blockadeCells, info);
+                }
+            }
+            blockades.put(b, lines);
+        }
+        for (Iterator<Map.Entry<Blockade, BlockadeLines>> it = blockades.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Blockade, BlockadeLines> next = it.next();
+            if (!seen.contains(next.getKey())) {
+                removeBlockade(next.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+       Cast a ray through the grid. Only lines belonging to entities in the candidate set are considered.
+       @param ray The ray to cast.
+       @param candidates The entities whose lines may be hit.
+       @return The lines hit in order of distance up to and including the first blocking line, and the visible length of the ray.
+    */
+    Pair<List<LineOfSightPerception.LineInfo>, Double> cast(Line2D ray, Collection<? extends StandardEntity> candidates) {
+        List<Pair<LineOfSightPerception.LineInfo, Double>> hits = new ArrayList<Pair<LineOfSightPerception.LineInfo, Double>>();
+        double blocking = Double.POSITIVE_INFINITY;
+        for (LineOfSightPerception.LineInfo next : outside) {
+            blocking = test(ray, next, candidates, hits, blocking);
+        }
+        double ox = ray.getOrigin().getX();
+        double oy = ray.getOrigin().getY();
+        double dx = ray.getDirection().getX();
+        double dy = ray.getDirection().getY();
+        // Clip the ray to the grid
+        double t0 = 0;
+        double t1 = 1;
+        double maxX = minX + width * cellSize;
+        double maxY = minY + height * cellSize;
+        double[] clipX = clip(ox, dx, minX, maxX, t0, t1);
+        double[] clipY = clipX == null ? null : clip(oy, dy, minY, maxY, clipX[0], clipX[1]);
+        if (clipY != null) {
+            t0 = clipY[0];
+            t1 = clipY[1];
+            int ix = cell(ox + t0 * dx, minX, width);
+            int iy = cell(oy + t0 * dy, minY, height);
+            int stepX = dx > 0 ? 1 : (dx < 0 ? -1 : 0);
+            int stepY = dy > 0 ? 1 : (dy < 0 ? -1 : 0);
+            double tMaxX = stepX == 0 ? Double.POSITIVE_INFINITY : (minX + (ix + (stepX > 0 ? 1 : 0)) * cellSize - ox) / dx;
+            double tMaxY = stepY == 0 ? Double.POSITIVE_INFINITY : (minY + (iy + (stepY > 0 ? 1 : 0)) * cellSize - oy) / dy;
+            double tDeltaX = stepX == 0 ? Double.POSITIVE_INFINITY : cellSize / Math.abs(dx);
+            double tDeltaY = stepY == 0 ? Double.POSITIVE_INFINITY : cellSize / Math.abs(dy);
+            while (ix >= 0 && ix < width && iy >= 0 && iy < height) {
+                int index = iy * width + ix;
+                for (LineOfSightPerception.LineInfo next : staticCells[index]) {
+                    blocking = test(ray, next, candidates, hits, blocking);
+                }
+                List<LineOfSightPerception.LineInfo> dynamic = blockadeCells[index];
+                if (dynamic != null) {
+                    for (LineOfSightPerception.LineInfo next : dynamic) {
+                        blocking = test(ray, next, candidates, hits, blocking);
+                    }
+                }
+                double tExit = Math.min(Math.min(tMaxX, tMaxY), t1);
+                if (blocking < tExit || tExit >= t1) {
+                    break;
+                }
+                if (tMaxX < tMaxY) {
+                    ix += stepX;
+                    tMaxX += tDeltaX;
+                }
+                else {
+                    iy += stepY;
+                    tMaxY += tDeltaY;
+                }
+            }
+        }
+        // Sort hits by distance and keep everything up to the first blocking line
+        Collections.sort(hits, LineOfSightPerception.INTERSECTION_SORTER);
+        List<LineOfSightPerception.LineInfo> result = new ArrayList<LineOfSightPerception.LineInfo>(hits.size());
+        double length = 1;
+        for (Pair<LineOfSightPerception.LineInfo, Double> next : hits) {
+            LineOfSightPerception.LineInfo l = next.first();
+            result.add(l);
+            if (l.isBlocking()) {
+                length = next.second();
+                break;
+            }
+        }
+        return new Pair<List<LineOfSightPerception.LineInfo>, Double>(Collections.unmodifiableList(result), length);
+    }
+
+    private double test(Line2D ray, LineOfSightPerception.LineInfo other, Collection<? extends StandardEntity> candidates, List<Pair<LineOfSightPerception.LineInfo, Double>> hits, double blocking) {
+        double d1 = ray.getIntersection(other.getLine());
+        if (!(d1 > 0 && d1 <= 1)) {
+            return blocking;
+        }
+        double d2 = other.getLine().getIntersection(ray);
+        if (!(d2 >= 0 && d2 <= 1)) {
+            return blocking;
+        }
+        if (!candidates.contains(other.getEntity())) {
+            return blocking;
+        }
+        // Lines that span several cells may be seen more than once
+        for (Pair<LineOfSightPerception.LineInfo, Double> next : hits) {
+            if (next.first() == other) {
+                return blocking;
+            }
+        }
+        hits.add(new Pair<LineOfSightPerception.LineInfo, Double>(other, d1));
+        return other.isBlocking() ? Math.min(blocking, d1) : blocking;
+    }
+
+    private void insert(List<LineOfSightPerception.LineInfo>[] cells, LineOfSightPerception.LineInfo info) {
+        int[] range = getCellRange(info.getLine());
+        if (range == null) {
+            outside.add(info);
+            return;
+        }
+        for (int y = range[1]; y <= range[3]; ++y) {
+            for (int x = range[0]; x <= range[2]; ++x) {
+                int index = y * width + x;
+                if (cells[index] == null) {
+                    cells[index] = new ArrayList<LineOfSightPerception.LineInfo>();
+                }
+                cells[index].add(info);
+            }
+        }
+    }
+
+    private void removeBlockade(BlockadeLines old) {
+        for (LineOfSightPerception.LineInfo info : old.lines) {
+            int[] range = getCellRange(info.getLine());
+            if (range == null) {
+                outside.remove(info);
+                continue;
+            }
+            for (int y = range[1]; y <= range[3]; ++y) {
+                for (int x = range[0]; x <= range[2]; ++x) {
+                    List<LineOfSightPerception.LineInfo> cell = blockadeCells[y * width + x];
+                    if (cell != null) {
+                        cell.remove(info);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+       Get the range of cells covered by a line, or null if any part of the line lies outside the grid.
+    */
+    private int[] getCellRange(Line2D line) {
+        Point2D a = line.getOrigin();
+        Point2D b = line.getEndPoint();
+        double x1 = Math.min(a.getX(), b.getX()) - MARGIN - minX;
+        double y1 = Math.min(a.getY(), b.getY()) - MARGIN - minY;
+        double x2 = Math.max(a.getX(), b.getX()) + MARGIN - minX;
+        double y2 = Math.max(a.getY(), b.getY()) + MARGIN - minY;
+        int cx1 = (int)Math.floor(x1 / cellSize);
+        int cy1 = (int)Math.floor(y1 / cellSize);
+        int cx2 = (int)Math.floor(x2 / cellSize);
+        int cy2 = (int)Math.floor(y2 / cellSize);
+        if (cx1 < 0 || cy1 < 0 || cx2 >= width || cy2 >= height) {
+            return null;
+        }
+        return new int[] {cx1, cy1, cx2, cy2};
+    }
+
+    private int cell(double value, double min, int count) {
+        int result = (int)Math.floor((value - min) / cellSize);
+        return Math.max(0, Math.min(count - 1, result));
+    }
+
+    /**
+       Clip the parametric range [t0, t1] of a ray along one axis to the slab [min, max].
+       @return The clipped range, or null if the ray misses the slab.
+    */
+    private static double[] clip(double origin, double direction, double min, double max, double t0, double t1) {
+        if (direction == 0) {
+            return (origin < min || origin > max) ? null : new double[] {t0, t1};
+        }
+        double a = (min - origin) / direction;
+        double b = (max - origin) / direction;
+        double lo = Math.max(t0, Math.min(a, b));
+        double hi = Math.min(t1, Math.max(a, b));
+        return lo > hi ? null : new double[] {lo, hi};
+    }
+
+    private static final class BlockadeLines {
+        private final int[] apexes;
+        private final List<LineOfSightPerception.LineInfo> lines;
+
+        BlockadeLines(int[] apexes) {
+            this.apexes = apexes;
+            this.lines = new ArrayList<LineOfSightPerception.LineInfo>();
+        }
+    }
+}
@@ -71,20 +71,28 @@ public class LineOfSightPerception implements Perception, GUIComponent {
     private static final int DEFAULT_HP_PRECISION = 1000;
     private static final int DEFAULT_DAMAGE_PRECISION = 100;
     private static final int DEFAULT_RAY_COUNT = 720;
+    private static final boolean DEFAULT_USE_GRID = true;
+    private static final int DEFAULT_GRID_CELL_SIZE = 5000;
 
     private static final String VIEW_DISTANCE_KEY = "perception.los.max-distance";
     private static final String RAY_COUNT_KEY = "perception.los.ray-count";
     private static final String HP_PRECISION_KEY = "perception.los.precision.hp";
     private static final String DAMAGE_PRECISION_KEY = "perception.los.precision.damage";
+    private static final String USE_GRID_KEY = "perception.los.grid";
+    private static final String GRID_CELL_SIZE_KEY = "perception.los.grid.cell-size";
 
-    private static final IntersectionSorter INTERSECTION_SORTER = new IntersectionSorter();
+    /** Sorts ray intersections by distance along the ray. */
+    static final IntersectionSorter INTERSECTION_SORTER = new IntersectionSorter();
 
     private int viewDistance;
     private int hpPrecision;
     private int damagePrecision;
     private int rayCount;
+    private boolean useGrid;
+    private int gridCellSize;
 
     private StandardWorldModel world;
+    private LineOfSightGrid grid;
     private Config config;
 
     private LOSView view;
@@ -103,6 +111,9 @@ public class LineOfSightPerception implements Perception, GUIComponent {
         hpPrecision = config.getIntValue(HP_PRECISION_KEY, DEFAULT_HP_PRECISION);
         damagePrecision = config.getIntValue(DAMAGE_PRECISION_KEY, DEFAULT_DAMAGE_PRECISION);
         rayCount = config.getIntValue(RAY_COUNT_KEY, DEFAULT_RAY_COUNT);
+        useGrid = config.getBooleanValue(USE_GRID_KEY, DEFAULT_USE_GRID);
+        gridCellSize = config.getIntValue(GRID_CELL_SIZE_KEY, DEFAULT_GRID_CELL_SIZE);
+        grid = null;
         view = null;
     }
 
@@ -127,12 +138,30 @@ public class LineOfSightPerception implements Perception, GUIComponent {
 
     @Override
     public void setTime(int timestep) {
+        // Build any lazily-created world model state before agents are perceived
+        if (!world.isIndexed()) {
+            world.index();
+        }
+        world.getEntitiesOfType(StandardEntityURN.REFUGE);
+        if (useGrid) {
+            if (grid == null) {
+                grid = new LineOfSightGrid(world, gridCellSize);
+            }
+            else {
+                grid.updateBlockades();
+            }
+        }
         if (view != null) {
             view.clear();
             view.refresh();
         }
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public ChangeSet getVisibleEntities(AgentProxy agent) {
         StandardEntity agentEntity = (StandardEntity)agent.getControlledEntity();
@@ -299,10 +328,18 @@ public class LineOfSightPerception implements Perception, GUIComponent {
         return value;
     }
 
-    private Collection<StandardEntity> findVisible(StandardEntity agentEntity, Point2D location, Collection<StandardEntity> nearby) {
+    /**
+       Find the entities visible from a location.
+       @param agentEntity The perceiving entity.
+       @param location The location of the perceiving entity.
+       @param nearby The entities within view distance.
+       @return The visible entities.
+    */
+    Collection<StandardEntity> findVisible(StandardEntity agentEntity, Point2D location, Collection<StandardEntity> nearby) {
         Logger.debug("Finding visible entities from " + location);
         Logger.debug(nearby.size() + " nearby entities");
-        Collection<LineInfo> lines = getAllLines(nearby);
+        // The grid finds lines itself; only the brute-force path needs the full list
+        Collection<LineInfo> lines = grid == null ? getAllLines(nearby) : null;
         // Cast rays
         // CHECKSTYLE:OFF:MagicNumber
         double dAngle = Math.PI * 2 / rayCount;
@@ -311,7 +348,7 @@ public class LineOfSightPerception implements Perception, GUIComponent {
         for (int i = 0; i < rayCount; ++i) {
             double angle = i * dAngle;
             Vector2D vector = new Vector2D(Math.sin(angle), Math.cos(angle)).scale(viewDistance);
-            Ray ray = new Ray(new Line2D(location, vector), lines);
+            Ray ray = castRay(new Line2D(location, vector), nearby, lines);
             for (LineInfo hit : ray.getLinesHit()) {
                 StandardEntity e = hit.getEntity();
                 result.add(e);
@@ -324,7 +361,7 @@ public class LineOfSightPerception implements Perception, GUIComponent {
         for (StandardEntity next : nearby) {
             if (next instanceof Human) {
                 Human h = (Human)next;
-                if (canSee(agentEntity, location, h, lines)) {
+                if (canSee(agentEntity, location, h, nearby, lines)) {
                     result.add(h);
                 }
             }
@@ -335,12 +372,12 @@ public class LineOfSightPerception implements Perception, GUIComponent {
         return result;
     }
 
-    private boolean canSee(StandardEntity agent, Point2D location, Human h, Collection<LineInfo> lines) {
+    private boolean canSee(StandardEntity agent, Point2D location, Human h, Collection<StandardEntity> nearby, Collection<LineInfo> lines) {
         if (h.isXDefined() && h.isYDefined()) {
             int x = h.getX();
             int y = h.getY();
             Point2D humanLocation = new Point2D(x, y);
-            Ray ray = new Ray(new Line2D(location, humanLocation), lines);
+            Ray ray = castRay(new Line2D(location, humanLocation), nearby, lines);
             if (ray.getVisibleLength() >= 1) {
                 if (view != null) {
                     view.addRay(agent, ray);
@@ -354,12 +391,31 @@ public class LineOfSightPerception implements Perception, GUIComponent {
             }
             Entity e = world.getEntity(h.getPosition());
             if (e instanceof AmbulanceTeam) {
-                return canSee(agent, location, (Human)e, lines);
+                return canSee(agent, location, (Human)e, nearby, lines);
             }
         }
         return false;
     }
 
+    private Ray castRay(Line2D line, Collection<StandardEntity> nearby, Collection<LineInfo> lines) {
+        if (lines == null) {
+            Pair<List<LineInfo>, Double> hits = grid.cast(line, nearby);
+            return new Ray(line, hits.first(), hits.second());
+        }
+        return new Ray(line, lines);
+    }
+
+    /**
+       Switch between the grid and the brute-force ray caster. This is used for timing comparisons.
+       @param enabled Whether to use the grid.
+    */
+    void setUseGrid(boolean enabled) {
+        useGrid = enabled;
+        if (!useGrid) {
+            grid = null;
+        }
+    }
+
     private Collection<LineInfo> getAllLines(Collection<StandardEntity> entities) {
         Collection<LineInfo> result = new LinkedList<LineInfo>();
         for (StandardEntity next : entities) {
@@ -398,6 +454,12 @@ public class LineOfSightPerception implements Perception, GUIComponent {
         /** List of lines hit in order. */
         private List<LineInfo> hit;
 
+        public Ray(Line2D ray, List<LineInfo> hit, double length) {
+            this.ray = ray;
+            this.hit = hit;
+            this.length = length;
+        }
+
         public Ray(Line2D ray, Collection<LineInfo> otherLines) {
             this.ray = ray;
             List<Pair<LineInfo, Double>> intersections = new ArrayList<Pair<LineInfo, Double>>();
@@ -435,12 +497,12 @@ public class LineOfSightPerception implements Perception, GUIComponent {
         }
     }
 
-    private static class LineInfo {
+    static class LineInfo {
         private Line2D line;
         private StandardEntity entity;
         private boolean blocking;
 
-        public LineInfo(Line2D line, StandardEntity entity, boolean blocking) {
+        LineInfo(Line2D line, StandardEntity entity, boolean blocking) {
             this.line = line;
             this.entity = entity;
             this.blocking = blocking;
@@ -459,7 +521,7 @@ public class LineOfSightPerception implements Perception, GUIComponent {
         }
     }
 
-    private static class IntersectionSorter implements Comparator<Pair<LineInfo, Double>>, java.io.Serializable {
+    static class IntersectionSorter implements Comparator<Pair<LineInfo, Double>>, java.io.Serializable {
         @Override
         public int compare(Pair<LineInfo, Double> a, Pair<LineInfo, Double> b) {
             double d1 = a.second();
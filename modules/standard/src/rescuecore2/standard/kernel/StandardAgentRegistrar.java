@@ -10,6 +10,7 @@ import kernel.ComponentManager;
 import kernel.KernelException;
 
 import rescuecore2.config.Config;
+import rescuecore2.messages.EncodedEntityList;
 import rescuecore2.worldmodel.WorldModel;
 import rescuecore2.worldmodel.Entity;
 import rescuecore2.worldmodel.Property;
@@ -91,6 +92,8 @@ public class StandardAgentRegistrar implements AgentRegistrar {
         for (Entity e : world) {
             maybeAddInitialEntity(e, initialEntities);
         }
+        // Encode the initial view once; each agent's own entity is substituted when it connects
+        EncodedEntityList encodedEntities = new EncodedEntityList(initialEntities);
         for (Entity e : world) {
         	   if (e instanceof FireBrigade
                        || e instanceof FireStation
@@ -99,22 +102,16 @@ public class StandardAgentRegistrar implements AgentRegistrar {
                        || e instanceof PoliceForce
                        || e instanceof PoliceOffice
                        ) {
-                   Set<Entity> s = new HashSet<Entity>(initialEntities);
-                   s.remove(e);
-                   s.add(e);
-                   manager.registerAgentControlledEntity(e, s, agentConfig);
+                   manager.registerAgentControlledEntity(e, encodedEntities, agentConfig);
                }
                if(e instanceof Civilian){
                	Config civilianConfig = new Config(agentConfig);
-               	Set<Entity> s = new HashSet<Entity>(initialEntities);
-                   s.remove(e);
-                   s.add(e);
                    String configSeed = config.getValue(Constants.RANDOM_SEED_KEY, "");
                    if(!configSeed.equals("")){
                    	int seed = Integer.parseInt(configSeed)+e.getID().getValue();
                    	civilianConfig.setValue(Constants.RANDOM_SEED_KEY,  seed+"");
                    }
-                   manager.registerAgentControlledEntity(e, s, civilianConfig);
+                   manager.registerAgentControlledEntity(e, encodedEntities, civilianConfig);
                }
 
         }
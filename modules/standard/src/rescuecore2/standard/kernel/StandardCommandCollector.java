@@ -60,7 +60,12 @@ public class StandardCommandCollector implements CommandCollector {
         return "Standard command collector";
     }
 
-    private boolean isTriggerCommand(Command c) {
+    /**
+       Find out if a command ends an agent's turn, i.e. it is an action rather than communication.
+       @param c The command to check.
+       @return True if the command is a trigger command.
+    */
+    static boolean isTriggerCommand(Command c) {
         return ((c instanceof AKMove)
                 || (c instanceof AKRest)
                 || (c instanceof AKExtinguish)
@@ -11,6 +11,8 @@ import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.swing.BorderFactory;
 import javax.swing.JCheckBox;
@@ -84,8 +86,9 @@ public class StandardPerception implements Perception, GUIComponent {
   private Map<Building, Integer> ignitionTimes;
   private Config config;
 
-  // Lock object for updating via the GUI.
-  private final Object lock = new Object();
+  // Lock for updating via the GUI. Perception only needs the read lock so
+  // several agents can be perceived at once.
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
   /**
    * Create a StandardPerception object.
@@ -153,11 +156,22 @@ public class StandardPerception implements Perception, GUIComponent {
     time = timestep;
     // Look for scripting elements in the config file
     checkForScript();
+    // Build any lazily-created world model state before agents are perceived
+    if (!world.isIndexed()) {
+      world.index();
+    }
+    world.getEntitiesOfType(StandardEntityURN.REFUGE);
+  }
+
+  @Override
+  public boolean isThreadSafe() {
+    return true;
   }
 
   @Override
   public ChangeSet getVisibleEntities(AgentProxy agent) {
-    synchronized (lock) {
+    lock.readLock().lock();
+    try {
       StandardEntity agentEntity = (StandardEntity) agent.getControlledEntity();
       ChangeSet result = new ChangeSet();
       // Look for roads/nodes/buildings/humans within range
@@ -230,6 +244,8 @@ public class StandardPerception implements Perception, GUIComponent {
         }
       }
       return result;
+    } finally {
+      lock.readLock().unlock();
     }
   }
 
@@ -322,32 +338,44 @@ public class StandardPerception implements Perception, GUIComponent {
   }
 
   private void updateViewDistance(int value) {
-    synchronized (lock) {
+    lock.writeLock().lock();
+    try {
       viewDistance = value;
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
   private void updateHPPrecision(int value) {
-    synchronized (lock) {
+    lock.writeLock().lock();
+    try {
       if (value == 0) {
         value = 1;
       }
       hpPrecision = value;
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
   private void updateDamagePrecision(int value) {
-    synchronized (lock) {
+    lock.writeLock().lock();
+    try {
       if (value == 0) {
         value = 1;
       }
       damagePrecision = value;
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
   private void updateUseFarFires(boolean value) {
-    synchronized (lock) {
+    lock.writeLock().lock();
+    try {
       useFarFires = value;
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -1,5 +1,10 @@
 package rescuecore2.standard.kernel.comms;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import rescuecore2.config.Config;
@@ -7,6 +12,7 @@ import rescuecore2.worldmodel.Entity;
 import rescuecore2.worldmodel.EntityID;
 import rescuecore2.misc.collections.LazyMap;
 import rescuecore2.log.Logger;
+import rescuecore2.misc.Pair;
 
 import rescuecore2.standard.messages.AKSpeak;
 import rescuecore2.standard.entities.StandardWorldModel;
@@ -15,19 +21,29 @@ import rescuecore2.standard.entities.StandardEntityURN;
 import rescuecore2.standard.entities.Human;
 
 /**
-   A voice channel.
+   A voice channel. Messages are heard by all humans within range of the speaker. The positions of the humans are put into a grid with cells as large as the range once per timestep, so each message only looks at the humans in nearby cells. Humans without a location hear every message, and every human hears messages from a speaker without a location.
 */
 public class VoiceChannel extends AbstractChannel {
     // Config option suffixes
     private static final String RANGE_SUFFIX = ".range";
     private static final String MESSAGE_SIZE_SUFFIX = ".messages.size";
     private static final String MESSAGE_MAX_SUFFIX = ".messages.max";
+    private static final String USE_GRID_SUFFIX = ".grid";
 
     private int range;
     private int maxSize;
     private int maxMessages;
     private Map<EntityID, Integer> uttered;
     private StandardWorldModel world;
+    private boolean useGrid;
+
+    // Humans in the order the world model lists them, rebuilt each timestep
+    private StandardEntity[] humans;
+    private int[] humanX;
+    private int[] humanY;
+    private int[] unlocated;
+    private Map<Long, int[]> cells;
+    private int cellSize;
 
     /**
        Create a VoiceChannel.
@@ -41,6 +57,7 @@ public class VoiceChannel extends AbstractChannel {
         range = config.getIntValue(ChannelCommunicationModel.PREFIX + channelID + RANGE_SUFFIX);
         maxSize = config.getIntValue(ChannelCommunicationModel.PREFIX + channelID + MESSAGE_SIZE_SUFFIX);
         maxMessages = config.getIntValue(ChannelCommunicationModel.PREFIX + channelID + MESSAGE_MAX_SUFFIX);
+        useGrid = config.getBooleanValue(ChannelCommunicationModel.PREFIX + channelID + USE_GRID_SUFFIX, true);
         uttered = new LazyMap<EntityID, Integer>() {
             @Override
             public Integer createValue() {
@@ -53,6 +70,7 @@ public class VoiceChannel extends AbstractChannel {
     public void timestep() {
         super.timestep();
         uttered.clear();
+        humans = null;
     }
 
     @Override
@@ -76,12 +94,113 @@ public class VoiceChannel extends AbstractChannel {
         uttered.put(agentID, count + 1);
         // Find out who can hear it
         StandardEntity sender = world.getEntity(agentID);
-        for (StandardEntity target : world.getEntitiesOfType(StandardEntityURN.FIRE_BRIGADE, StandardEntityURN.AMBULANCE_TEAM, StandardEntityURN.POLICE_FORCE, StandardEntityURN.CIVILIAN)) {
-            if (world.getDistance(sender, target) <= range) {
-                Logger.debug(target + " can hear voice message from " + sender);
-                addMessageForAgent(target, speak);
+        if (!useGrid) {
+            for (StandardEntity target : world.getEntitiesOfType(StandardEntityURN.FIRE_BRIGADE, StandardEntityURN.AMBULANCE_TEAM, StandardEntityURN.POLICE_FORCE, StandardEntityURN.CIVILIAN)) {
+                if (world.getDistance(sender, target) <= range) {
+                    Logger.debug(target + " can hear voice message from " + sender);
+                    addMessageForAgent(target, speak);
+                }
+            }
+            return;
+        }
+        if (humans == null) {
+            buildGrid();
+        }
+        // Deliver in the same order as a scan of all humans so noise is applied identically
+        for (int next : findListeners(sender.getLocation(world))) {
+            StandardEntity target = humans[next];
+            Logger.debug(target + " can hear voice message from " + sender);
+            addMessageForAgent(target, speak);
+        }
+    }
+
+    /**
+       Switch between the grid and a scan of all humans. This is used for timing comparisons.
+       @param enabled Whether to use the grid.
+    */
+    void setUseGrid(boolean enabled) {
+        useGrid = enabled;
+        humans = null;
+    }
+
+    private void buildGrid() {
+        Collection<StandardEntity> all = world.getEntitiesOfType(StandardEntityURN.FIRE_BRIGADE, StandardEntityURN.AMBULANCE_TEAM, StandardEntityURN.POLICE_FORCE, StandardEntityURN.CIVILIAN);
+        humans = all.toArray(new StandardEntity[all.size()]);
+        humanX = new int[humans.length];
+        humanY = new int[humans.length];
+        cellSize = Math.max(1, range);
+        Map<Long, List<Integer>> lists = new HashMap<Long, List<Integer>>();
+        List<Integer> noLocation = new ArrayList<Integer>();
+        for (int i = 0; i < humans.length; ++i) {
+            Pair<Integer, Integer> location = humans[i].getLocation(world);
+            if (location == null) {
+                noLocation.add(i);
+                continue;
+            }
+            humanX[i] = location.first();
+            humanY[i] = location.second();
+            Long key = cellKey(Math.floorDiv(humanX[i], cellSize), Math.floorDiv(humanY[i], cellSize));
+            List<Integer> list = lists.get(key);
+            if (list == null) {
+                list = new ArrayList<Integer>();
+                lists.put(key, list);
             }
+            list.add(i);
+        }
+        cells = new HashMap<Long, int[]>();
+        for (Map.Entry<Long, List<Integer>> next : lists.entrySet()) {
+            cells.put(next.getKey(), toArray(next.getValue()));
+        }
+        unlocated = toArray(noLocation);
+    }
+
+    private int[] findListeners(Pair<Integer, Integer> location) {
+        if (location == null) {
+            // The distance to everyone is unknown, which counts as in range
+            int[] result = new int[humans.length];
+            for (int i = 0; i < result.length; ++i) {
+                result[i] = i;
+            }
+            return result;
+        }
+        int x = location.first();
+        int y = location.second();
+        int cx = Math.floorDiv(x, cellSize);
+        int cy = Math.floorDiv(y, cellSize);
+        int[] result = Arrays.copyOf(unlocated, unlocated.length + 16);
+        int count = unlocated.length;
+        for (int dx = -1; dx <= 1; ++dx) {
+            for (int dy = -1; dy <= 1; ++dy) {
+                int[] cell = cells.get(cellKey(cx + dx, cy + dy));
+                if (cell == null) {
+                    continue;
+                }
+                for (int next : cell) {
+                    // Same rounding as StandardWorldModel.getDistance
+                    if ((int)Math.hypot(humanX[next] - x, humanY[next] - y) <= range) {
+                        if (count == result.length) {
+                            result = Arrays.copyOf(result, count * 2);
+                        }
+                        result[count++] = next;
+                    }
+                }
+            }
+        }
+        result = Arrays.copyOf(result, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static Long cellKey(int cx, int cy) {
+        return ((long)cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = list.get(i);
         }
+        return result;
     }
 
     @Override
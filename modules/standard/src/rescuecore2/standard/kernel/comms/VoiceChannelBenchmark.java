@@ -0,0 +1,162 @@
+package rescuecore2.standard.kernel.comms;
+
+import static rescuecore2.misc.java.JavaTools.instantiate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import kernel.KernelConstants;
+import kernel.KernelException;
+import kernel.WorldModelCreator;
+
+import rescuecore2.config.Config;
+import rescuecore2.config.ConfigException;
+import rescuecore2.misc.CommandLineOptions;
+import rescuecore2.misc.Pair;
+import rescuecore2.standard.entities.Building;
+import rescuecore2.standard.entities.Civilian;
+import rescuecore2.standard.entities.Human;
+import rescuecore2.standard.entities.StandardEntity;
+import rescuecore2.standard.entities.StandardEntityURN;
+import rescuecore2.standard.entities.StandardWorldModel;
+import rescuecore2.standard.messages.AKSpeak;
+import rescuecore2.worldmodel.EntityID;
+
+/**
+   Timing comparison between the grid and the scan of all humans in {@link VoiceChannel}. Every human in the scenario speaks several times per round. Extra civilians can be added to buildings at random to simulate a crowded scenario.
+   <p>
+   Usage: VoiceChannelBenchmark -c kernel.cfg --gis.map.dir=map [-r rounds] [-m messages per human] [-n extra civilians]
+ */
+public final class VoiceChannelBenchmark {
+    private static final int DEFAULT_ROUNDS = 5;
+    private static final int DEFAULT_MESSAGES = 4;
+    private static final int DEFAULT_RANGE = 30000;
+    private static final int MESSAGE_SIZE = 256;
+    private static final int CHANNEL = 0;
+    private static final long SEED = 42;
+    private static final int CIVILIAN_HP = 10000;
+    private static final String DEFAULT_GIS = "gis2.GMLWorldModelCreator";
+
+    private VoiceChannelBenchmark() {}
+
+    /**
+       Run the timing comparison.
+       @param args Command line arguments.
+       @throws IOException If the config cannot be read.
+       @throws ConfigException If the config is invalid.
+       @throws KernelException If the map cannot be loaded.
+       @throws InvalidMessageException If a message is rejected by a channel.
+    */
+    public static void main(String[] args) throws IOException, ConfigException, KernelException, InvalidMessageException {
+        Config config = new Config();
+        args = CommandLineOptions.processArgs(args, config);
+        int rounds = DEFAULT_ROUNDS;
+        int messages = DEFAULT_MESSAGES;
+        int extra = 0;
+        // CHECKSTYLE:OFF:ModifiedControlVariable
+        for (int i = 0; i < args.length; ++i) {
+            if ("-r".equalsIgnoreCase(args[i])) {
+                rounds = Integer.parseInt(args[++i]);
+            }
+            else if ("-m".equalsIgnoreCase(args[i])) {
+                messages = Integer.parseInt(args[++i]);
+            }
+            else if ("-n".equalsIgnoreCase(args[i])) {
+                extra = Integer.parseInt(args[++i]);
+            }
+            else {
+                System.out.println("Unrecognised option: " + args[i]);
+            }
+        }
+        // CHECKSTYLE:ON:ModifiedControlVariable
+        WorldModelCreator creator = instantiate(config.getValue(KernelConstants.GIS_KEY + ".auto", DEFAULT_GIS), WorldModelCreator.class);
+        if (creator == null) {
+            System.out.println("Couldn't create world model creator");
+            return;
+        }
+        StandardWorldModel world = StandardWorldModel.createStandardWorldModel(creator.buildWorldModel(config));
+        addCivilians(world, extra);
+        String prefix = ChannelCommunicationModel.PREFIX + CHANNEL;
+        if (!config.isDefined(prefix + ".range")) {
+            config.setIntValue(prefix + ".range", DEFAULT_RANGE);
+        }
+        config.setIntValue(prefix + ".messages.size", MESSAGE_SIZE);
+        config.setIntValue(prefix + ".messages.max", messages);
+        VoiceChannel scan = new VoiceChannel(config, CHANNEL, world);
+        scan.setUseGrid(false);
+        VoiceChannel grid = new VoiceChannel(config, CHANNEL, world);
+        List<Human> humans = new ArrayList<Human>();
+        for (StandardEntity next : world.getEntitiesOfType(StandardEntityURN.FIRE_BRIGADE, StandardEntityURN.AMBULANCE_TEAM, StandardEntityURN.POLICE_FORCE, StandardEntityURN.CIVILIAN)) {
+            humans.add((Human)next);
+        }
+        System.out.println(humans.size() + " humans, " + messages + " messages each, " + rounds + " rounds, range " + config.getIntValue(prefix + ".range"));
+        long scanTime = 0;
+        long gridTime = 0;
+        int mismatches = 0;
+        for (int round = 0; round < rounds; ++round) {
+            List<AKSpeak> speech = new ArrayList<AKSpeak>();
+            for (int i = 0; i < messages; ++i) {
+                for (Human next : humans) {
+                    speech.add(new AKSpeak(next.getID(), round, CHANNEL, new byte[] {(byte)i}));
+                }
+            }
+            scan.timestep();
+            grid.timestep();
+            long start = System.nanoTime();
+            for (AKSpeak next : speech) {
+                scan.push(next);
+            }
+            long middle = System.nanoTime();
+            for (AKSpeak next : speech) {
+                grid.push(next);
+            }
+            long end = System.nanoTime();
+            scanTime += middle - start;
+            gridTime += end - middle;
+            if (round == 0) {
+                for (Human next : humans) {
+                    if (!scan.getMessagesForAgent(next).equals(grid.getMessagesForAgent(next))) {
+                        ++mismatches;
+                    }
+                }
+            }
+        }
+        // CHECKSTYLE:OFF:MagicNumber
+        double calls = (double)humans.size() * messages * rounds;
+        System.out.println("Scan: " + (scanTime / 1000000) + "ms (average " + (scanTime / calls / 1000.0) + "us per message)");
+        System.out.println("Grid: " + (gridTime / 1000000) + "ms (average " + (gridTime / calls / 1000.0) + "us per message)");
+        // CHECKSTYLE:ON:MagicNumber
+        System.out.println("Listeners with different messages: " + mismatches);
+    }
+
+    private static void addCivilians(StandardWorldModel world, int count) {
+        if (count <= 0) {
+            return;
+        }
+        List<Building> buildings = new ArrayList<Building>();
+        int maxID = 0;
+        for (StandardEntity next : world) {
+            maxID = Math.max(maxID, next.getID().getValue());
+            if (next instanceof Building) {
+                buildings.add((Building)next);
+            }
+        }
+        if (buildings.isEmpty()) {
+            return;
+        }
+        Random random = new Random(SEED);
+        Collection<StandardEntity> added = new ArrayList<StandardEntity>();
+        for (int i = 0; i < count; ++i) {
+            Building b = buildings.get(random.nextInt(buildings.size()));
+            Pair<Integer, Integer> location = b.getLocation(world);
+            Civilian c = new Civilian(new EntityID(++maxID));
+            c.setPosition(b.getID(), location.first(), location.second());
+            c.setHP(CIVILIAN_HP);
+            added.add(c);
+        }
+        world.addEntities(added);
+    }
+}
@@ -0,0 +1,257 @@
+package rescuecore2.standard.misc;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.TopologyException;
+import com.vividsolutions.jts.operation.union.CascadedPolygonUnion;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import rescuecore2.misc.geometry.Point2D;
+
+/**
+ * Polygon clipping for blockades and areas. Shapes are JTS geometries, and
+ * polygons are read from and written to apex arrays (x1, y1, x2, y2, ...) as
+ * used by blockades and areas. Output apexes are truncated to integers.
+ */
+public final class PolygonTools {
+
+  private static final GeometryFactory FACTORY = new GeometryFactory();
+
+
+  private PolygonTools() {
+  }
+
+
+  /**
+   * Create a polygon from an apex array. Self-intersecting outlines are
+   * repaired.
+   *
+   * @param apexes
+   *   The apexes as x1, y1, x2, y2, ...
+   *
+   * @return The polygon, or an empty geometry if there are fewer than three
+   * apexes.
+   */
+  public static Geometry toGeometry(int[] apexes) {
+    int count = apexes.length / 2;
+    Coordinate[] coordinates = new Coordinate[count];
+    for (int i = 0; i < count; ++i) {
+      coordinates[i] = new Coordinate(apexes[i * 2], apexes[i * 2 + 1]);
+    }
+    return toGeometry(coordinates);
+  }
+
+
+  /**
+   * Create a polygon from a list of points. Self-intersecting outlines are
+   * repaired.
+   *
+   * @param points
+   *   The corners of the polygon.
+   *
+   * @return The polygon, or an empty geometry if there are fewer than three
+   * points.
+   */
+  public static Geometry toGeometry(Point2D... points) {
+    Coordinate[] coordinates = new Coordinate[points.length];
+    for (int i = 0; i < points.length; ++i) {
+      coordinates[i] = new Coordinate(points[i].getX(), points[i].getY());
+    }
+    return toGeometry(coordinates);
+  }
+
+
+  /**
+   * Get the area within a distance of the outline of a polygon. Each wall
+   * contributes a strip of twice the distance with round ends; the inside of
+   * the polygon is not covered unless the distance reaches across it.
+   *
+   * @param apexes
+   *   The apexes of the polygon as x1, y1, x2, y2, ...
+   * @param distance
+   *   The distance from the outline.
+   *
+   * @return The area, or an empty geometry if the distance is not positive or
+   * there are fewer than two apexes.
+   */
+  public static Geometry bufferOutline(int[] apexes, double distance) {
+    int count = apexes.length / 2;
+    if (count < 2 || distance <= 0) {
+      return FACTORY.createPolygon(null, null);
+    }
+    Coordinate[] coordinates = new Coordinate[count + 1];
+    for (int i = 0; i < count; ++i) {
+      coordinates[i] = new Coordinate(apexes[i * 2], apexes[i * 2 + 1]);
+    }
+    coordinates[count] = new Coordinate(coordinates[0]);
+    return FACTORY.createLineString(coordinates).buffer(distance);
+  }
+
+
+  /**
+   * Get the union of some geometries.
+   *
+   * @param geometries
+   *   The geometries to join.
+   *
+   * @return The union of the polygons in the geometries.
+   */
+  public static Geometry union(Collection<Geometry> geometries) {
+    List<Polygon> polygons = new ArrayList<Polygon>();
+    for (Geometry next : geometries) {
+      addPolygons(next, polygons);
+    }
+    if (polygons.isEmpty()) {
+      return FACTORY.createGeometryCollection(new Geometry[0]);
+    }
+    return CascadedPolygonUnion.union(polygons);
+  }
+
+
+  /**
+   * Get the intersection of two geometries.
+   *
+   * @param a
+   *   The first geometry.
+   * @param b
+   *   The second geometry.
+   *
+   * @return The intersection.
+   */
+  public static Geometry intersection(Geometry a, Geometry b) {
+    try {
+      return a.intersection(b);
+    } catch (TopologyException e) {
+      return a.buffer(0).intersection(b.buffer(0));
+    }
+  }
+
+
+  /**
+   * Subtract one geometry from another.
+   *
+   * @param a
+   *   The geometry to subtract from.
+   * @param b
+   *   The geometry to subtract.
+   *
+   * @return The part of a that is not in b.
+   */
+  public static Geometry difference(Geometry a, Geometry b) {
+    try {
+      return a.difference(b);
+    } catch (TopologyException e) {
+      return a.buffer(0).difference(b.buffer(0));
+    }
+  }
+
+
+  /**
+   * Get the apexes of each polygon in a geometry. Apex arrays cannot describe
+   * holes, so polygons with holes are first cut in two across each hole.
+   * Polygons with fewer than three distinct integer apexes are dropped.
+   *
+   * @param geometry
+   *   The geometry to convert.
+   *
+   * @return One apex array per polygon.
+   */
+  public static List<int[]> toApexes(Geometry geometry) {
+    List<Polygon> polygons = new ArrayList<Polygon>();
+    addPolygons(geometry, polygons);
+    List<int[]> result = new ArrayList<int[]>();
+    for (int i = 0; i < polygons.size(); ++i) {
+      Polygon next = polygons.get(i);
+      if (next.getNumInteriorRing() > 0) {
+        // Cut across the first hole and look at the pieces again
+        for (Geometry half : splitAtHole(next)) {
+          addPolygons(half, polygons);
+        }
+        continue;
+      }
+      int[] apexes = ringToApexes(next.getExteriorRing());
+      if (apexes != null) {
+        result.add(apexes);
+      }
+    }
+    return result;
+  }
+
+
+  static void addPolygons(Geometry geometry, List<Polygon> result) {
+    if (geometry instanceof Polygon) {
+      if (!geometry.isEmpty()) {
+        result.add((Polygon) geometry);
+      }
+      return;
+    }
+    for (int i = 0; i < geometry.getNumGeometries(); ++i) {
+      Geometry next = geometry.getGeometryN(i);
+      if (next != geometry) {
+        addPolygons(next, result);
+      }
+    }
+  }
+
+
+  private static Geometry toGeometry(Coordinate[] coordinates) {
+    if (coordinates.length < 3) {
+      return FACTORY.createPolygon(null, null);
+    }
+    Coordinate[] ring = new Coordinate[coordinates.length + 1];
+    System.arraycopy(coordinates, 0, ring, 0, coordinates.length);
+    ring[coordinates.length] = new Coordinate(coordinates[0]);
+    Geometry result = FACTORY.createPolygon(FACTORY.createLinearRing(ring), null);
+    if (!result.isValid()) {
+      result = result.buffer(0);
+    }
+    return result;
+  }
+
+
+  private static Geometry[] splitAtHole(Polygon polygon) {
+    Envelope bounds = polygon.getEnvelopeInternal();
+    Envelope hole = polygon.getInteriorRingN(0).getEnvelopeInternal();
+    // A vertical line strictly inside the x range of the hole crosses it
+    double x = (hole.getMinX() + hole.getMaxX()) / 2;
+    Geometry left = FACTORY.toGeometry(new Envelope(bounds.getMinX() - 1, x,
+        bounds.getMinY() - 1, bounds.getMaxY() + 1));
+    Geometry right = FACTORY.toGeometry(new Envelope(x, bounds.getMaxX() + 1,
+        bounds.getMinY() - 1, bounds.getMaxY() + 1));
+    return new Geometry[] {intersection(polygon, left), intersection(polygon, right)};
+  }
+
+
+  private static int[] ringToApexes(LineString ring) {
+    Coordinate[] coordinates = ring.getCoordinates();
+    // The last coordinate repeats the first
+    int count = coordinates.length - 1;
+    int[] apexes = new int[count * 2];
+    int n = 0;
+    for (int i = 0; i < count; ++i) {
+      int x = (int) coordinates[i].x;
+      int y = (int) coordinates[i].y;
+      if (n > 0 && apexes[n - 2] == x && apexes[n - 1] == y) {
+        continue;
+      }
+      apexes[n++] = x;
+      apexes[n++] = y;
+    }
+    if (n >= 4 && apexes[0] == apexes[n - 2] && apexes[1] == apexes[n - 1]) {
+      n -= 2;
+    }
+    // CHECKSTYLE:OFF:MagicNumber
+    if (n < 6) {
+      // CHECKSTYLE:ON:MagicNumber
+      return null;
+    }
+    int[] result = new int[n];
+    System.arraycopy(apexes, 0, result, 0, n);
+    return result;
+  }
+}
@@ -0,0 +1,217 @@
+package rescuecore2.standard.misc;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Polygon;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import rescuecore2.misc.geometry.Point2D;
+import rescuecore2.misc.geometry.Vector2D;
+
+/**
+ * The area of a geometry that lies inside a straight strip, as a function of
+ * how far along the strip is measured. The geometry is clipped to the strip
+ * once; after that the covered area up to any distance is computed from the
+ * clipped outline without further polygon operations.
+ * <p>
+ * The covered area grows piecewise quadratically with the distance, with
+ * breaks at the distances of the outline vertices, so the distance at which
+ * a given area is reached can also be solved for directly.
+ */
+public final class StripProfile {
+
+  private final double length;
+  // Outline rings in strip coordinates, counter-clockwise for shells and
+  // clockwise for holes
+  private final List<double[]> ringS;
+  private final List<double[]> ringT;
+  private final double[] breaks;
+
+
+  /**
+   * Construct a StripProfile.
+   *
+   * @param geometry
+   *   The covering geometry. Overlapping polygons are counted once.
+   * @param origin
+   *   The middle of the start of the strip.
+   * @param direction
+   *   The direction of the strip.
+   * @param halfWidth
+   *   Half the width of the strip.
+   * @param length
+   *   The length of the strip.
+   */
+  public StripProfile(Geometry geometry, Point2D origin, Vector2D direction,
+      double halfWidth, double length) {
+    this.length = length;
+    Vector2D u = direction.normalised();
+    Vector2D n = new Vector2D(-u.getY(), u.getX());
+    Point2D end = origin.plus(u.scale(length));
+    Geometry strip = PolygonTools.toGeometry(origin.plus(n.scale(-halfWidth)),
+        end.plus(n.scale(-halfWidth)), end.plus(n.scale(halfWidth)),
+        origin.plus(n.scale(halfWidth)));
+    List<Geometry> parts = new ArrayList<Geometry>();
+    parts.add(geometry);
+    Geometry covered = PolygonTools.intersection(PolygonTools.union(parts), strip);
+    List<Polygon> polygons = new ArrayList<Polygon>();
+    PolygonTools.addPolygons(covered, polygons);
+    ringS = new ArrayList<double[]>();
+    ringT = new ArrayList<double[]>();
+    List<Double> vertexS = new ArrayList<Double>();
+    for (Polygon next : polygons) {
+      addRing(next.getExteriorRing().getCoordinates(), origin, u, n, true, vertexS);
+      for (int i = 0; i < next.getNumInteriorRing(); ++i) {
+        addRing(next.getInteriorRingN(i).getCoordinates(), origin, u, n, false, vertexS);
+      }
+    }
+    vertexS.add(0.0);
+    vertexS.add(length);
+    double[] sorted = new double[vertexS.size()];
+    int count = 0;
+    for (double s : vertexS) {
+      sorted[count++] = Math.max(0, Math.min(length, s));
+    }
+    Arrays.sort(sorted);
+    int unique = 0;
+    for (int i = 0; i < count; ++i) {
+      if (unique == 0 || sorted[i] > sorted[unique - 1]) {
+        sorted[unique++] = sorted[i];
+      }
+    }
+    breaks = Arrays.copyOf(sorted, unique);
+  }
+
+
+  /**
+   * Get the length of the strip.
+   *
+   * @return The length.
+   */
+  public double getLength() {
+    return length;
+  }
+
+
+  /**
+   * Get the covered area of the strip up to a distance along it.
+   *
+   * @param distance
+   *   The distance from the start of the strip.
+   *
+   * @return The covered area between the start of the strip and the distance.
+   */
+  public double getArea(double distance) {
+    double limit = Math.max(0, Math.min(length, distance));
+    double sum = 0;
+    for (int r = 0; r < ringS.size(); ++r) {
+      double[] s = ringS.get(r);
+      double[] t = ringT.get(r);
+      for (int i = 0; i < s.length - 1; ++i) {
+        sum += integrate(s[i], t[i], s[i + 1], t[i + 1], limit);
+      }
+    }
+    // The area is minus the integral of t ds around the outline
+    return Math.max(0, -sum);
+  }
+
+
+  /**
+   * Find the longest distance along the strip that covers no more than an
+   * area.
+   *
+   * @param area
+   *   The area.
+   *
+   * @return The largest distance in [0, length] at which the covered area is
+   * not larger than the given area, or 0 if even the start of the strip covers
+   * more.
+   */
+  public double getDistance(double area) {
+    if (getArea(length) <= area) {
+      return length;
+    }
+    double lowArea = getArea(0);
+    if (lowArea > area) {
+      return 0;
+    }
+    for (int i = 1; i < breaks.length; ++i) {
+      double high = breaks[i];
+      double highArea = getArea(high);
+      if (highArea > area) {
+        double low = breaks[i - 1];
+        // The area is quadratic in the distance between two breaks
+        double midArea = getArea((low + high) / 2);
+        double c = 2 * (highArea - 2 * midArea + lowArea);
+        double b = highArea - lowArea - c;
+        double target = area - lowArea;
+        double x;
+        if (Math.abs(c) < 1e-9 * Math.max(1, Math.abs(b))) {
+          x = b > 0 ? target / b : 0;
+        } else {
+          double denominator = b + Math.sqrt(Math.max(0, b * b + 4 * c * target));
+          // Stable form of the root in [0, 1]
+          x = denominator > 0 ? (2 * target) / denominator : 1;
+        }
+        return low + Math.max(0, Math.min(1, x)) * (high - low);
+      }
+      lowArea = highArea;
+    }
+    return length;
+  }
+
+
+  private void addRing(Coordinate[] coordinates, Point2D origin, Vector2D u,
+      Vector2D n, boolean shell, List<Double> vertexS) {
+    double[] s = new double[coordinates.length];
+    double[] t = new double[coordinates.length];
+    double signedArea = 0;
+    for (int i = 0; i < coordinates.length; ++i) {
+      double dx = coordinates[i].x - origin.getX();
+      double dy = coordinates[i].y - origin.getY();
+      s[i] = dx * u.getX() + dy * u.getY();
+      t[i] = dx * n.getX() + dy * n.getY();
+      vertexS.add(s[i]);
+      if (i > 0) {
+        signedArea += s[i - 1] * t[i] - s[i] * t[i - 1];
+      }
+    }
+    // Counter-clockwise rings have positive signed area
+    if ((signedArea > 0) != shell) {
+      reverse(s);
+      reverse(t);
+    }
+    ringS.add(s);
+    ringT.add(t);
+  }
+
+
+  // The integral of t ds along the part of a segment before the limit
+  private static double integrate(double s1, double t1, double s2, double t2,
+      double limit) {
+    if (s1 > limit && s2 > limit) {
+      return 0;
+    }
+    if (s1 > limit || s2 > limit) {
+      double tLimit = t1 + (t2 - t1) * (limit - s1) / (s2 - s1);
+      if (s1 > limit) {
+        s1 = limit;
+        t1 = tLimit;
+      } else {
+        s2 = limit;
+        t2 = tLimit;
+      }
+    }
+    return (s2 - s1) * (t1 + t2) / 2;
+  }
+
+
+  private static void reverse(double[] values) {
+    for (int i = 0, j = values.length - 1; i < j; ++i, --j) {
+      double tmp = values[i];
+      values[i] = values[j];
+      values[j] = tmp;
+    }
+  }
+}
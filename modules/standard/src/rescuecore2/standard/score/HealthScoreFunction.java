@@ -1,17 +1,16 @@
 package rescuecore2.standard.score;
 
-import rescuecore2.score.AbstractScoreFunction;
+import rescuecore2.score.IncrementalScoreFunction;
 import rescuecore2.config.Config;
 import rescuecore2.worldmodel.WorldModel;
 import rescuecore2.worldmodel.Entity;
-import rescuecore2.Timestep;
 
 import rescuecore2.standard.entities.Civilian;
 
 /**
    Score function that measures the health of living civilians.
  */
-public class HealthScoreFunction extends AbstractScoreFunction {
+public class HealthScoreFunction extends IncrementalScoreFunction {
     private static final String ABSOLUTE_KEY = "score.standard.health.absolute";
     private static final double MAX = 10000;
 
@@ -21,33 +20,36 @@ public class HealthScoreFunction extends AbstractScoreFunction {
        Construct a HealthScoreFunction.
     */
     public HealthScoreFunction() {
-        super("Civilian health");
+        super("Civilian health", 2);
     }
 
     @Override
     public void initialise(WorldModel<? extends Entity> world, Config config) {
+        super.initialise(world, config);
         absolute = config.getBooleanValue(ABSOLUTE_KEY, false);
         setName(absolute ? "Civilian health (absolute)" : "Civilian health (proportion)");
     }
 
     @Override
-    public double score(WorldModel<? extends Entity> world, Timestep timestep) {
-        double sum = 0;
-        double max = 0;
-        for (Entity next : world) {
-            if (next instanceof Civilian) {
-                Civilian c = (Civilian)next;
-                if (c.isHPDefined()) {
-                    sum += c.getHP();
-                }
-                max += MAX;
-            }
+    protected boolean contribute(Entity e, double[] values) {
+        if (!(e instanceof Civilian)) {
+            return false;
         }
+        Civilian c = (Civilian)e;
+        if (c.isHPDefined()) {
+            values[0] = c.getHP();
+        }
+        values[1] = MAX;
+        return true;
+    }
+
+    @Override
+    protected double computeScore(double[] sums) {
         if (absolute) {
-            return sum;
+            return sums[0];
         }
         else {
-            return sum / max;
+            return sums[0] / sums[1];
         }
     }
 }
@@ -0,0 +1,475 @@
+package traffic3.objects;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import rescuecore2.misc.geometry.GeometryTools2D;
+import rescuecore2.misc.geometry.Line2D;
+import rescuecore2.misc.geometry.Point2D;
+
+/**
+ * A sparse graph of waypoints inside a TrafficArea. There is one waypoint at
+ * the midpoint of each open line of the area, and two waypoints are connected
+ * if the line between them crosses no blocking line and no other open line.
+ * <p>
+ * Graphs are immutable. When the blockades of an area change a new graph is
+ * made with {@link #repair(List, List)}, which keeps the connections between
+ * unchanged open lines that the changed lines cannot affect.
+ */
+public final class NavigationGraph {
+	/** The graph of an area without open lines. */
+	public static final NavigationGraph EMPTY = new NavigationGraph(
+			Collections.<Line2D>emptyList(), Collections.<Line2D>emptyList(),
+			new int[0][]);
+
+	private final List<Line2D> openLines;
+	private final List<Line2D> blockingLines;
+	private final Point2D[] waypoints;
+	private final int[][] neighbours;
+
+	private NavigationGraph(List<Line2D> openLines, List<Line2D> blockingLines,
+			int[][] neighbours) {
+		this.openLines = openLines;
+		this.blockingLines = blockingLines;
+		this.neighbours = neighbours;
+		waypoints = new Point2D[openLines.size()];
+		for (int i = 0; i < waypoints.length; ++i) {
+			waypoints[i] = getMidPoint(openLines.get(i));
+		}
+	}
+
+	/**
+	 * Build the graph of a set of open lines.
+	 *
+	 * @param openLines
+	 *            The open lines of the area.
+	 * @param blockingLines
+	 *            All lines that block movement in the area.
+	 * @return A new NavigationGraph.
+	 */
+	public static NavigationGraph build(List<Line2D> openLines,
+			List<Line2D> blockingLines) {
+		if (openLines.isEmpty()) {
+			return EMPTY;
+		}
+		Visibility visibility = new Visibility(openLines, blockingLines);
+		List<List<Integer>> edges = newEdgeLists(openLines.size());
+		for (int i = 0; i < openLines.size(); ++i) {
+			for (int j = i + 1; j < openLines.size(); ++j) {
+				if (visibility.isVisible(i, j)) {
+					addEdge(edges, i, j);
+				}
+			}
+		}
+		return new NavigationGraph(copy(openLines), copy(blockingLines),
+				toArrays(edges));
+	}
+
+	/**
+	 * Make the graph for a changed set of open and blocking lines. Open lines
+	 * that are in both sets keep their connection unless it crosses an added
+	 * line, and stay disconnected unless they were separated by a removed line.
+	 * All other pairs are checked again.
+	 *
+	 * @param newOpenLines
+	 *            The new open lines of the area.
+	 * @param newBlockingLines
+	 *            The new blocking lines of the area.
+	 * @return A new NavigationGraph.
+	 */
+	public NavigationGraph repair(List<Line2D> newOpenLines,
+			List<Line2D> newBlockingLines) {
+		if (newOpenLines.isEmpty()) {
+			return EMPTY;
+		}
+		if (openLines.isEmpty()) {
+			return build(newOpenLines, newBlockingLines);
+		}
+		Map<LineKey, Integer> oldIndex = new HashMap<LineKey, Integer>();
+		for (int i = 0; i < openLines.size(); ++i) {
+			LineKey key = new LineKey(openLines.get(i));
+			if (!oldIndex.containsKey(key)) {
+				oldIndex.put(key, i);
+			}
+		}
+		int[] oldOf = new int[newOpenLines.size()];
+		boolean[] kept = new boolean[openLines.size()];
+		List<Line2D> addedOpen = new ArrayList<Line2D>();
+		int[] addedOpenIndex = new int[newOpenLines.size()];
+		for (int i = 0; i < newOpenLines.size(); ++i) {
+			Integer old = oldIndex.remove(new LineKey(newOpenLines.get(i)));
+			if (old == null) {
+				oldOf[i] = -1;
+				addedOpenIndex[addedOpen.size()] = i;
+				addedOpen.add(newOpenLines.get(i));
+			} else {
+				oldOf[i] = old;
+				kept[old] = true;
+			}
+		}
+		List<Line2D> removed = new ArrayList<Line2D>();
+		for (int i = 0; i < openLines.size(); ++i) {
+			if (!kept[i]) {
+				removed.add(openLines.get(i));
+			}
+		}
+		List<Line2D> addedBlocking = difference(newBlockingLines,
+				blockingLines);
+		removed.addAll(difference(blockingLines, newBlockingLines));
+
+		Visibility visibility = new Visibility(newOpenLines, newBlockingLines);
+		List<List<Integer>> edges = newEdgeLists(newOpenLines.size());
+		for (int i = 0; i < newOpenLines.size(); ++i) {
+			for (int j = i + 1; j < newOpenLines.size(); ++j) {
+				boolean visible;
+				if (oldOf[i] < 0 || oldOf[j] < 0) {
+					visible = visibility.isVisible(i, j);
+				} else if (isConnected(oldOf[i], oldOf[j])) {
+					Line2D line = new Line2D(visibility.waypoints[i],
+							visibility.waypoints[j]);
+					visible = !crossesAny(line, addedBlocking, null, -1, -1)
+							&& !crossesAny(line, addedOpen, addedOpenIndex, i,
+									j);
+				} else {
+					Line2D line = new Line2D(visibility.waypoints[i],
+							visibility.waypoints[j]);
+					visible = crossesAny(line, removed, null, -1, -1)
+							&& visibility.isVisible(i, j);
+				}
+				if (visible) {
+					addEdge(edges, i, j);
+				}
+			}
+		}
+		return new NavigationGraph(copy(newOpenLines), copy(newBlockingLines),
+				toArrays(edges));
+	}
+
+	/**
+	 * Get the number of waypoints.
+	 *
+	 * @return The number of waypoints.
+	 */
+	public int size() {
+		return waypoints.length;
+	}
+
+	/**
+	 * Get a waypoint.
+	 *
+	 * @param index
+	 *            The index of the open line.
+	 * @return The midpoint of the open line.
+	 */
+	public Point2D getWaypoint(int index) {
+		return waypoints[index];
+	}
+
+	/**
+	 * Get the waypoints connected to a waypoint.
+	 *
+	 * @param index
+	 *            The index of the waypoint.
+	 * @return The indices of the connected waypoints in ascending order. The
+	 *         array must not be modified.
+	 */
+	public int[] getNeighbours(int index) {
+		return neighbours[index];
+	}
+
+	/**
+	 * Find out whether two waypoints are connected.
+	 *
+	 * @param i
+	 *            The index of the first waypoint.
+	 * @param j
+	 *            The index of the second waypoint.
+	 * @return True if the waypoints are connected.
+	 */
+	public boolean isConnected(int i, int j) {
+		return Arrays.binarySearch(neighbours[i], j) >= 0;
+	}
+
+	/**
+	 * Find the path with the fewest edges between two waypoints. Every edge
+	 * costs the same, so the route does not depend on the length of the
+	 * edges.
+	 *
+	 * @param from
+	 *            The index of the first waypoint.
+	 * @param to
+	 *            The index of the last waypoint.
+	 * @return The indices of the waypoints on the path including both ends,
+	 *         or null if there is no path.
+	 */
+	public int[] findPath(int from, int to) {
+		int n = waypoints.length;
+		double[] cost = new double[n];
+		int[] parent = new int[n];
+		boolean[] done = new boolean[n];
+		Arrays.fill(cost, Double.POSITIVE_INFINITY);
+		Arrays.fill(parent, -1);
+		// Binary heap of waypoints with lazy deletion
+		int[] heap = new int[n + 1];
+		double[] heapCost = new double[n + 1];
+		int heapSize = 0;
+		cost[from] = 0;
+		heap[heapSize] = from;
+		heapCost[heapSize++] = 0;
+		while (heapSize > 0) {
+			int node = heap[0];
+			double nodeCost = heapCost[0];
+			--heapSize;
+			siftDown(heap, heapCost, heapSize, heap[heapSize],
+					heapCost[heapSize]);
+			if (done[node] || nodeCost > cost[node]) {
+				continue;
+			}
+			done[node] = true;
+			if (node == to) {
+				break;
+			}
+			for (int k = 0; k < neighbours[node].length; ++k) {
+				int next = neighbours[node][k];
+				double c = nodeCost + 1;
+				if (!done[next] && c < cost[next]) {
+					cost[next] = c;
+					parent[next] = node;
+					if (heapSize == heap.length) {
+						heap = Arrays.copyOf(heap, heap.length * 2);
+						heapCost = Arrays.copyOf(heapCost, heapCost.length * 2);
+					}
+					siftUp(heap, heapCost, heapSize++, next, c);
+				}
+			}
+		}
+		if (!done[to]) {
+			return null;
+		}
+		int length = 1;
+		for (int node = to; node != from; node = parent[node]) {
+			++length;
+		}
+		int[] path = new int[length];
+		for (int node = to, i = length - 1; i >= 0; node = parent[node], --i) {
+			path[i] = node;
+		}
+		return path;
+	}
+
+	private static void siftUp(int[] heap, double[] heapCost, int index,
+			int node, double c) {
+		while (index > 0) {
+			int up = (index - 1) >>> 1;
+			if (heapCost[up] <= c) {
+				break;
+			}
+			heap[index] = heap[up];
+			heapCost[index] = heapCost[up];
+			index = up;
+		}
+		heap[index] = node;
+		heapCost[index] = c;
+	}
+
+	private static void siftDown(int[] heap, double[] heapCost, int size,
+			int node, double c) {
+		if (size == 0) {
+			return;
+		}
+		int index = 0;
+		while (true) {
+			int child = index * 2 + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && heapCost[child + 1] < heapCost[child]) {
+				++child;
+			}
+			if (heapCost[child] >= c) {
+				break;
+			}
+			heap[index] = heap[child];
+			heapCost[index] = heapCost[child];
+			index = child;
+		}
+		heap[index] = node;
+		heapCost[index] = c;
+	}
+
+	private static boolean crossesAny(Line2D line, List<Line2D> lines,
+			int[] indices, int i, int j) {
+		for (int k = 0; k < lines.size(); ++k) {
+			if (indices != null && (indices[k] == i || indices[k] == j)) {
+				continue;
+			}
+			if (GeometryTools2D.getSegmentIntersectionPoint(line,
+					lines.get(k)) != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// The lines of first that are not in second
+	private static List<Line2D> difference(List<Line2D> first,
+			List<Line2D> second) {
+		Set<LineKey> keys = new HashSet<LineKey>();
+		for (Line2D next : second) {
+			keys.add(new LineKey(next));
+		}
+		List<Line2D> result = new ArrayList<Line2D>();
+		for (Line2D next : first) {
+			if (!keys.contains(new LineKey(next))) {
+				result.add(next);
+			}
+		}
+		return result;
+	}
+
+	private static List<List<Integer>> newEdgeLists(int size) {
+		List<List<Integer>> edges = new ArrayList<List<Integer>>(size);
+		for (int i = 0; i < size; ++i) {
+			edges.add(new ArrayList<Integer>());
+		}
+		return edges;
+	}
+
+	private static void addEdge(List<List<Integer>> edges, int i, int j) {
+		edges.get(i).add(j);
+		edges.get(j).add(i);
+	}
+
+	private static int[][] toArrays(List<List<Integer>> edges) {
+		int[][] result = new int[edges.size()][];
+		for (int i = 0; i < result.length; ++i) {
+			List<Integer> next = edges.get(i);
+			result[i] = new int[next.size()];
+			for (int k = 0; k < result[i].length; ++k) {
+				result[i][k] = next.get(k);
+			}
+			Arrays.sort(result[i]);
+		}
+		return result;
+	}
+
+	private static List<Line2D> copy(List<Line2D> lines) {
+		return Collections.unmodifiableList(new ArrayList<Line2D>(lines));
+	}
+
+	private static Point2D getMidPoint(Line2D line) {
+		Point2D p1 = line.getOrigin();
+		Point2D p2 = line.getEndPoint();
+		return new Point2D((p1.getX() + p2.getX()) / 2,
+				(p1.getY() + p2.getY()) / 2);
+	}
+
+	/**
+	 * Checks the line between two waypoints against all blocking and open
+	 * lines. Lines whose bounding box does not overlap the bounding box of the
+	 * line are skipped.
+	 */
+	private static final class Visibility {
+		// Margin in mm so that rounding cannot skip a touching line
+		private static final double MARGIN = 1;
+
+		private final List<Line2D> openLines;
+		private final List<Line2D> blockingLines;
+		private final Point2D[] waypoints;
+		private final double[] openBounds;
+		private final double[] blockingBounds;
+
+		Visibility(List<Line2D> openLines, List<Line2D> blockingLines) {
+			this.openLines = openLines;
+			this.blockingLines = blockingLines;
+			waypoints = new Point2D[openLines.size()];
+			for (int i = 0; i < waypoints.length; ++i) {
+				waypoints[i] = getMidPoint(openLines.get(i));
+			}
+			openBounds = bounds(openLines);
+			blockingBounds = bounds(blockingLines);
+		}
+
+		boolean isVisible(int i, int j) {
+			Point2D a = waypoints[i];
+			Point2D b = waypoints[j];
+			double minX = Math.min(a.getX(), b.getX());
+			double minY = Math.min(a.getY(), b.getY());
+			double maxX = Math.max(a.getX(), b.getX());
+			double maxY = Math.max(a.getY(), b.getY());
+			Line2D line = new Line2D(a, b);
+			for (int k = 0; k < blockingLines.size(); ++k) {
+				if (overlaps(blockingBounds, k, minX, minY, maxX, maxY)
+						&& GeometryTools2D.getSegmentIntersectionPoint(line,
+								blockingLines.get(k)) != null) {
+					return false;
+				}
+			}
+			for (int k = 0; k < openLines.size(); ++k) {
+				if (k == i || k == j) {
+					continue;
+				}
+				if (overlaps(openBounds, k, minX, minY, maxX, maxY)
+						&& GeometryTools2D.getSegmentIntersectionPoint(line,
+								openLines.get(k)) != null) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static double[] bounds(List<Line2D> lines) {
+			double[] result = new double[lines.size() * 4];
+			for (int k = 0; k < lines.size(); ++k) {
+				Point2D o = lines.get(k).getOrigin();
+				Point2D e = lines.get(k).getEndPoint();
+				result[k * 4] = Math.min(o.getX(), e.getX());
+				result[k * 4 + 1] = Math.min(o.getY(), e.getY());
+				result[k * 4 + 2] = Math.max(o.getX(), e.getX());
+				result[k * 4 + 3] = Math.max(o.getY(), e.getY());
+			}
+			return result;
+		}
+
+		private static boolean overlaps(double[] bounds, int k, double minX,
+				double minY, double maxX, double maxY) {
+			return bounds[k * 4] <= maxX + MARGIN
+					&& bounds[k * 4 + 2] >= minX - MARGIN
+					&& bounds[k * 4 + 1] <= maxY + MARGIN
+					&& bounds[k * 4 + 3] >= minY - MARGIN;
+		}
+	}
+
+	/**
+	 * Compares lines by their end points.
+	 */
+	private static final class LineKey {
+		private final Point2D origin;
+		private final Point2D end;
+
+		LineKey(Line2D line) {
+			origin = line.getOrigin();
+			end = line.getEndPoint();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof LineKey)) {
+				return false;
+			}
+			LineKey other = (LineKey) o;
+			return origin.equals(other.origin) && end.equals(other.end);
+		}
+
+		@Override
+		public int hashCode() {
+			return origin.hashCode() * 31 + end.hashCode();
+		}
+	}
+}
@@ -545,6 +545,84 @@ public class TrafficAgent {
 		}
 	}
 
+	/**
+	 * First half of a microstep that has been split so that the forces of all
+	 * agents can be computed in parallel. This only changes the state of this
+	 * agent and must be followed by {@link #finishStep(double)}.
+	 *
+	 * @param dt
+	 *            The amount of time to simulate in ms.
+	 * @param agentsFX
+	 *            The X component of the (unlimited) force from other agents,
+	 *            summed with {@link #addAgentForce(double, double, double, double[])}.
+	 * @param agentsFY
+	 *            The Y component of the force from other agents.
+	 * @param isColocated
+	 *            Whether this agent is co-located with another agent.
+	 */
+	public void prepareStep(double dt, double agentsFX, double agentsFY, boolean isColocated) {
+		if (mobile) {
+			updateWalls(dt);
+			updateGoals();
+			colocated = isColocated;
+			if (!colocated) {
+				agentsForce[0] = agentsFX;
+				agentsForce[1] = agentsFY;
+				limitAgentsForce(agentsForce);
+				computeDestinationForce(destinationForce);
+				computeWallsForce(wallsForce, dt);
+			}
+		}
+	}
+
+	/**
+	 * Second half of a split microstep: apply the forces and move the agent.
+	 * Agents must be finished one at a time, in a fixed order, because moving
+	 * updates the areas and the nudge for co-located agents is random.
+	 *
+	 * @param dt
+	 *            The amount of time to simulate in ms.
+	 */
+	public void finishStep(double dt) {
+		if (mobile) {
+			if (colocated) {
+				agentsForce[0] = TrafficConstants.getColocatedAgentNudge();
+				agentsForce[1] = TrafficConstants.getColocatedAgentNudge();
+				limitAgentsForce(agentsForce);
+			}
+			sumForces();
+			updatePosition(dt);
+		}
+	}
+
+	/**
+	 * Get the difference between the force from other agents used in the
+	 * current split microstep and the force that {@link #step(double)} would
+	 * use, given the current positions of all agents.
+	 *
+	 * @return The magnitude of the difference, or zero if either computation
+	 *         found a co-located agent.
+	 */
+	public double getAgentsForceDeviation() {
+		if (!mobile || colocated || currentArea == null) {
+			return 0;
+		}
+		double cutoff = TrafficConstants.getAgentDistanceCutoff();
+		double[] reference = new double[D];
+		for (TrafficAgent agent : manager.getNearbyAgents(this)) {
+			double dx = agent.getX() - location[0];
+			double dy = agent.getY() - location[1];
+			if (!agent.isMobile() || Math.abs(dx) > cutoff || Math.abs(dy) > cutoff) {
+				continue;
+			}
+			if (!addAgentForce(dx, dy, agent.getRadius(), reference)) {
+				return 0;
+			}
+		}
+		limitAgentsForce(reference);
+		return Math.hypot(reference[0] - agentsForce[0], reference[1] - agentsForce[1]);
+	}
+
 	/**
 	 * Perform any post-timestep activities required.
 	 */
@@ -682,6 +760,10 @@ public class TrafficAgent {
 			computeWallsForce(wallsForce, dt);
 		}
 
+		sumForces();
+	}
+
+	private void sumForces() {
 		force[0] = destinationForce[0] + agentsForce[0] + wallsForce[0];
 		force[1] = destinationForce[1] + agentsForce[1] + wallsForce[1];
 
@@ -938,15 +1020,7 @@ public class TrafficAgent {
 			return;
 		}
 
-		double xSum = 0;
-		double ySum = 0;
-
 		double cutoff = TrafficConstants.getAgentDistanceCutoff();
-		double a = TrafficConstants.getAgentForceCoefficientA();
-		double b = TrafficConstants.getAgentForceCoefficientB();
-		double k = TrafficConstants.getAgentForceCoefficientK();
-		double forceLimit = TrafficConstants.getAgentForceLimit();
-
 		Collection<TrafficAgent> nearby = manager.getNearbyAgents(this);
 		for (TrafficAgent agent : nearby) {
 			if (!agent.isMobile()) {
@@ -961,35 +1035,64 @@ public class TrafficAgent {
 			if (Math.abs(dy) > cutoff) {
 				continue;
 			}
-
-			double totalRadius = radius + agent.getRadius();
-			double distanceSquared = dx * dx + dy * dy;
-
-			if (distanceSquared == 0) {
-				xSum = TrafficConstants.getColocatedAgentNudge();
-				ySum = TrafficConstants.getColocatedAgentNudge();
+			if (!addAgentForce(dx, dy, agent.getRadius(), result)) {
+				result[0] = TrafficConstants.getColocatedAgentNudge();
+				result[1] = TrafficConstants.getColocatedAgentNudge();
 				colocated = true;
 				Logger.debug(this + " is co-located with " + agent);
 				break;
 			}
-			double distance = Math.sqrt(distanceSquared);
-			double dxN = dx / distance;
-			double dyN = dy / distance;
-			double negativeSeparation = totalRadius - distance;
-			double tmp = -a * Math.exp(negativeSeparation * b);
-			if (Double.isInfinite(tmp)) {
-				Logger.warn("calculateAgentsForce(): A result of exp is infinite: exp(" + (negativeSeparation * b) + ")");
-			} else {
-				xSum += tmp * dxN;
-				ySum += tmp * dyN;
-			}
-			if (negativeSeparation > 0) {
-				// Agents overlap
-				xSum += -k * negativeSeparation * dxN;
-				ySum += -k * negativeSeparation * dyN;
-			}
 		}
+		limitAgentsForce(result);
+	}
+
+	/**
+	 * Add the force another agent exerts on this agent to a running sum. The
+	 * caller is responsible for the distance cutoff.
+	 *
+	 * @param dx
+	 *            The X offset of the other agent from this agent.
+	 * @param dy
+	 *            The Y offset of the other agent from this agent.
+	 * @param otherRadius
+	 *            The radius of the other agent.
+	 * @param sum
+	 *            The sum to add the force to.
+	 * @return False if the agents are co-located, in which case the sum is
+	 *         not changed.
+	 */
+	public boolean addAgentForce(double dx, double dy, double otherRadius, double[] sum) {
+		double distanceSquared = dx * dx + dy * dy;
+		if (distanceSquared == 0) {
+			return false;
+		}
+		double a = TrafficConstants.getAgentForceCoefficientA();
+		double b = TrafficConstants.getAgentForceCoefficientB();
+		double k = TrafficConstants.getAgentForceCoefficientK();
+		double totalRadius = radius + otherRadius;
+		double distance = Math.sqrt(distanceSquared);
+		double dxN = dx / distance;
+		double dyN = dy / distance;
+		double negativeSeparation = totalRadius - distance;
+		double tmp = -a * Math.exp(negativeSeparation * b);
+		if (Double.isInfinite(tmp)) {
+			Logger.warn("calculateAgentsForce(): A result of exp is infinite: exp(" + (negativeSeparation * b) + ")");
+		} else {
+			sum[0] += tmp * dxN;
+			sum[1] += tmp * dyN;
+		}
+		if (negativeSeparation > 0) {
+			// Agents overlap
+			sum[0] += -k * negativeSeparation * dxN;
+			sum[1] += -k * negativeSeparation * dyN;
+		}
+		return true;
+	}
 
+	private void limitAgentsForce(double[] result) {
+		double xSum = result[0];
+		double ySum = result[1];
+		double forceLimit = TrafficConstants.getAgentForceLimit();
 		double forceSum = Math.hypot(xSum, ySum);
 		if (forceSum > forceLimit) {
 			forceSum /= forceLimit;
@@ -43,7 +43,8 @@ public class TrafficArea {
 	private Rectangle bounds;
 	private Vector2D baseVector;
 	private ArrayList<Line2D> openLines;
-	private int[][] graph;
+	private NavigationGraph navigation;
+	private boolean navigationValid;
 
 	/**
 	 * Construct a TrafficArea.
@@ -218,7 +219,8 @@ public class TrafficArea {
 		blockadeLines = null;
 		allBlockingLines = null;
 		openLines = null;
-		graph=null;
+		// The navigation graph is repaired rather than rebuilt
+		navigationValid = false;
 	}
 
 	/**
@@ -263,33 +265,24 @@ public class TrafficArea {
 		return minIndex;
 	}
 
-	public int[][] getGraph() {
-		if (graph == null) {
-			List<Line2D> oLines = getOpenLines();
-			graph = new int[oLines.size()][oLines.size()];
-			for (int i = 0; i < graph.length; i++) {
-				FOR: for (int j = 0; j < graph.length; j++) {
-					Line2D line = new Line2D(getMidPoint(oLines.get(i).getOrigin(), oLines.get(i).getEndPoint()), getMidPoint(oLines.get(j).getOrigin(), oLines.get(j)
-							.getEndPoint()));
-					for (Line2D is : getAllBlockingLines()) {
-						if (GeometryTools2D.getSegmentIntersectionPoint(line, is) != null) {
-							graph[i][j] = 100000;
-							continue FOR;
-						}
-					}
-					for (int k = 0; k < oLines.size(); k++) {
-						if(k==i||k==j)
-							continue;
-						if (GeometryTools2D.getSegmentIntersectionPoint(line, oLines.get(k)) != null) {
-							graph[i][j] = Integer.MAX_VALUE;
-							continue FOR;
-						}
-					}
-					graph[i][j] = 1;
-				}
+	/**
+	 * Get the graph of waypoints in this area. The waypoints are the midpoints
+	 * of the open lines, in the order of {@link #getOpenLines()}.
+	 *
+	 * @return The navigation graph.
+	 */
+	public NavigationGraph getNavigationGraph() {
+		if (!navigationValid) {
+			if (navigation == null) {
+				navigation = NavigationGraph.build(getOpenLines(),
+						getAllBlockingLines());
+			} else {
+				navigation = navigation.repair(getOpenLines(),
+						getAllBlockingLines());
 			}
+			navigationValid = true;
 		}
-		return graph;
+		return navigation;
 	}
 
 	private Point2D getMidPoint(Point2D p1, Point2D p2) {
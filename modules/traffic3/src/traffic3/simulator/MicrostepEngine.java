@@ -0,0 +1,320 @@
+package traffic3.simulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import rescuecore2.log.Logger;
+
+import traffic3.manager.TrafficManager;
+import traffic3.objects.TrafficAgent;
+import traffic3.objects.TrafficArea;
+
+/**
+ * Runs microsteps for all agents with the forces computed in parallel.
+ *
+ * Each microstep takes a snapshot of the agent positions into primitive
+ * arrays and sorts the agents into a uniform grid with cells as large as the
+ * agent distance cutoff. The forces on all agents are then computed from the
+ * snapshot on a ForkJoin pool, and finally the agents are moved one at a time
+ * in ID order. The result does not depend on the number of threads.
+ *
+ * The serial update in {@link TrafficAgent#step(double)} sees the new
+ * positions of agents that have already moved in the same microstep, while
+ * this engine uses the positions from the start of the microstep. The
+ * difference is at most one microstep of movement of the neighbouring agents.
+ * If verification is enabled the engine also computes the serial agent
+ * forces and warns when the difference would move an agent further than the
+ * tolerance in one microstep.
+ */
+class MicrostepEngine {
+  // Agents per task below which the force computation is not split further
+  private static final int MIN_TASK_SIZE = 32;
+  private static final int HASH_X = 73856093;
+  private static final int HASH_Y = 19349663;
+  private static final int NEIGHBOUR_CELLS = 9;
+
+  private final TrafficManager manager;
+  private final ForkJoinPool pool;
+  private final boolean verify;
+  private final double tolerance;
+
+  private TrafficAgent[] agents;
+  private int count;
+
+  // Area adjacency, indexed by area
+  private Map<TrafficArea, Integer> areaIndex;
+  private int[][] areaNeighbours;
+
+  // Snapshot of the agents at the start of the microstep
+  private double[] x;
+  private double[] y;
+  private double[] radius;
+  private boolean[] mobile;
+  private int[] area;
+
+  // Uniform grid: agent indices sorted by cell
+  private int[] cell;
+  private int[] cellStart;
+  private int[] sorted;
+  private int mask;
+  private double cellSize;
+
+  private double maxDeviation;
+
+  /**
+   * Construct a MicrostepEngine.
+   *
+   * @param manager   The traffic manager.
+   * @param threads   The number of threads to compute forces with.
+   * @param verify    Whether to compare the forces with the serial update.
+   * @param tolerance The largest acceptable difference in position per
+   *                  microstep when verifying, in mm.
+   */
+  MicrostepEngine(TrafficManager manager, int threads, boolean verify, double tolerance) {
+    this.manager = manager;
+    this.pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    this.verify = verify;
+    this.tolerance = tolerance;
+    agents = new TrafficAgent[0];
+    resize(0);
+  }
+
+  /**
+   * Index the areas. Must be called after
+   * {@link TrafficManager#cacheInformation}.
+   */
+  void initialise() {
+    List<TrafficArea> areas = new ArrayList<TrafficArea>(manager.getAreas());
+    Collections.sort(areas, new Comparator<TrafficArea>() {
+      @Override
+      public int compare(TrafficArea a1, TrafficArea a2) {
+        return Integer.compare(a1.getArea().getID().getValue(), a2.getArea().getID().getValue());
+      }
+    });
+    areaIndex = new HashMap<TrafficArea, Integer>();
+    for (int i = 0; i < areas.size(); ++i) {
+      areaIndex.put(areas.get(i), i);
+    }
+    areaNeighbours = new int[areas.size()][];
+    for (int i = 0; i < areas.size(); ++i) {
+      Collection<TrafficArea> neighbours = manager.getNeighbours(areas.get(i));
+      int[] indices = new int[neighbours.size()];
+      int n = 0;
+      for (TrafficArea next : neighbours) {
+        Integer index = areaIndex.get(next);
+        if (index != null) {
+          indices[n++] = index;
+        }
+      }
+      indices = Arrays.copyOf(indices, n);
+      Arrays.sort(indices);
+      areaNeighbours[i] = indices;
+    }
+  }
+
+  /**
+   * Prepare for the microsteps of a timestep.
+   */
+  void beginTimestep() {
+    Collection<TrafficAgent> all = manager.getAgents();
+    if (agents.length != all.size()) {
+      agents = new TrafficAgent[all.size()];
+    }
+    agents = all.toArray(agents);
+    Arrays.sort(agents, new Comparator<TrafficAgent>() {
+      @Override
+      public int compare(TrafficAgent a1, TrafficAgent a2) {
+        return Integer.compare(a1.getHuman().getID().getValue(), a2.getHuman().getID().getValue());
+      }
+    });
+    count = agents.length;
+    if (x.length < count) {
+      resize(count);
+    }
+    maxDeviation = 0;
+  }
+
+  /**
+   * Finish a timestep.
+   */
+  void endTimestep() {
+    if (verify) {
+      Logger.debug("Largest difference from the serial update: " + maxDeviation + "mm per microstep");
+    }
+  }
+
+  /**
+   * Run one microstep for all agents.
+   *
+   * @param dt The amount of time to simulate in ms.
+   */
+  void microstep(double dt) {
+    snapshot();
+    buildGrid();
+    ForceTask task = new ForceTask(0, count, dt);
+    if (pool == null) {
+      task.compute();
+    } else {
+      pool.invoke(task);
+    }
+    for (int i = 0; i < count; ++i) {
+      if (verify) {
+        // Agents before i have already moved, exactly as in the serial update
+        double deviation = agents[i].getAgentsForceDeviation() * dt * dt;
+        maxDeviation = Math.max(maxDeviation, deviation);
+        if (deviation > tolerance) {
+          Logger.warn(agents[i] + " differs from the serial update by " + deviation + "mm");
+        }
+      }
+      agents[i].finishStep(dt);
+    }
+  }
+
+  /**
+   * Stop the worker threads.
+   */
+  void shutdown() {
+    if (pool != null) {
+      pool.shutdown();
+    }
+  }
+
+  private void resize(int size) {
+    x = new double[size];
+    y = new double[size];
+    radius = new double[size];
+    mobile = new boolean[size];
+    area = new int[size];
+    cell = new int[size];
+    sorted = new int[size];
+    mask = Integer.highestOneBit(Math.max(1, size * 2 - 1)) * 2 - 1;
+    cellStart = new int[mask + 2];
+  }
+
+  private void snapshot() {
+    for (int i = 0; i < count; ++i) {
+      TrafficAgent agent = agents[i];
+      x[i] = agent.getX();
+      y[i] = agent.getY();
+      radius[i] = agent.getRadius();
+      mobile[i] = agent.isMobile();
+      TrafficArea a = agent.getArea();
+      Integer index = a == null ? null : areaIndex.get(a);
+      area[i] = index == null ? -1 : index;
+    }
+  }
+
+  private void buildGrid() {
+    cellSize = TrafficConstants.getAgentDistanceCutoff();
+    Arrays.fill(cellStart, 0);
+    for (int i = 0; i < count; ++i) {
+      cell[i] = hash(cellOf(x[i]), cellOf(y[i]));
+      cellStart[cell[i] + 1]++;
+    }
+    for (int c = 1; c < cellStart.length; ++c) {
+      cellStart[c] += cellStart[c - 1];
+    }
+    // Stable counting sort, so each cell lists its agents in ID order. The
+    // cell starts are shifted up by one while filling and restored after.
+    for (int i = 0; i < count; ++i) {
+      sorted[cellStart[cell[i]]++] = i;
+    }
+    for (int c = cellStart.length - 1; c > 0; --c) {
+      cellStart[c] = cellStart[c - 1];
+    }
+    cellStart[0] = 0;
+  }
+
+  private int cellOf(double coordinate) {
+    return (int) Math.floor(coordinate / cellSize);
+  }
+
+  private int hash(int cx, int cy) {
+    return ((cx * HASH_X) ^ (cy * HASH_Y)) & mask;
+  }
+
+  private boolean isNearby(int area1, int area2) {
+    return area1 == area2 || Arrays.binarySearch(areaNeighbours[area1], area2) >= 0;
+  }
+
+  private void computeForce(int i, double dt, double[] sum, int[] buckets) {
+    TrafficAgent agent = agents[i];
+    sum[0] = 0;
+    sum[1] = 0;
+    boolean colocated = false;
+    if (mobile[i] && area[i] >= 0) {
+      double cutoff = cellSize;
+      int cx = cellOf(x[i]);
+      int cy = cellOf(y[i]);
+      // Several cells can share a hash bucket; visit each bucket once
+      int bucketCount = 0;
+      for (int dx = -1; dx <= 1; ++dx) {
+        for (int dy = -1; dy <= 1; ++dy) {
+          int bucket = hash(cx + dx, cy + dy);
+          boolean seen = false;
+          for (int b = 0; b < bucketCount && !seen; ++b) {
+            seen = buckets[b] == bucket;
+          }
+          if (!seen) {
+            buckets[bucketCount++] = bucket;
+          }
+        }
+      }
+      search: for (int b = 0; b < bucketCount; ++b) {
+        for (int k = cellStart[buckets[b]]; k < cellStart[buckets[b] + 1]; ++k) {
+          int j = sorted[k];
+          if (j == i || !mobile[j] || area[j] < 0) {
+            continue;
+          }
+          double dx = x[j] - x[i];
+          double dy = y[j] - y[i];
+          if (Math.abs(dx) > cutoff || Math.abs(dy) > cutoff || !isNearby(area[i], area[j])) {
+            continue;
+          }
+          if (!agent.addAgentForce(dx, dy, radius[j], sum)) {
+            colocated = true;
+            Logger.debug(agent + " is co-located with " + agents[j]);
+            break search;
+          }
+        }
+      }
+    }
+    agent.prepareStep(dt, sum[0], sum[1], colocated);
+  }
+
+  private class ForceTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int from;
+    private final int to;
+    private final double dt;
+
+    ForceTask(int from, int to, double dt) {
+      this.from = from;
+      this.to = to;
+      this.dt = dt;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= MIN_TASK_SIZE || pool == null) {
+        double[] sum = new double[2];
+        int[] buckets = new int[NEIGHBOUR_CELLS];
+        for (int i = from; i < to; ++i) {
+          computeForce(i, dt, sum, buckets);
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new ForceTask(from, middle, dt), new ForceTask(middle, to, dt));
+    }
+  }
+}
@@ -0,0 +1,392 @@
+package traffic3.simulator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import rescuecore2.log.Logger;
+import rescuecore2.misc.geometry.GeometryTools2D;
+import rescuecore2.misc.geometry.Line2D;
+import rescuecore2.misc.geometry.Point2D;
+import rescuecore2.misc.geometry.Vector2D;
+import rescuecore2.standard.entities.Area;
+import rescuecore2.standard.entities.Edge;
+import rescuecore2.standard.entities.Human;
+import rescuecore2.standard.entities.StandardWorldModel;
+import rescuecore2.standard.messages.AKMove;
+import rescuecore2.worldmodel.Entity;
+import rescuecore2.worldmodel.EntityID;
+
+import traffic3.manager.TrafficManager;
+import traffic3.objects.NavigationGraph;
+import traffic3.objects.TrafficArea;
+import traffic3.objects.TrafficBlockade;
+
+/**
+ * Turns AKMove commands into the path elements that agents follow.
+ *
+ * Planning reads the world model and the traffic areas but does not change
+ * them, so all moves of a timestep are planned together on a ForkJoin pool.
+ * Before that the cached lines and navigation graphs of every area on the
+ * paths are brought up to date, one task per area, so that the planning tasks
+ * only read shared state.
+ */
+class PathPlanner {
+  // Moves or areas per task below which the work is not split further
+  private static final int MIN_TASK_SIZE = 4;
+  // Waypoints closer than this to a blocking line are avoided
+  private static final double MIN_WALL_DISTANCE = 250;
+  private static final int ENTRANCE_DISTANCE = 500;
+  private static final int ENTRANCE_DISTANCE_STEP = 100;
+
+  private final StandardWorldModel model;
+  private final TrafficManager manager;
+  private final ForkJoinPool pool;
+
+  /**
+   * Construct a PathPlanner.
+   *
+   * @param model   The world model.
+   * @param manager The traffic manager.
+   * @param threads The number of threads to plan with.
+   */
+  PathPlanner(StandardWorldModel model, TrafficManager manager, int threads) {
+    this.model = model;
+    this.manager = manager;
+    this.pool = threads > 1 ? new ForkJoinPool(threads) : null;
+  }
+
+  /**
+   * Plan a list of moves.
+   *
+   * @param moves The moves to plan.
+   * @return The path of each move in the same order as the moves, or null for
+   *         moves that are rejected.
+   */
+  List<List<PathElement>> plan(List<AKMove> moves) {
+    List<TrafficArea> areas = new ArrayList<TrafficArea>(getAreas(moves));
+    List<List<PathElement>> result = new ArrayList<List<PathElement>>(
+        Collections.<List<PathElement>>nCopies(moves.size(), null));
+    run(new PrepareTask(areas, 0, areas.size()));
+    run(new PlanTask(moves, result, 0, moves.size()));
+    return result;
+  }
+
+  /**
+   * Stop the worker threads.
+   */
+  void shutdown() {
+    if (pool != null) {
+      pool.shutdown();
+    }
+  }
+
+  private void run(RecursiveAction task) {
+    if (pool == null) {
+      task.invoke();
+    } else {
+      pool.invoke(task);
+    }
+  }
+
+  private Set<TrafficArea> getAreas(List<AKMove> moves) {
+    Set<TrafficArea> result = new LinkedHashSet<TrafficArea>();
+    for (AKMove move : moves) {
+      Entity agent = model.getEntity(move.getAgentID());
+      if (agent instanceof Human && ((Human) agent).isPositionDefined()) {
+        addArea(((Human) agent).getPosition(), result);
+      }
+      for (EntityID next : move.getPath()) {
+        addArea(next, result);
+      }
+    }
+    return result;
+  }
+
+  private void addArea(EntityID id, Set<TrafficArea> result) {
+    Entity e = model.getEntity(id);
+    if (e instanceof Area) {
+      TrafficArea area = manager.getTrafficArea((Area) e);
+      if (area != null) {
+        result.add(area);
+      }
+    }
+  }
+
+  // Fill all lazily computed caches that planning reads
+  private void prepare(TrafficArea area) {
+    area.getArea().getShape();
+    for (TrafficBlockade block : area.getBlockades()) {
+      block.getBlockade().getShape();
+    }
+    area.getAllBlockingLines();
+    area.getNavigationGraph();
+  }
+
+  private List<PathElement> plan(AKMove move) {
+    Human human = (Human) model.getEntity(move.getAgentID());
+    EntityID current = human.getPosition();
+    if (current == null) {
+      Logger.warn("Rejecting move: Agent position is not defined");
+      return null;
+    }
+    Entity currentEntity = model.getEntity(human.getPosition());
+    if (!(currentEntity instanceof Area)) {
+      Logger.warn("Rejecting move: Agent position is not an area: " + currentEntity);
+      return null;
+    }
+    Area currentArea = (Area) currentEntity;
+    List<EntityID> list = move.getPath();
+    List<PathElement> steps = new ArrayList<PathElement>();
+    Edge lastEdge = null;
+    /**
+     * Check that all elements refer to Area instances and build the list of target
+     * points Target points between areas are the midpoint of the shared edge
+     */
+    for (EntityID next : list) {
+      if (next.equals(current)) {
+        continue;
+      }
+      Entity e = model.getEntity(next);
+      if (!(e instanceof Area)) {
+        Logger.warn("Rejecting move: Entity ID " + next + " is not an area: " + e);
+        return null;
+      }
+
+      Edge edge = currentArea.getEdgeTo(next);
+      if (edge == null) {
+        Logger.warn("Rejecting move: Entity ID " + next + " is not adjacent to " + currentArea);
+        return null;
+      }
+      Area nextArea = (Area) e;
+
+      steps.addAll(getPathElements2(human, currentArea, lastEdge, nextArea, edge));
+
+      current = next;
+      currentArea = nextArea;
+      lastEdge = edge;
+    }
+    int targetX = move.getDestinationX();
+    int targetY = move.getDestinationY();
+    if (targetX == -1 && targetY == -1) {
+      targetX = currentArea.getX();
+      targetY = currentArea.getY();
+    } else if (list.isEmpty()) {
+      Logger.warn("Rejecting move: Path is empty");
+      return null;
+    }
+    steps.add(new PathElement(current, null, new Point2D(targetX, targetY)));
+    return steps;
+  }
+
+  private Collection<? extends PathElement> getPathElements(Area lastArea, Edge lastEdge, Area nextArea,
+      Edge nextEdge) {
+    ArrayList<PathElement> steps = new ArrayList<PathElement>();
+    Point2D edgePoint = getBestPoint(nextEdge, nextArea);
+    Point2D centrePoint = new Point2D(lastArea.getX(), lastArea.getY());
+    if (lastEdge == null) {
+      Point2D entracePoint = getEntranceOfArea(nextEdge, lastArea);
+      if (entracePoint != null) {
+        steps.add(new PathElement(lastArea.getID(), null, entracePoint, centrePoint));
+        steps.add(new PathElement(lastArea.getID(), nextEdge.getLine(), edgePoint, entracePoint));
+      } else
+        steps.add(new PathElement(lastArea.getID(), nextEdge.getLine(), edgePoint));
+
+    } else {
+      Point2D startEntracePoint = getEntranceOfArea(lastEdge, lastArea);
+      if (startEntracePoint != null)
+        steps.add(new PathElement(lastArea.getID(), null, startEntracePoint));
+      Point2D entracePoint = getEntranceOfArea(nextEdge, lastArea);
+      if (entracePoint != null) {
+        steps.add(new PathElement(lastArea.getID(), nextEdge.getLine(), entracePoint, centrePoint));
+        steps.add(new PathElement(lastArea.getID(), nextEdge.getLine(), edgePoint, entracePoint));
+      } else {
+        steps.add(new PathElement(lastArea.getID(), nextEdge.getLine(), edgePoint, centrePoint));
+      }
+    }
+
+    return steps;
+  }
+
+  private Point2D getEntranceOfArea(Edge inComingEdge, Area dest) {
+
+    Point2D edgeMid = getBestPoint(inComingEdge, dest);
+
+    Line2D wallLine = inComingEdge.getLine();
+
+    int distance = ENTRANCE_DISTANCE;
+    while (distance > 0) {
+      Vector2D offset = wallLine.getDirection().getNormal().normalised().scale(distance);
+      Point2D destXY = edgeMid.plus(offset);
+      if (dest.getShape().contains(destXY.getX(), destXY.getY())) {
+        return destXY;
+      }
+      offset = wallLine.getDirection().getNormal().normalised().scale(-distance);
+      destXY = edgeMid.plus(offset);
+      if (dest.getShape().contains(destXY.getX(), destXY.getY())) {
+        return destXY;
+      }
+      distance -= ENTRANCE_DISTANCE_STEP;
+    }
+    return null;
+
+  }
+
+  private Collection<? extends PathElement> getPathElements2(Human human, Area lastArea, Edge lastEdge, Area nextArea,
+      Edge nextEdge) {
+    Collection<? extends PathElement> originalPaths = getPathElements(lastArea, lastEdge, nextArea, nextEdge);
+    if (isOriginalPathOk(originalPaths))
+      return originalPaths;
+    Point2D start;
+    if (lastEdge == null)
+      start = new Point2D(human.getX(), human.getY());
+    else
+      start = getBestPoint(lastEdge, lastArea);
+    Point2D edgePoint = getBestPoint(nextEdge, nextArea);
+
+    TrafficArea trafficArea = manager.getTrafficArea(lastArea);
+    NavigationGraph graph = trafficArea.getNavigationGraph();
+
+    int src = trafficArea.getNearestLineIndex(start);
+    int end = trafficArea.getNearestLineIndex(edgePoint);
+
+    if (src != end && src != -1 && end != -1) {
+      int[] path = graph.findPath(src, end);
+      if (path != null && path.length > 2) {
+        ArrayList<PathElement> result = new ArrayList<PathElement>();
+        result.add(new PathElement(nextArea.getID(), nextEdge.getLine(), start));
+
+        for (int next : path)
+          result.add(new PathElement(nextArea.getID(), nextEdge.getLine(), graph.getWaypoint(next)));
+
+        result.add(new PathElement(nextArea.getID(), nextEdge.getLine(), edgePoint));
+
+        return result;
+      }
+    }
+
+    return originalPaths;
+  }
+
+  private boolean isOriginalPathOk(Collection<? extends PathElement> originalPaths) {
+    if (originalPaths.isEmpty()) {
+      Logger.warn("originalPaths is null");
+      return true;
+    }
+
+    TrafficArea lastArea = null;
+    ArrayList<PathElement> sameAreaElements = new ArrayList<PathElement>();
+    for (PathElement pathElement : originalPaths) {
+
+      TrafficArea area = manager.getTrafficArea((Area) model.getEntity(pathElement.getAreaID()));
+      for (TrafficBlockade block : area.getBlockades()) {
+        if (block.getBlockade().getShape().contains(pathElement.getGoal().getX(), pathElement.getGoal().getY()))
+          return false;
+      }
+      double minDistance = getMinDistance(area.getAllBlockingLines(), pathElement.getGoal());
+
+      if (minDistance < MIN_WALL_DISTANCE)
+        return false;
+      if (lastArea == null || lastArea == area) {
+        sameAreaElements.add(pathElement);
+      } else {
+        if (!checkElements(lastArea, sameAreaElements))
+          return false;
+        sameAreaElements.clear();
+      }
+      lastArea = area;
+    }
+    if (!checkElements(lastArea, sameAreaElements))
+      return false;
+    return true;
+  }
+
+  private boolean checkElements(TrafficArea lastArea, List<PathElement> sameAreaElements) {
+    if (sameAreaElements.size() <= 1)
+      return true;
+
+    for (int i = 1; i < sameAreaElements.size(); i++) {
+      Line2D line2D = new Line2D(sameAreaElements.get(i - 1).getGoal(), sameAreaElements.get(i).getGoal());
+      for (Line2D block : lastArea.getAllBlockingLines()) {
+        if (GeometryTools2D.getSegmentIntersectionPoint(line2D, block) != null)
+          return false;
+      }
+    }
+    return true;
+  }
+
+  private Point2D getBestPoint(Edge edge, Area dest) {
+    return TrafficSimulator.getMidPoint(edge.getStart(), edge.getEnd());
+  }
+
+  private double getMinDistance(List<Line2D> blockingLines, Point2D point) {
+    double min = Integer.MAX_VALUE;
+    for (Line2D block : blockingLines) {
+      Point2D tempPoint = GeometryTools2D.getClosestPointOnSegment(block, point);
+      double tempDistance = GeometryTools2D.getDistance(point, tempPoint);
+      if (tempDistance < min)
+        min = tempDistance;
+    }
+    return min;
+  }
+
+  private class PrepareTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final List<TrafficArea> areas;
+    private final int from;
+    private final int to;
+
+    PrepareTask(List<TrafficArea> areas, int from, int to) {
+      this.areas = areas;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= MIN_TASK_SIZE || pool == null) {
+        for (int i = from; i < to; ++i) {
+          prepare(areas.get(i));
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new PrepareTask(areas, from, middle), new PrepareTask(areas, middle, to));
+    }
+  }
+
+  private class PlanTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final List<AKMove> moves;
+    private final List<List<PathElement>> result;
+    private final int from;
+    private final int to;
+
+    PlanTask(List<AKMove> moves, List<List<PathElement>> result, int from, int to) {
+      this.moves = moves;
+      this.result = result;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= MIN_TASK_SIZE || pool == null) {
+        for (int i = from; i < to; ++i) {
+          // Each task writes its own elements of the result
+          result.set(i, plan(moves.get(i)));
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new PlanTask(moves, result, from, middle), new PlanTask(moves, result, middle, to));
+    }
+  }
+}
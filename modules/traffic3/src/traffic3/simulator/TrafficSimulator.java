@@ -1,9 +1,6 @@
 package traffic3.simulator;
 
-import java.awt.Color;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
 
 import javax.swing.JComponent;
@@ -16,18 +13,12 @@ import rescuecore2.log.Logger;
 import rescuecore2.messages.Command;
 import rescuecore2.messages.control.KSCommands;
 import rescuecore2.messages.control.KSUpdate;
-import rescuecore2.misc.geometry.GeometryTools2D;
-import rescuecore2.misc.geometry.Line2D;
 import rescuecore2.misc.geometry.Point2D;
-import rescuecore2.misc.geometry.Vector2D;
-import rescuecore2.misc.gui.ShapeDebugFrame;
-import rescuecore2.misc.gui.ShapeDebugFrame.Line2DShapeInfo;
 import rescuecore2.standard.components.StandardSimulator;
 import rescuecore2.standard.entities.AmbulanceTeam;
 import rescuecore2.standard.entities.Area;
 import rescuecore2.standard.entities.Blockade;
 import rescuecore2.standard.entities.Civilian;
-import rescuecore2.standard.entities.Edge;
 import rescuecore2.standard.entities.FireBrigade;
 import rescuecore2.standard.entities.Human;
 import rescuecore2.standard.entities.PoliceForce;
@@ -72,10 +63,21 @@ public class TrafficSimulator extends StandardSimulator implements GUIComponent
   private static final double CIVILIAN_VELOCITY_MEAN = 0.2;
   private static final double CIVILIAN_VELOCITY_SD = 0.002;
 
+  private static final String PARALLEL_KEY = "traffic3.microstep.parallel";
+  private static final String THREADS_KEY = "traffic3.microstep.threads";
+  private static final String VERIFY_KEY = "traffic3.microstep.verify";
+  private static final String TOLERANCE_KEY = "traffic3.microstep.tolerance";
+  private static final double DEFAULT_TOLERANCE = 1.0;
+  private static final String NAVIGATION_THREADS_KEY = "traffic3.navigation.threads";
+
   private TrafficSimulatorGUI gui;
 
   private TrafficManager manager;
 
+  private MicrostepEngine engine;
+
+  private PathPlanner planner;
+
   /**
    * Construct a new TrafficSimulator.
    */
@@ -135,6 +137,21 @@ public class TrafficSimulator extends StandardSimulator implements GUIComponent
     });
     gui.initialise();
     manager.cacheInformation(model);
+    if (engine != null) {
+      engine.shutdown();
+      engine = null;
+    }
+    if (config.getBooleanValue(PARALLEL_KEY, true)) {
+      engine = new MicrostepEngine(manager,
+          config.getIntValue(THREADS_KEY, Runtime.getRuntime().availableProcessors()),
+          config.getBooleanValue(VERIFY_KEY, false), config.getFloatValue(TOLERANCE_KEY, DEFAULT_TOLERANCE));
+      engine.initialise();
+    }
+    if (planner != null) {
+      planner.shutdown();
+    }
+    planner = new PathPlanner(model, manager,
+        config.getIntValue(NAVIGATION_THREADS_KEY, Runtime.getRuntime().availableProcessors()));
   }
 
   @Override
@@ -148,9 +165,18 @@ public class TrafficSimulator extends StandardSimulator implements GUIComponent
       agent.clearPositionHistory();
       agent.setMobile(true);
     }
+    // Plan all moves before any command changes the world
+    List<AKMove> moves = new ArrayList<AKMove>();
     for (Command next : c.getCommands()) {
       if (next instanceof AKMove) {
-        handleMove((AKMove) next);
+        moves.add((AKMove) next);
+      }
+    }
+    List<List<PathElement>> paths = planner.plan(moves);
+    int move = 0;
+    for (Command next : c.getCommands()) {
+      if (next instanceof AKMove) {
+        handleMove((AKMove) next, paths.get(move++));
       }
       if (next instanceof AKLoad) {
         handleLoad((AKLoad) next, changes);
@@ -329,280 +355,19 @@ public class TrafficSimulator extends StandardSimulator implements GUIComponent
     manager.register(agent);
   }
 
-  private void handleMove(AKMove move) {
-    Human human = (Human) model.getEntity(move.getAgentID());
-    TrafficAgent agent = manager.getTrafficAgent(human);
-    EntityID current = human.getPosition();
-    if (current == null) {
-      Logger.warn("Rejecting move: Agent position is not defined");
+  private void handleMove(AKMove move, List<PathElement> path) {
+    if (path == null) {
+      // Rejected by the planner
       return;
     }
-    Entity currentEntity = model.getEntity(human.getPosition());
-    if (!(currentEntity instanceof Area)) {
-      Logger.warn("Rejecting move: Agent position is not an area: " + currentEntity);
-      return;
-    }
-    Area currentArea = (Area) currentEntity;
-    List<EntityID> list = move.getPath();
-    List<PathElement> steps = new ArrayList<PathElement>();
-    Edge lastEdge = null;
-    /**
-     * Check that all elements refer to Area instances and build the list of target
-     * points Target points between areas are the midpoint of the shared edge
-     */
-    for (Iterator<EntityID> it = list.iterator(); it.hasNext();) {
-      EntityID next = it.next();
-      if (next.equals(current)) {
-        continue;
-      }
-      Entity e = model.getEntity(next);
-      if (!(e instanceof Area)) {
-        Logger.warn("Rejecting move: Entity ID " + next + " is not an area: " + e);
-        return;
-      }
-
-      Edge edge = currentArea.getEdgeTo(next);
-      if (edge == null) {
-        Logger.warn("Rejecting move: Entity ID " + next + " is not adjacent to " + currentArea);
-        return;
-      }
-      Area nextArea = (Area) e;
-
-      steps.addAll(getPathElements2(human, currentArea, lastEdge, nextArea, edge));
-
-      current = next;
-      currentArea = nextArea;
-      lastEdge = edge;
-    }
-    int targetX = move.getDestinationX();
-    int targetY = move.getDestinationY();
-    if (targetX == -1 && targetY == -1) {
-      targetX = currentArea.getX();
-      targetY = currentArea.getY();
-    } else if (list.isEmpty()) {
-      Logger.warn("Rejecting move: Path is empty");
-      return;
-    }
-    steps.add(new PathElement(current, null, new Point2D(targetX, targetY)));
-    agent.setPath(steps);
-  }
-
-  private Collection<? extends PathElement> getPathElements(Human human, Area lastArea, Edge lastEdge, Area nextArea,
-      Edge nextEdge) {
-    if (human.getID().getValue() == 204623396) {
-      System.out.println(
-          "lastArea=" + lastArea + " lastEdge=" + lastEdge + " nextArea=" + nextArea + " nextEdge=" + nextEdge);
-    }
-    ArrayList<PathElement> steps = new ArrayList<PathElement>();
-    Point2D edgePoint = getBestPoint(nextEdge, nextArea);
-    Point2D centrePoint = new Point2D(lastArea.getX(), lastArea.getY());
-    if (lastEdge == null) {
-      Point2D entracePoint = getEntranceOfArea(nextEdge, lastArea);
-      if (entracePoint != null) {
-        steps.add(new PathElement(lastArea.getID(), null, entracePoint, centrePoint));
-        steps.add(new PathElement(lastArea.getID(), nextEdge.getLine(), edgePoint, entracePoint));
-      } else
-        steps.add(new PathElement(lastArea.getID(), nextEdge.getLine(), edgePoint));
-
-    } else {
-      Point2D startEntracePoint = getEntranceOfArea(lastEdge, lastArea);
-      if (startEntracePoint != null)
-        steps.add(new PathElement(lastArea.getID(), null, startEntracePoint));
-      Point2D entracePoint = getEntranceOfArea(nextEdge, lastArea);
-      if (entracePoint != null) {
-        steps.add(new PathElement(lastArea.getID(), nextEdge.getLine(), entracePoint, centrePoint));
-        steps.add(new PathElement(lastArea.getID(), nextEdge.getLine(), edgePoint, entracePoint));
-      } else {
-        steps.add(new PathElement(lastArea.getID(), nextEdge.getLine(), edgePoint, centrePoint));
-      }
-    }
-
-    return steps;
-  }
-
-  private boolean haveImpassibleEdge(Area dest) {
-    for (Edge edge : dest.getEdges()) {
-      if (!edge.isPassable())
-        return true;
-    }
-    return false;
-  }
-
-  private Point2D getEntranceOfArea(Edge inComingEdge, Area dest) {
-
-    Point2D edgeMid = getBestPoint(inComingEdge, dest);
-
-    Line2D wallLine = inComingEdge.getLine();
-
-    int distance = 500;
-    while (distance > 0) {
-      Vector2D offset = wallLine.getDirection().getNormal().normalised().scale(distance);
-      Point2D destXY = edgeMid.plus(offset);
-      if (dest.getShape().contains(destXY.getX(), destXY.getY())) {
-        return destXY;
-      }
-      offset = wallLine.getDirection().getNormal().normalised().scale(-distance);
-      destXY = edgeMid.plus(offset);
-      if (dest.getShape().contains(destXY.getX(), destXY.getY())) {
-        return destXY;
-      }
-      distance -= 100;
-    }
-    return null;
-
-  }
-
-  private Collection<? extends PathElement> getPathElements2(Human human, Area lastArea, Edge lastEdge, Area nextArea,
-      Edge nextEdge) {
-    Collection<? extends PathElement> originalPaths = getPathElements(human, lastArea, lastEdge, nextArea, nextEdge);
-    if (isOriginalPathOk(originalPaths))
-      return originalPaths;
-    Point2D start;
-    if (lastEdge == null)
-      start = new Point2D(human.getX(), human.getY());
-    else
-      start = getBestPoint(lastEdge, lastArea);
-    Point2D startpoint;
-    if (lastEdge == null)
-      startpoint = start;
-    else
-      startpoint = getMidPoint(lastEdge.getStart(), lastEdge.getEnd());
-    Point2D edgePoint = getBestPoint(nextEdge, nextArea);
-    Point2D centrePoint = new Point2D(lastArea.getX(), lastArea.getY());
-
-    List<ShapeDebugFrame.ShapeInfo> resultGraph = new ArrayList<ShapeDebugFrame.ShapeInfo>();
-
-    resultGraph.add(
-        new Line2DShapeInfo(new Line2D(startpoint, centrePoint), "path start to center", Color.black, false, true));
-    resultGraph.add(new Line2DShapeInfo(new Line2D(centrePoint, getMidPoint(nextEdge.getStart(), nextEdge.getEnd())),
-        "path center to end", Color.white, false, true));
-
-    TrafficArea trafficArea = manager.getTrafficArea(lastArea);
-    int[][] graph = manager.getTrafficArea(lastArea).getGraph();
-    List<Line2D> oLines = manager.getTrafficArea(lastArea).getOpenLines();
-    List<Line2D> graphline = new ArrayList<>();
-    resultGraph.add(new Line2DShapeInfo(oLines, "openLines", Color.green, false, false));
-    for (int i = 0; i < graph.length; i++) {
-      for (int j = 0; j < graph.length; j++) {
-        if (graph[i][j] > 10000)
-          continue;
-        Line2D line = new Line2D(getMidPoint(oLines.get(i).getOrigin(), oLines.get(i).getEndPoint()),
-            getMidPoint(oLines.get(j).getOrigin(), oLines.get(j).getEndPoint()));
-        graphline.add(line);
-      }
-    }
-
-    int src = trafficArea.getNearestLineIndex(start);
-    int end = trafficArea.getNearestLineIndex(edgePoint);
-
-    if (src != end && src != -1 && end != -1) {
-      Dijkstra dijkstra = new Dijkstra(graph.length);
-      try {
-        dijkstra.Run(graph, src);
-      } catch (Exception e) {
-        e.printStackTrace();
-      }
-      try {
-        if (dijkstra.getWeight(end) < 1000) {
-          ArrayList<Integer> path = dijkstra.getpathArray(end);
-          if (path.size() > 2) {
-            List<Point2D> points = new ArrayList<Point2D>();
-            for (Integer integer : path) {
-              Point2D point = getMidPoint(oLines.get(integer).getOrigin(), oLines.get(integer).getEndPoint());
-              points.add(point);
-            }
-
-            ArrayList<PathElement> result = new ArrayList<PathElement>();
-            result.add(new PathElement(nextArea.getID(), nextEdge.getLine(), start));
-
-            for (Point2D point : points)
-              result.add(new PathElement(nextArea.getID(), nextEdge.getLine(), point));
-
-            result.add(new PathElement(nextArea.getID(), nextEdge.getLine(), edgePoint));
-
-            return result;
-          }
-        }
-      } catch (Exception e) {
-        e.printStackTrace();
-      }
-    }
-
-    return originalPaths;
-  }
-
-  private boolean isOriginalPathOk(Collection<? extends PathElement> originalPaths) {
-    if (originalPaths.isEmpty()) {
-      Logger.warn("originalPaths is null");
-      return true;
-    }
-
-    TrafficArea lastArea = null;
-    ArrayList<PathElement> SameAreaElements = new ArrayList<>();
-    for (PathElement pathElement : originalPaths) {
-
-      TrafficArea area = manager.getTrafficArea((Area) model.getEntity(pathElement.getAreaID()));
-      for (TrafficBlockade block : area.getBlockades()) {
-        if (block.getBlockade().getShape().contains(pathElement.getGoal().getX(), pathElement.getGoal().getY()))
-          return false;
-      }
-      double minDistance = getMinDistance(area.getAllBlockingLines(), pathElement.getGoal());
-
-      if (minDistance < TrafficSimulator.RESCUE_AGENT_RADIUS / 2)
-        return false;
-      if (lastArea == null || lastArea == area) {
-        SameAreaElements.add(pathElement);
-      } else {
-        if (!checkElements(lastArea, SameAreaElements))
-          return false;
-        SameAreaElements.clear();
-      }
-      lastArea = area;
-    }
-    if (!checkElements(lastArea, SameAreaElements))
-      return false;
-    return true;
-  }
-
-  private boolean checkElements(TrafficArea lastArea, List<PathElement> sameAreaElements) {
-    if (sameAreaElements.size() <= 1)
-      return true;
-
-    for (int i = 1; i < sameAreaElements.size(); i++) {
-      Line2D line2D = new Line2D(sameAreaElements.get(i - 1).getGoal(), sameAreaElements.get(i).getGoal());
-      for (Line2D block : lastArea.getAllBlockingLines()) {
-        if (GeometryTools2D.getSegmentIntersectionPoint(line2D, block) != null)
-          return false;
-      }
-    }
-    return true;
+    Human human = (Human) model.getEntity(move.getAgentID());
+    manager.getTrafficAgent(human).setPath(path);
   }
 
   static Point2D getMidPoint(Point2D p1, Point2D p2) {
     return new Point2D((p1.getX() + p2.getX()) / 2, (p1.getY() + p2.getY()) / 2);
   }
 
-  private Point2D getTransivit(Point2D base, Point2D p1) {
-    return new Point2D((base.getX() - (p1.getX() - base.getX())), (base.getY() - (p1.getY() - base.getY())));
-
-  }
-
-  private Point2D getBestPoint(Edge edge, Area dest) {
-    return getMidPoint(edge.getStart(), edge.getEnd());
-  }
-
-  private double getMinDistance(List<Line2D> blockingLines, Point2D point) {
-    double min = Integer.MAX_VALUE;
-    for (Line2D block : blockingLines) {
-      Point2D tempPoint = GeometryTools2D.getClosestPointOnSegment(block, point);
-      double tempDistance = GeometryTools2D.getDistance(point, tempPoint);
-      if (tempDistance < min)
-        min = tempDistance;
-    }
-    return min;
-
-  }
-
   // Return the loaded civilian (if any)
   private Civilian handleLoad(AKLoad load, ChangeSet changes) {
     EntityID agentID = load.getAgentID();
@@ -774,11 +539,17 @@ public class TrafficSimulator extends StandardSimulator implements GUIComponent
     for (TrafficAgent agent : manager.getAgents()) {
       agent.beginTimestep();
     }
+    if (engine != null) {
+      engine.beginTimestep();
+    }
     long pre = System.currentTimeMillis();
     Logger.debug("Running " + MICROSTEPS + " microsteps");
     for (int i = 0; i < MICROSTEPS; i++) {
       microstep();
     }
+    if (engine != null) {
+      engine.endTimestep();
+    }
 
     long post = System.currentTimeMillis();
     for (TrafficAgent agent : manager.getAgents()) {
@@ -796,8 +567,12 @@ public class TrafficSimulator extends StandardSimulator implements GUIComponent
   }
 
   private void microstep() {
-    for (TrafficAgent agent : manager.getAgents()) {
-      agent.step(STEP_TIME_MS);
+    if (engine != null) {
+      engine.microstep(STEP_TIME_MS);
+    } else {
+      for (TrafficAgent agent : manager.getAgents()) {
+        agent.step(STEP_TIME_MS);
+      }
     }
     gui.refresh();
   }
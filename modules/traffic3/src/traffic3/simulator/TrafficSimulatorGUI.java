@@ -33,6 +33,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.concurrent.CountDownLatch;
 
+import traffic3.objects.NavigationGraph;
 import traffic3.objects.TrafficArea;
 import traffic3.objects.TrafficAgent;
 import traffic3.objects.TrafficBlockade;
@@ -296,18 +297,16 @@ public class TrafficSimulatorGUI extends JPanel {
 					g.fill(shape);
 					g.setColor(AREA_OUTLINE_COLOUR);
 					paintEdges(edges, g);
-					int[][] graph = area.getGraph();
+					NavigationGraph graph = area.getNavigationGraph();
 					List<Line2D> oLines = area.getOpenLines();
 					g.setColor(Color.green);
 					paintLines(oLines, g);
 					g.setColor(Color.yellow);
-					for (int i = 0; i < graph.length; i++) {
-						for (int j = 0; j < graph.length; j++) {
-							if (graph[i][j] > 10000)
+					for (int i = 0; i < graph.size(); i++) {
+						for (int j : graph.getNeighbours(i)) {
+							if (j < i)
 								continue;
-							Line2D line = new Line2D(TrafficSimulator.getMidPoint(oLines.get(i).getOrigin(), oLines.get(i).getEndPoint()),
-									TrafficSimulator.getMidPoint(oLines.get(j).getOrigin(), oLines.get(j).getEndPoint()));
-							paintLine(line, g);
+							paintLine(new Line2D(graph.getWaypoint(i), graph.getWaypoint(j)), g);
 						}
 					}
 				} else {
@@ -8,4 +8,4 @@ fi
 . functions.sh
 
 makeClasspath $BASEDIR/jars $BASEDIR/lib
-java -Xmx1024m -cp $CP -Dlog4j.log.dir=$BASEDIR/logs/log rescuecore2.log.LogExtractor -c $BASEDIR/config/logviewer.cfg $1 $2
\ No newline at end of file
+java -Xmx1024m -Djava.awt.headless=true -cp $CP -Dlog4j.log.dir=$BASEDIR/logs/log rescuecore2.log.LogExtractor -c $BASEDIR/config/logviewer.cfg $1 $2
\ No newline at end of file